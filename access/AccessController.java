@@ -0,0 +1,161 @@
+package org.andy.access;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.andy.user.User;
+
+/*
+ * AccessController decides whether a User may perform an action on a resource, by the
+ * AccessRules it was last given and the effective privileges of the user:
+ *
+ * 		AccessController access = new AccessController(rules);
+ * 		if (access.isAllowed(user, "reports/2024/q1", "read"))
+ * 			...
+ *
+ * The rules are compiled into a table which holds, for every resource named in a rule and
+ * every action, the privileges which allow it and the privileges which deny it as two masks
+ * of Privilege.mask(). A decision is then a map lookup and two ANDs with the effective mask
+ * of the user. Resources below those named in a rule are resolved to their nearest named
+ * resource when first asked for and the result is cached, so walking up the path is only
+ * done once per resource.
+ *
+ * Decisions are cached by privilege mask rather than by user, so a privilege or role granted
+ * to or taken from a user applies to the next decision without anything to invalidate. The
+ * cache belongs to the compiled table and setRules() swaps in a new table with an empty
+ * cache, so nothing decided by the old rules is used after it returns.
+ */
+public class AccessController {
+	private static final int CACHE_SIZE = 65536;
+	private volatile Table table;
+
+	public AccessController(AccessRules rules) { this.setRules(rules); }
+
+	/* Compiles the rules and replaces the current rules with them, clearing the cache. */
+	public synchronized void setRules(AccessRules rules) {
+		long version = this.table == null ? 1 : this.table.version + 1;
+		this.table = new Table(rules, version);
+	}
+
+	/* Returns true if the user may perform the action on the resource. */
+	public boolean isAllowed(User user, String resource, String action) {
+		Table table = this.table;
+		return table.decisions(resource).isAllowed(user.getEffectiveMask(), table.action(action));
+	}
+
+	/* Throws a SecurityException if the user may not perform the action on the resource. */
+	public void check(User user, String resource, String action) {
+		if (!this.isAllowed(user, resource, action))
+			throw new SecurityException(user.getUsername() + " may not " + action + " " + resource);
+	}
+
+	/* The number of resources cached which are not named in a rule. */
+	public int getCacheSize() { return this.table.cache.size(); }
+	/* The version of the rules, it increases by one with every setRules(). */
+	public long getVersion() { return this.table.version; }
+
+	/*
+	 * The allow and deny masks of a resource, indexed by action. Index 0 is for any action
+	 * not named in a rule, which only ANY_ACTION rules apply to.
+	 */
+	private static final class Decisions {
+		private final long[] allow;
+		private final long[] deny;
+
+		Decisions(int actions) {
+			this.allow = new long[actions];
+			this.deny = new long[actions];
+		}
+
+		boolean isAllowed(long privileges, int action) {
+			return (privileges & this.allow[action]) != 0 && (privileges & this.deny[action]) == 0;
+		}
+	}
+
+	/* The rules given to one setRules() compiled for lookup, and the resources resolved since. */
+	private static final class Table {
+		private final long version;
+		private final Map<String, Integer> actions = new HashMap<String, Integer>();
+		private final Map<String, Decisions> resources = new HashMap<String, Decisions>();
+		private final ConcurrentHashMap<String, Decisions> cache = new ConcurrentHashMap<String, Decisions>();
+
+		Table(AccessRules rules, long version) {
+			this.version = version;
+
+			for (AccessRules.Rule rule : rules.getRules()) {
+				if (!rule.action.equals(AccessRules.ANY_ACTION) && !this.actions.containsKey(rule.action))
+					this.actions.put(rule.action, this.actions.size() + 1);
+			}
+			int count = this.actions.size() + 1;
+
+			// The rules as written, per resource, with which actions they were written for
+			Map<String, Decisions> written = new HashMap<String, Decisions>();
+			Map<String, boolean[]> defined = new HashMap<String, boolean[]>();
+			for (AccessRules.Rule rule : rules.getRules()) {
+				Decisions decisions = written.get(rule.resource);
+				if (decisions == null) {
+					decisions = new Decisions(count);
+					written.put(rule.resource, decisions);
+					defined.put(rule.resource, new boolean[count]);
+				}
+				int action = this.action(rule.action);
+				if (rule.allow)
+					decisions.allow[action] |= rule.mask;
+				else
+					decisions.deny[action] |= rule.mask;
+				defined.get(rule.resource)[action] = true;
+			}
+
+			// Every action of every resource resolved to the nearest resource with a rule for it
+			if (!written.containsKey(AccessRules.ROOT))
+				written.put(AccessRules.ROOT, new Decisions(count));
+			for (String resource : written.keySet()) {
+				Decisions decisions = new Decisions(count);
+				for (int action = 0; action < count; action++) {
+					for (String r = resource; r != null; r = parent(r)) {
+						boolean[] isDefined = defined.get(r);
+						if (isDefined != null && (isDefined[action] || isDefined[0])) {
+							Decisions rule = written.get(r);
+							decisions.allow[action] = rule.allow[action] | rule.allow[0];
+							decisions.deny[action] = rule.deny[action] | rule.deny[0];
+							break;
+						}
+					}
+				}
+				this.resources.put(resource, decisions);
+			}
+		}
+
+		int action(String action) {
+			Integer index = this.actions.get(action);
+			return index == null ? 0 : index;
+		}
+
+		Decisions decisions(String resource) {
+			Decisions decisions = this.resources.get(resource);
+			if (decisions != null)
+				return decisions;
+			decisions = this.cache.get(resource);
+			if (decisions != null)
+				return decisions;
+
+			String r = parent(resource);
+			while ((decisions = this.resources.get(r)) == null)
+				r = parent(r); // ROOT is always in resources
+			// Resources come from requests, so the cache is bounded by starting again when full
+			if (this.cache.size() >= CACHE_SIZE)
+				this.cache.clear();
+			this.cache.put(resource, decisions);
+			return decisions;
+		}
+
+		/* The resource above the resource, ROOT for a top level one, and null above ROOT. */
+		private static String parent(String resource) {
+			if (resource.isEmpty())
+				return null;
+			int index = resource.lastIndexOf('/');
+			return index < 0 ? AccessRules.ROOT : resource.substring(0, index);
+		}
+	}
+}
\ No newline at end of file
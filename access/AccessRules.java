@@ -0,0 +1,69 @@
+package org.andy.access;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.andy.user.User;
+
+/*
+ * AccessRules is the set of rules an AccessController decides by. A rule allows or denies an
+ * action on a resource to users holding any of the given privileges:
+ *
+ * 		AccessRules rules = new AccessRules()
+ * 			.allow("reports", "read", User.Privilege.STANDARD)
+ * 			.allow("reports", AccessRules.ANY_ACTION, User.Privilege.USER_ADMIN)
+ * 			.deny("reports/payroll", "read", User.Privilege.STANDARD);
+ *
+ * Resources are paths separated by '/' and a rule on a resource covers every resource below
+ * it, so the rules above apply to "reports/2024/q1" too. The rules of the nearest resource
+ * with any rule for the action decide, where a deny overrides an allow, and an action with no
+ * rule on the resource or any resource above it is denied. ROOT is above every resource.
+ *
+ * AccessRules is not thread safe, it is built once and then given to an AccessController
+ * which compiles it. Changing it afterwards has no effect until it is given again.
+ */
+public class AccessRules {
+	public static final String ANY_ACTION = "*";
+	public static final String ROOT = "";
+	private final List<Rule> rules = new ArrayList<Rule>();
+
+	public AccessRules allow(String resource, String action, User.Privilege... privileges) {
+		return this.add(resource, action, privileges, true);
+	}
+
+	public AccessRules deny(String resource, String action, User.Privilege... privileges) {
+		return this.add(resource, action, privileges, false);
+	}
+
+	private AccessRules add(String resource, String action, User.Privilege[] privileges, boolean allow) {
+		if (resource.startsWith("/") || resource.endsWith("/"))
+			throw new IllegalArgumentException("Resource must not start or end with '/': " + resource);
+		if (action.isEmpty())
+			throw new IllegalArgumentException("Action must not be empty");
+
+		long mask = 0;
+		for (User.Privilege privilege : privileges)
+			mask |= privilege.mask();
+		this.rules.add(new Rule(resource, action, mask, allow));
+		return this;
+	}
+
+	List<Rule> getRules() { return Collections.unmodifiableList(this.rules); }
+
+	public int size() { return this.rules.size(); }
+
+	static final class Rule {
+		final String resource;
+		final String action;
+		final long mask;
+		final boolean allow;
+
+		Rule(String resource, String action, long mask, boolean allow) {
+			this.resource = resource;
+			this.action = action;
+			this.mask = mask;
+			this.allow = allow;
+		}
+	}
+}
\ No newline at end of file
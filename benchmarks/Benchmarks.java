@@ -0,0 +1,34 @@
+package org.andy;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Benchmarks runs the JMH benchmarks matching the regex given, or all of them, first on a
+ * single thread and then on as many threads as there are processors (at least 2), so that
+ * contention on the hot paths shows up as well as their cost. The results of each run are
+ * written to jmh-1.json and jmh-N.json for comparison between builds.
+ *
+ * 		java -jar benchmarks/target/benchmarks.jar [regex]
+ *
+ * To pass any other JMH options run org.openjdk.jmh.Main from the same jar instead.
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : "org\\.andy\\..*Benchmark";
+		int[] threads = { 1, Math.max(2, Runtime.getRuntime().availableProcessors()) };
+
+		for (int t : threads) {
+			Options options = new OptionsBuilder()
+				.include(include)
+				.threads(t)
+				.result("jmh-" + t + ".json")
+				.resultFormat(ResultFormatType.JSON)
+				.build();
+			new Runner(options).run();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+package org.andy.login;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.andy.security.Password;
+import org.andy.security.SecurityPolicy;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A full AbstractLogin round trip, from the user input to onSuccess(), against a UserStore
+ * held in memory under the strict policy. Each thread logs in users of its own in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginBenchmark {
+	private static final int USERS = 1000;
+	private static final String PASSWORD = "pass1Word!";
+
+	@State(Scope.Benchmark)
+	public static class Server {
+		final UserStore store = new UserStore();
+
+		@Setup
+		public void setup() {
+			SecurityPolicy.getInstance().setStrict(true);
+			String secret = new Password(PASSWORD.toCharArray(), true).getSecret();
+			for (int i = 0; i < USERS; i++)
+				this.store.add(new User("User " + i, "user." + i, new Password(secret, new String[0], new Date(), false)));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+		int next;
+	}
+
+	@Benchmark
+	public User login(Server server, Client client) {
+		client.next = (client.next + 1) % USERS;
+		final String username = "user." + client.next;
+		AbstractLogin login = new AbstractLogin(server.store) {
+			protected void getUserInput() {
+				this.setPermittedAttempts(1);
+				this.setUsername(username);
+				this.setPassword(new Password(PASSWORD.toCharArray()));
+			}
+			protected void onFailure() {}
+			protected void onPasswordExpired() {}
+			protected void onPasswordLocked() {}
+			protected void onSuccess() {}
+		};
+		return login.getUser();
+	}
+}
\ No newline at end of file
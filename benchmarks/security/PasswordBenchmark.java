@@ -0,0 +1,73 @@
+package org.andy.security;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Password.CharArray.getBytes(), Password.equals() and Password.change() under the strict
+ * policy. equals() compares a new verification password with one password shared by every
+ * thread, as logins of one user do. change() is made to a password of each thread, cycling
+ * through more passwords than the history holds so every change rotates the history.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordBenchmark {
+	private static final String[] PASSWORDS = { "pass1Word!", "pass2Word!", "pass3Word!", "pass4Word!" };
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+		final char[] plainText = PASSWORDS[0].toCharArray();
+		Password password;
+		Password.CharArray charArray;
+
+		@Setup
+		public void setup() {
+			SecurityPolicy.getInstance().setStrict(true);
+			this.password = new Password(this.plainText.clone(), true);
+			this.charArray = this.password.new CharArray(this.plainText);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Owned {
+		final char[][] plainTexts = new char[PASSWORDS.length][];
+		Password password;
+		int next;
+
+		@Setup
+		public void setup() {
+			SecurityPolicy.getInstance().setStrict(true);
+			for (int i = 0; i < PASSWORDS.length; i++)
+				this.plainTexts[i] = PASSWORDS[i].toCharArray();
+			this.password = new Password(this.plainTexts[0].clone(), true);
+			this.next = 1;
+		}
+	}
+
+	@Benchmark
+	public byte[] getBytes(Shared shared) { return shared.charArray.getBytes(); }
+
+	@Benchmark
+	public boolean equals(Shared shared) {
+		return shared.password.equals(new Password(shared.plainText.clone()));
+	}
+
+	@Benchmark
+	public Password change(Owned owned) {
+		owned.password.change(owned.plainTexts[owned.next].clone());
+		owned.next = (owned.next + 1) % PASSWORDS.length;
+		return owned.password;
+	}
+}
\ No newline at end of file
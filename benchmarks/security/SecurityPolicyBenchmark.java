@@ -0,0 +1,47 @@
+package org.andy.security;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * SecurityPolicy.encrypt() and validate() under the strict policy. encrypt() is measured
+ * through the Password constructors which call it, once for a new password, which is
+ * validated, digested and checked against its history, and once for a password to verify,
+ * which is only digested.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityPolicyBenchmark {
+	private final char[] plainText = new String("pass1Word!").toCharArray();
+	private SecurityPolicy policy;
+	private Password.CharArray charArray;
+
+	@Setup
+	public void setup() {
+		this.policy = SecurityPolicy.getInstance();
+		this.policy.setStrict(true);
+		this.charArray = new Password(this.plainText.clone(), true).new CharArray(this.plainText);
+	}
+
+	@Benchmark
+	public Password encryptNew() { return new Password(this.plainText.clone(), true); }
+
+	@Benchmark
+	public Password encryptVerification() { return new Password(this.plainText.clone()); }
+
+	@Benchmark
+	public void validate() { this.policy.validate(this.policy.getSnapshot(), this.charArray); }
+}
\ No newline at end of file
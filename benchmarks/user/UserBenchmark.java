@@ -0,0 +1,41 @@
+package org.andy.user;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.andy.security.Password;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * User.hasPrivilege() of one user shared by every thread, for a privilege granted directly
+ * and one granted through a role.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserBenchmark {
+	private User user;
+
+	@Setup
+	public void setup() {
+		this.user = new User("Bench User", "bench.user", new Password(new String("pass1Word!").toCharArray(), true));
+		this.user.addRole(Role.define(0, "ADMIN", EnumSet.of(User.Privilege.USER_ADMIN)));
+	}
+
+	@Benchmark
+	public boolean hasPrivilege() { return this.user.hasPrivilege(User.Privilege.STANDARD); }
+
+	@Benchmark
+	public boolean hasRolePrivilege() { return this.user.hasPrivilege(User.Privilege.USER_ADMIN); }
+}
\ No newline at end of file
@@ -0,0 +1,59 @@
+package org.andy.events;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * Events holds what the Flight Recorder events of this library share. Usernames are never
+ * recorded, an event records a hash of the username instead, the first 8 bytes of an HMAC
+ * of it. The key is random so a recording can't be searched for a known username, unless
+ * the system property org.andy.events.key is set, in which case hashes from different runs
+ * and different servers with the same key can be matched up. hash() is only called once an
+ * event is known to be recorded, see shouldCommit(), so it costs nothing when recording is
+ * off.
+ */
+public final class Events {
+	public static final String CATEGORY = "User Access Control";
+	public static final String KEY_PROPERTY = "org.andy.events.key";
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final ThreadLocal<Mac> MACS = new ThreadLocal<Mac>() {
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance(MAC_ALGORITHM);
+				mac.init(Holder.KEY);
+				return mac;
+			}
+			catch (GeneralSecurityException ex) { // HmacSHA256 is required of every JDK
+				throw new IllegalStateException(ex);
+			}
+		}
+	};
+
+	/* The key is only made the first time something is hashed. */
+	private static final class Holder {
+		static final SecretKeySpec KEY = new SecretKeySpec(key(), MAC_ALGORITHM);
+
+		private static byte[] key() {
+			String property = System.getProperty(KEY_PROPERTY);
+			if (property != null && !property.isEmpty())
+				return property.getBytes(StandardCharsets.UTF_8);
+			byte[] key = new byte[32];
+			new SecureRandom().nextBytes(key);
+			return key;
+		}
+	}
+
+	private Events() {}
+
+	/* The hash of the username which events record, 0 if there is no username. */
+	public static long hash(String username) {
+		if (username == null)
+			return 0;
+		return ByteBuffer.wrap(MACS.get().doFinal(username.getBytes(StandardCharsets.UTF_8))).getLong();
+	}
+}
\ No newline at end of file
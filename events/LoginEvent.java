@@ -0,0 +1,71 @@
+package org.andy.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * A LoginEvent is one stage of a login by an AbstractLogin, timed from start() to finish():
+ *
+ * 		input     getUserInput(), the time the user took to answer
+ * 		validate  the LoginServer validating the request, ie. looking up the user and the hash
+ * 		expired   onPasswordExpired(), ie. the user changing an expired password
+ * 		token     issuing a session token
+ * 		success   onSuccess()
+ * 		failure   onFailure(), an unknown user or a wrong password
+ * 		locked    onPasswordLocked()
+ *
+ * The attempt numbers the stages of each try from 1, so the stages of one login can be
+ * told apart from the next. When recording is off, or the event is disabled, start() and
+ * finish() do next to nothing and the username isn't hashed.
+ */
+@Name("org.andy.Login")
+@Label("Login Stage")
+@Category({ Events.CATEGORY, "Login" })
+@Description("A stage of a login, ie. reading input or validating the request")
+@StackTrace(false)
+public final class LoginEvent extends jdk.jfr.Event {
+	public static final String INPUT = "input";
+	public static final String VALIDATE = "validate";
+	public static final String EXPIRED = "expired";
+	public static final String TOKEN = "token";
+	public static final String SUCCESS = "success";
+	public static final String FAILURE = "failure";
+	public static final String LOCKED = "locked";
+
+	@Label("Stage")
+	private String stage;
+
+	@Label("User Hash")
+	@Description("Hash of the username, see org.andy.events.Events")
+	private long userHash;
+
+	@Label("Attempt")
+	private int attempt;
+
+	@Label("Validated")
+	@Description("Whether the request was validated, for the validate stage")
+	private boolean validated;
+
+	/* Begins timing a stage. */
+	public static LoginEvent start() {
+		LoginEvent event = new LoginEvent();
+		event.begin();
+		return event;
+	}
+
+	/* Ends the stage and records it if the event is enabled and over its threshold. */
+	public void finish(String stage, String username, int attempt) { this.finish(stage, username, attempt, false); }
+	public void finish(String stage, String username, int attempt, boolean validated) {
+		this.end();
+		if (this.shouldCommit()) {
+			this.stage = stage;
+			this.userHash = Events.hash(username);
+			this.attempt = attempt;
+			this.validated = validated;
+			this.commit();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package org.andy.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * A PasswordEvent is a Password being locked, unlocked or expired. It is only recorded by
+ * the thread which made the transition, so a password locked by several failures at once
+ * is recorded once.
+ */
+@Name("org.andy.PasswordState")
+@Label("Password State")
+@Category({ Events.CATEGORY, "Security" })
+@Description("A password being locked, unlocked or expired")
+@StackTrace(false)
+public final class PasswordEvent extends jdk.jfr.Event {
+	public static final String LOCKED = "locked";
+	public static final String UNLOCKED = "unlocked";
+	public static final String EXPIRED = "expired";
+
+	@Label("Transition")
+	private String transition;
+
+	@Label("User Hash")
+	@Description("Hash of the username, 0 if unknown, see org.andy.events.Events")
+	private long userHash;
+
+	@Label("Login Attempts")
+	@Description("Failed login attempts at the time of the transition")
+	private int loginAttempts;
+
+	/* Records the transition if the event is enabled. */
+	public static void record(String transition, String username, int loginAttempts) {
+		PasswordEvent event = new PasswordEvent();
+		if (event.shouldCommit()) {
+			event.transition = transition;
+			event.userHash = Events.hash(username);
+			event.loginAttempts = loginAttempts;
+			event.commit();
+		}
+	}
+}
\ No newline at end of file
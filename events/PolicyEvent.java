@@ -0,0 +1,57 @@
+package org.andy.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * A PolicyEvent times SecurityPolicy.encrypt() or the validation of a new password against
+ * the rules. The user is only known for the password of a User, a password typed in at a
+ * login has a user hash of 0. Encrypting a new password includes validating it, so its
+ * validate event falls within its encrypt event.
+ */
+@Name("org.andy.PasswordPolicy")
+@Label("Password Policy")
+@Category({ Events.CATEGORY, "Security" })
+@Description("SecurityPolicy encrypting or validating a password")
+@StackTrace(false)
+public final class PolicyEvent extends jdk.jfr.Event {
+	public static final String ENCRYPT = "encrypt";
+	public static final String VALIDATE = "validate";
+
+	@Label("Operation")
+	private String operation;
+
+	@Label("User Hash")
+	@Description("Hash of the username, 0 if unknown, see org.andy.events.Events")
+	private long userHash;
+
+	@Label("Algorithm")
+	@Description("The encryption algorithm of the policy, null for none")
+	private String algorithm;
+
+	@Label("Rejected")
+	@Description("Whether the password broke a rule or was reused")
+	private boolean rejected;
+
+	/* Begins timing an operation. */
+	public static PolicyEvent start() {
+		PolicyEvent event = new PolicyEvent();
+		event.begin();
+		return event;
+	}
+
+	/* Ends the operation and records it if the event is enabled and over its threshold. */
+	public void finish(String operation, String username, String algorithm, boolean rejected) {
+		this.end();
+		if (this.shouldCommit()) {
+			this.operation = operation;
+			this.userHash = Events.hash(username);
+			this.algorithm = algorithm;
+			this.rejected = rejected;
+			this.commit();
+		}
+	}
+}
\ No newline at end of file
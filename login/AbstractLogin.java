@@ -1,5 +1,6 @@
 package org.andy.login;
 
+import org.andy.events.LoginEvent;
 import org.andy.security.Password;
 import org.andy.user.User;
 
@@ -21,34 +22,60 @@ import org.andy.user.User;
  *
  * By default an AbstractLogin terminates after 3 incorrect login attempts but this can be 
  * changed by the subclass.
+ *
+ * If it is given SessionTokens, a token is issued to the user after a successful login, once
+ * an expired password has been dealt with and before onSuccess(), see getToken(). Later
+ * requests can then be authenticated with the token rather than the password.
+ *
+ * Each stage of a login, from reading the input to onSuccess(), is timed as a Flight Recorder
+ * LoginEvent under a hash of the username, see the org.andy.events package. A slow login can
+ * then be put down to the user, the LoginServer, or the subclass.
  */
 public abstract class AbstractLogin {
 	private static final int PERMITTED_ATTEMPTS = 3;
 	private Password password;
 	private String username;
+	private String token;
 	private User user;
 	private boolean isValid;
 	private int permittedAttempts;
 	
-	public AbstractLogin(LoginServer server) {
+	public AbstractLogin(LoginServer server) { this(server, null); }
+	public AbstractLogin(LoginServer server, SessionTokens tokens) {
 		int loginCount = 0;
 		this.setPermittedAttempts(PERMITTED_ATTEMPTS);
 		
 		do {			
+			int attempt = loginCount + 1;
+			LoginEvent event = LoginEvent.start();
 			this.getUserInput();
+			event.finish(LoginEvent.INPUT, this.getUsername(), attempt);
 			
+			event = LoginEvent.start();
 			LoginRequest request = new LoginRequest(this.getUsername(), this.getPassword());
 			LoginResponse response = server.validate(request);
+			event.finish(LoginEvent.VALIDATE, this.getUsername(), attempt, response.isValidated());
 			
 			if (response.isValidated()) {
 				this.setUser(response.getUser()); // set User for subclass
 				
 				// Subclass needs to take action if a password has expired
-				if (this.getUser().getPassword().isExpired())
+				if (this.getUser().getPassword().isExpired()) {
+					event = LoginEvent.start();
 					this.onPasswordExpired();
+					event.finish(LoginEvent.EXPIRED, this.getUsername(), attempt);
+				}
+				
+				if (tokens != null) {
+					event = LoginEvent.start();
+					this.setToken(tokens.issue(this.getUser()));
+					event.finish(LoginEvent.TOKEN, this.getUsername(), attempt);
+				}
 		
 				// Subclass needs to take action after password validation has succeeded
+				event = LoginEvent.start();
 				this.onSuccess();			
+				event.finish(LoginEvent.SUCCESS, this.getUsername(), attempt);
 				break;
 			}
 			// Login has failed, subclass needs to take action here. It will fail for
@@ -56,12 +83,16 @@ public abstract class AbstractLogin {
 			// there is a lock on the password. If there is a lock a User object will 
 			// be returned otherwise it will be null.
 			else {
+				event = LoginEvent.start();
 				try {
-					if (response.getUser().getPassword().isLocked()) // throws ex if user=null
+					if (response.getUser().getPassword().isLocked()) { // throws ex if user=null
 						this.onPasswordLocked();
+						event.finish(LoginEvent.LOCKED, this.getUsername(), attempt);
+					}
 				}
 				catch (NullPointerException ex) {
 					this.onFailure();
+					event.finish(LoginEvent.FAILURE, this.getUsername(), attempt);
 				}
 			}
 		}
@@ -76,10 +107,13 @@ public abstract class AbstractLogin {
 	
 	private Password getPassword() { return this.password; }
 	private int getPermittedAttempts() {return this.permittedAttempts; }
+	/* The token issued on success, or null if there are no SessionTokens or no success yet. */
+	protected String getToken() { return this.token; }
 	protected User getUser() { return this.user; }
 	private String getUsername() { return this.username; }
 	
 	protected void setPassword(Password password) { this.password = password; }
+	private void setToken(String token) { this.token = token; }
 	protected void setPermittedAttempts(int permittedAttempts) { this.permittedAttempts = permittedAttempts; }
 	protected void setUser(User user) { this.user = user; }
 	protected void setUsername(String username) { this.username = username; }
@@ -0,0 +1,36 @@
+package org.andy.login;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/*
+ * An AsyncLoginServer validates LoginRequests without blocking the calling thread. The hashing
+ * of a request is done elsewhere, ie. on a worker pool, and the LoginResponse is delivered
+ * through a CompletableFuture so a gateway can have many logins in flight at once. A future
+ * completes exceptionally with a SecurityException if the server can't take any more work.
+ *
+ * An existing LoginServer is made asynchronous with a LoginServerAdapter.
+ */
+public interface AsyncLoginServer extends LoginServer {
+	CompletableFuture<LoginResponse> validateAsync(LoginRequest request);
+	
+	/*
+	 * Validates every request, spreading the work across the server's workers. The responses
+	 * are in the same order as the requests.
+	 */
+	CompletableFuture<List<LoginResponse>> validateAll(Collection<LoginRequest> requests);
+	
+	/* The blocking call simply waits for the asynchronous one. */
+	default LoginResponse validate(LoginRequest request) { 
+		try {
+			return this.validateAsync(request).join();
+		}
+		catch (CompletionException ex) {
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException)ex.getCause();
+			throw ex;
+		}
+	}
+}
\ No newline at end of file
@@ -4,17 +4,22 @@ import org.andy.security.Password;
 
 /*
  * A LoginRequest is used by AbstractLogin to encapsulate login details and send them to an
- * implementation of LoginServer for validation.
+ * implementation of LoginServer for validation. The source identifies where the request came
+ * from, ie. the address of a network client, and is null if it is not known.
  */
 public class LoginRequest {
 	private String username;
 	private Password password;
+	private String source;
 	
-	public LoginRequest(String username, Password password) {
+	public LoginRequest(String username, Password password) { this(username, password, null); }
+	public LoginRequest(String username, Password password, String source) {
 		this.username = username;
 		this.password = password;
+		this.source = source;
 	}
 	
 	public String getUsername() { return this.username; }
 	public Password getPassword() { return this.password; }
+	public String getSource() { return this.source; }
 }
\ No newline at end of file
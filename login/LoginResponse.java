@@ -18,6 +18,6 @@ public class LoginResponse {
 		this.user = user;
 	}
 	
-	boolean isValidated() { return this.isValidated; }
-	User getUser() { return this.user; }
+	public boolean isValidated() { return this.isValidated; }
+	public User getUser() { return this.user; }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package org.andy.login;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * LoginServerAdapter makes any LoginServer an AsyncLoginServer by running its blocking
+ * validate() on a pool of worker threads. The calling thread only queues the request, so a
+ * few threads can keep thousands of logins in flight while the hashing is spread across the
+ * workers. A batch is worked through by one task per worker, each taking the next request
+ * until none are left, so a batch of any size takes only that many places in the queue.
+ *
+ * The adapter either owns a bounded pool, sized to the number of processors by default since
+ * hashing is CPU bound, or runs on an Executor supplied by the caller. When the bounded queue
+ * is full a request fails with a SecurityException rather than waiting without limit. The
+ * password of a request which is refused, or left when its batch fails, is cleared as the
+ * server would have cleared it.
+ */
+public class LoginServerAdapter implements AsyncLoginServer, Closeable {
+	private static final int QUEUE_CAPACITY = 4096;
+	private final LoginServer server;
+	private final Executor executor;
+	private final int parallelism; // tasks a batch is split across
+	private final boolean isOwner; // shut the executor down on close()
+	
+	public LoginServerAdapter(LoginServer server) {
+		this(server, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public LoginServerAdapter(LoginServer server, int threads) {
+		this(server, pool(threads), threads, true);
+	}
+	
+	public LoginServerAdapter(LoginServer server, Executor executor, int parallelism) {
+		this(server, executor, parallelism, false);
+	}
+	
+	private LoginServerAdapter(LoginServer server, Executor executor, int parallelism, boolean isOwner) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		this.server = server;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.isOwner = isOwner;
+	}
+	
+	private static ExecutorService pool(int threads) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "login-worker-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	}
+	
+	public CompletableFuture<LoginResponse> validateAsync(final LoginRequest request) {
+		final CompletableFuture<LoginResponse> future = new CompletableFuture<LoginResponse>();
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					try {
+						future.complete(LoginServerAdapter.this.server.validate(request));
+					}
+					catch (RuntimeException ex) {
+						future.completeExceptionally(ex);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException ex) {
+			request.getPassword().clear();
+			future.completeExceptionally(new SecurityException("Login capacity exceeded, try again later"));
+		}
+		return future;
+	}
+	
+	public CompletableFuture<List<LoginResponse>> validateAll(Collection<LoginRequest> requests) {
+		final LoginRequest[] batch = requests.toArray(new LoginRequest[0]);
+		final LoginResponse[] responses = new LoginResponse[batch.length];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger remaining = new AtomicInteger(Math.min(this.parallelism, batch.length));
+		final CompletableFuture<List<LoginResponse>> future = new CompletableFuture<List<LoginResponse>>();
+		if (batch.length == 0) {
+			future.complete(new ArrayList<LoginResponse>());
+			return future;
+		}
+		
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					for (int i = next.getAndIncrement(); i < batch.length && !future.isDone(); i = next.getAndIncrement())
+						responses[i] = LoginServerAdapter.this.server.validate(batch[i]);
+				}
+				catch (RuntimeException ex) {
+					future.completeExceptionally(ex);
+				}
+				if (remaining.decrementAndGet() == 0) { // the last task to finish
+					clear(batch, responses);
+					future.complete(Arrays.asList(responses));
+				}
+			}
+		};
+		
+		for (int tasks = remaining.get(); tasks > 0; tasks--) {
+			try {
+				this.executor.execute(task);
+			}
+			catch (RejectedExecutionException ex) {
+				// the tasks already accepted work through the whole batch, it fails if there are none
+				if (remaining.decrementAndGet() == 0) {
+					clear(batch, responses);
+					if (next.get() == 0)
+						future.completeExceptionally(new SecurityException("Login capacity exceeded, try again later"));
+					else
+						future.complete(Arrays.asList(responses));
+				}
+			}
+		}
+		return future;
+	}
+	
+	/* Clears the passwords of the requests without a response, which were never validated. */
+	private static void clear(LoginRequest[] batch, LoginResponse[] responses) {
+		for (int i = 0; i < batch.length; i++) {
+			if (responses[i] == null)
+				batch[i].getPassword().clear();
+		}
+	}
+	
+	/* LoginServer, validates on the calling thread as there is nothing to gain by waiting. */
+	public LoginResponse validate(LoginRequest request) { return this.server.validate(request); }
+	
+	/* Shuts down the pool if the adapter created it, requests already queued are completed. */
+	public void close() {
+		if (this.isOwner)
+			((ExecutorService)this.executor).shutdown();
+	}
+}
\ No newline at end of file
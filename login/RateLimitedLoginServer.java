@@ -0,0 +1,87 @@
+package org.andy.login;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/*
+ * RateLimitedLoginServer admits requests to another server only while their username and their
+ * source are within budget, see RateLimiter. Every attempt counts, as whether it would fail is
+ * not known until the password has been hashed, which is the work being protected. A request
+ * over budget is refused with a SecurityException before it reaches the server, so a burst of
+ * guesses costs a map lookup each rather than a hash. The plain text of a refused request's
+ * password is cleared as it never reaches a server to do it. Requests without a source are
+ * only limited by username.
+ */
+public class RateLimitedLoginServer implements AsyncLoginServer {
+	private final AsyncLoginServer server;
+	private final RateLimiter usernames;
+	private final RateLimiter sources;
+
+	public RateLimitedLoginServer(AsyncLoginServer server, RateLimiter usernames, RateLimiter sources) {
+		this.server = server;
+		this.usernames = usernames;
+		this.sources = sources;
+	}
+
+	/* Limits a blocking LoginServer, requests are validated on the calling thread. */
+	public RateLimitedLoginServer(LoginServer server, RateLimiter usernames, RateLimiter sources) {
+		this(new LoginServerAdapter(server, new Executor() {
+			public void execute(Runnable task) { task.run(); }
+		}, 1), usernames, sources);
+	}
+
+	/* Returns true if the request is within both budgets, or clears its password if not. */
+	private boolean admit(LoginRequest request) {
+		if ((request.getSource() == null || this.sources.tryAcquire(request.getSource())) &&
+				this.usernames.tryAcquire(request.getUsername()))
+			return true;
+		request.getPassword().clear();
+		return false;
+	}
+
+	private static <T> CompletableFuture<T> refused() {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(new SecurityException("Too many login attempts, try again later"));
+		return future;
+	}
+
+	public CompletableFuture<LoginResponse> validateAsync(LoginRequest request) {
+		if (!this.admit(request))
+			return refused();
+		return this.server.validateAsync(request);
+	}
+
+	/*
+	 * The requests within budget are passed on as one batch. A batch has no way to refuse a
+	 * single request, so a request over budget is answered with a failed login instead.
+	 */
+	public CompletableFuture<List<LoginResponse>> validateAll(Collection<LoginRequest> requests) {
+		final boolean[] isAdmitted = new boolean[requests.size()];
+		List<LoginRequest> admitted = new ArrayList<LoginRequest>(requests.size());
+		int i = 0;
+		for (LoginRequest request : requests) {
+			if (isAdmitted[i++] = this.admit(request))
+				admitted.add(request);
+		}
+		if (admitted.size() == requests.size())
+			return this.server.validateAll(admitted);
+
+		return this.server.validateAll(admitted).thenApply(
+			new Function<List<LoginResponse>, List<LoginResponse>>() {
+				public List<LoginResponse> apply(List<LoginResponse> responses) {
+					List<LoginResponse> all = new ArrayList<LoginResponse>(isAdmitted.length);
+					int next = 0;
+					for (boolean admitted : isAdmitted)
+						all.add(admitted ? responses.get(next++) : new LoginResponse(false));
+					return all;
+				}
+			});
+	}
+
+	public RateLimiter getUsernameLimiter() { return this.usernames; }
+	public RateLimiter getSourceLimiter() { return this.sources; }
+}
\ No newline at end of file
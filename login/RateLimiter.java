@@ -0,0 +1,109 @@
+package org.andy.login;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * RateLimiter admits at most limit attempts per key, ie. a username or a source address, in
+ * any sliding window of the specified length. 
+ *
+ * The window is approximated the usual way from two fixed windows: the count of the current
+ * window plus the count of the previous window weighted by how much of it still overlaps the
+ * sliding window. The state of a key is a single long holding the current window number and
+ * both counts, and is updated with compareAndSet so no lock is taken:
+ *
+ * 		window(32) previous(16) current(16)
+ *
+ * Keys which have been idle for two windows count nothing and are evicted by a sweep made at
+ * most once per window, by whichever thread first notices a new window. An attempt racing with
+ * the eviction of its key may go uncounted, which the approximation can afford.
+ */
+public final class RateLimiter {
+	private static final int MAX_COUNT = 0xFFFF;
+
+	private final ConcurrentHashMap<String, AtomicLong> keys = new ConcurrentHashMap<String, AtomicLong>();
+	private final int limit;
+	private final long window; // nanoseconds
+	private final long origin = System.nanoTime();
+	private final AtomicLong lastSweep = new AtomicLong();
+	private final LongAdder allowed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+
+	public RateLimiter(int limit, long window, TimeUnit unit) {
+		if (limit < 1 || limit > MAX_COUNT)
+			throw new IllegalArgumentException("Limit must be between 1 and " + MAX_COUNT);
+		this.limit = limit;
+		this.window = unit.toNanos(window);
+		if (this.window <= 0)
+			throw new IllegalArgumentException("Window must be positive");
+	}
+
+	/* Counts an attempt for the key and returns true, or returns false if it is over its limit. */
+	public boolean tryAcquire(String key) {
+		long elapsed = System.nanoTime() - this.origin;
+		long number = elapsed / this.window;
+		long offset = elapsed % this.window;
+		this.sweep(number);
+
+		AtomicLong counter = this.keys.get(key);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong(number << 32);
+			counter = this.keys.putIfAbsent(key, created);
+			if (counter == null)
+				counter = created;
+		}
+
+		while (true) {
+			long state = counter.get();
+			int previous = (int)(state >>> 16) & MAX_COUNT;
+			int current = (int)state & MAX_COUNT;
+			int age = (int)number - (int)(state >>> 32); // wraps safely
+			if (age == 1) {
+				previous = current;
+				current = 0;
+			}
+			else if (age != 0) {
+				previous = current = 0;
+			}
+
+			// the part of the previous window still inside the sliding window
+			long estimate = (long)(previous * ((double)(this.window - offset) / this.window)) + current;
+			if (estimate >= this.limit) {
+				this.rejected.increment();
+				return false;
+			}
+
+			long next = (number << 32) | ((long)previous << 16) | Math.min(current + 1, MAX_COUNT);
+			if (counter.compareAndSet(state, next)) {
+				this.allowed.increment();
+				return true;
+			}
+		}
+	}
+
+	/* Removes the keys that have not been used in the last two windows. */
+	private void sweep(long number) {
+		long last = this.lastSweep.get();
+		if (number <= last || !this.lastSweep.compareAndSet(last, number))
+			return;
+
+		Iterator<Map.Entry<String, AtomicLong>> entries = this.keys.entrySet().iterator();
+		while (entries.hasNext()) {
+			if ((int)number - (int)(entries.next().getValue().get() >>> 32) >= 2) {
+				entries.remove();
+				this.evicted.increment();
+			}
+		}
+	}
+
+	/* Counters, the attempts allowed and rejected, and the keys tracked and evicted. */
+	public long getAllowed() { return this.allowed.sum(); }
+	public long getRejected() { return this.rejected.sum(); }
+	public int size() { return this.keys.size(); }
+	public long getEvicted() { return this.evicted.sum(); }
+}
\ No newline at end of file
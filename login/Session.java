@@ -0,0 +1,42 @@
+package org.andy.login;
+
+import org.andy.user.User;
+
+/*
+ * A Session is a server side session of a User who has logged in, held by a SessionRegistry.
+ * It is active until it is logged out, has been idle or open for longer than the registry
+ * allows, or is killed because the user's password was locked, see getState().
+ *
+ * The times of a session are System.nanoTime() values and are only used by the registry.
+ */
+public final class Session {
+	public static enum State { ACTIVE, LOGGED_OUT, IDLE, EXPIRED, KILLED }
+
+	private final String id;
+	private final User user;
+	private final long created;
+	private volatile long accessed;
+	private volatile State state = State.ACTIVE;
+	volatile SessionRegistry.Slot slot; // the slot of the registry's timing wheel it is in, if any
+	Session previous; // in the slot, guarded by it
+	Session next; // in the slot, guarded by it
+
+	Session(String id, User user, long now) {
+		this.id = id;
+		this.user = user;
+		this.created = now;
+		this.accessed = now;
+	}
+
+	public String getId() { return this.id; }
+	public User getUser() { return this.user; }
+	public State getState() { return this.state; }
+	public boolean isActive() { return this.state == State.ACTIVE; }
+
+	long getCreated() { return this.created; }
+	long getAccessed() { return this.accessed; }
+	void setAccessed(long accessed) { this.accessed = accessed; }
+	void setState(State state) { this.state = state; }
+
+	public String toString() { return this.user.getUsername() + " " + this.state; }
+}
\ No newline at end of file
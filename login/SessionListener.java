@@ -0,0 +1,10 @@
+package org.andy.login;
+
+/*
+ * A SessionListener is told when a Session of a SessionRegistry ends, whether it was logged
+ * out, timed out or killed, see Session.getState(). Timeouts are reported on the thread of
+ * the registry, everything else on the thread which ended the session.
+ */
+public interface SessionListener {
+	void sessionEnded(Session session);
+}
\ No newline at end of file
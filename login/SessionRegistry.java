@@ -0,0 +1,317 @@
+package org.andy.login;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import org.andy.user.User;
+import org.andy.user.UserListener;
+
+/*
+ * SessionRegistry holds the server side Sessions of users who have logged in. A session ends
+ * when it is logged out, when it has not been used for the idle timeout, when it has been
+ * open for the absolute timeout, or when the user's password is locked:
+ *
+ * 		SessionRegistry sessions = new SessionRegistry(30, 8 * 60, TimeUnit.MINUTES, 5);
+ * 		store.addListener(sessions); // kills the sessions of a user whose password is locked
+ * 		Session session = sessions.create(user);
+ * 		...
+ * 		session = sessions.get(id); // null once it has ended
+ *
+ * Sessions are found by id in a ConcurrentHashMap and the sessions of each user are held in
+ * a small array, replaced under the map's lock of that user, which is what the per user cap
+ * is checked against. create(), get() and invalidate() are therefore O(1), as is killing the
+ * sessions of a user for a cap of a few sessions.
+ *
+ * Timeouts are found with a hashed timing wheel rather than by scanning every session. A
+ * session is put in the slot of the tick its timeout falls in and a background thread visits
+ * one slot per tick, ending the sessions in it which have timed out and putting the others,
+ * which have been used since or are due on a later turn of the wheel, into the slot of their
+ * current timeout. A slot is a list linked through the sessions themselves, so a session which
+ * is logged out or killed is unlinked from its slot at once rather than left for the wheel. get() doesn't move a session, so using a session costs one volatile write
+ * at most once a tick, and get() checks the timeout itself so a session is never returned
+ * after it, however late the wheel is. The tick is a 64th of the shorter timeout, between a
+ * millisecond and a second.
+ *
+ * Each session costs a Session, which is its own node in the wheel, its id, an entry in the map
+ * and a slot in the array of its user, around 200 bytes, whatever the timeouts and however
+ * many sessions have ended.
+ */
+public final class SessionRegistry implements UserListener, Closeable {
+	private static final int WHEEL_SIZE = 4096; // a power of 2
+	private static final int ID_LENGTH = 16; // bytes of randomness
+
+	private final long idleTimeout; // nanoseconds
+	private final long absoluteTimeout; // nanoseconds
+	private final int maxPerUser;
+	private final long tick; // nanoseconds
+	private final long origin = System.nanoTime();
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+	private final ConcurrentHashMap<String, Session[]> users = new ConcurrentHashMap<String, Session[]>();
+	private final Slot[] wheel = new Slot[WHEEL_SIZE];
+	private volatile long current; // the last tick visited, written by the wheel thread only
+	private final ScheduledExecutorService scheduler;
+	private final SecureRandom random = new SecureRandom();
+	private volatile SessionListener listener;
+
+	public SessionRegistry(long idleTimeout, long absoluteTimeout, TimeUnit unit, int maxPerUser) {
+		if (idleTimeout <= 0 || absoluteTimeout <= 0)
+			throw new IllegalArgumentException("Timeouts must be positive");
+		if (maxPerUser < 1)
+			throw new IllegalArgumentException("Sessions per user must be at least 1");
+		this.idleTimeout = unit.toNanos(idleTimeout);
+		this.absoluteTimeout = unit.toNanos(absoluteTimeout);
+		this.maxPerUser = maxPerUser;
+		this.tick = Math.min(Math.max(Math.min(this.idleTimeout, this.absoluteTimeout) / 64,
+			TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.SECONDS.toNanos(1));
+		for (int i = 0; i < WHEEL_SIZE; i++)
+			this.wheel[i] = new Slot();
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "session-timeout");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() { SessionRegistry.this.advance(); }
+		}, this.tick, this.tick, TimeUnit.NANOSECONDS);
+	}
+
+	/*
+	 * Opens a session for the user, who should have just logged in. A SecurityException is
+	 * thrown if the user's password is locked or the user already has the maximum number of
+	 * sessions.
+	 */
+	public Session create(User user) throws SecurityException {
+		if (user.getPassword().isLocked())
+			throw new SecurityException(user.getUsername() + " is locked");
+		byte[] bytes = new byte[ID_LENGTH];
+		this.random.nextBytes(bytes);
+		final Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes),
+			user, System.nanoTime());
+
+		// in the map before the user's array, so invalidateAll() finds whatever it is given
+		this.sessions.put(session.getId(), session);
+		Session[] added = this.users.compute(user.getUsername(), new BiFunction<String, Session[], Session[]>() {
+			public Session[] apply(String username, Session[] current) {
+				if (current == null)
+					return new Session[] { session };
+				if (current.length >= SessionRegistry.this.maxPerUser)
+					return current;
+				Session[] grown = Arrays.copyOf(current, current.length + 1);
+				grown[current.length] = session;
+				return grown;
+			}
+		});
+		if (added[added.length - 1] != session) {
+			this.sessions.remove(session.getId(), session);
+			throw new SecurityException(user.getUsername() + " already has " + this.maxPerUser + " sessions");
+		}
+		// the password is locked before the listeners are told, so if it wasn't locked once the
+		// session was in the array, invalidateAll() will find it there
+		if (user.getPassword().isLocked()) {
+			if (this.remove(session))
+				session.setState(Session.State.KILLED);
+			throw new SecurityException(user.getUsername() + " is locked");
+		}
+
+		this.schedule(session, this.timeout(session));
+		if (!session.isActive())
+			unschedule(session); // killed before it was in the wheel
+		return session;
+	}
+
+	/* Returns the active session with the id and marks it used, or null if there isn't one. */
+	public Session get(String id) {
+		Session session = this.sessions.get(id);
+		if (session == null)
+			return null;
+
+		long now = System.nanoTime();
+		if (now - this.timeout(session) >= 0) {
+			this.end(session, this.timedOut(session, now));
+			return null;
+		}
+		if (now - session.getAccessed() >= this.tick) // the wheel can't tell any finer
+			session.setAccessed(now);
+		return session;
+	}
+
+	/* Logs out the session with the id, returns false if there is no active session with it. */
+	public boolean invalidate(String id) {
+		Session session = this.sessions.get(id);
+		return session != null && this.end(session, Session.State.LOGGED_OUT);
+	}
+
+	/* Kills every session of the user and returns how many there were. */
+	public int invalidateAll(String username) {
+		Session[] sessions = this.users.remove(username);
+		int killed = 0;
+		for (int i = 0; sessions != null && i < sessions.length; i++) {
+			if (this.sessions.remove(sessions[i].getId(), sessions[i])) {
+				sessions[i].setState(Session.State.KILLED);
+				unschedule(sessions[i]);
+				this.fireEnded(sessions[i]);
+				killed++;
+			}
+		}
+		return killed;
+	}
+
+	/* The number of active sessions, and of the user. */
+	public int size() { return this.sessions.size(); }
+	public int size(String username) {
+		Session[] sessions = this.users.get(username);
+		return sessions == null ? 0 : sessions.length;
+	}
+
+	public void setListener(SessionListener listener) { this.listener = listener; }
+
+	/* Kills the sessions of a user whose password has been locked. */
+	public void userChanged(User user) {
+		if (user.getPassword().isLocked())
+			this.invalidateAll(user.getUsername());
+	}
+
+	public void userRemoved(User user) { this.invalidateAll(user.getUsername()); }
+
+	/* Stops the timeouts, sessions can still be used and logged out. */
+	public void close() { this.scheduler.shutdownNow(); }
+
+	/* Ends the session, if no one else has, and tells the listener. */
+	private boolean end(Session session, Session.State state) {
+		if (!this.remove(session))
+			return false;
+		session.setState(state);
+		unschedule(session);
+		this.fireEnded(session);
+		return true;
+	}
+
+	/* Takes the session out of the map and its user's array, false if it had already gone. */
+	private boolean remove(final Session session) {
+		if (!this.sessions.remove(session.getId(), session))
+			return false;
+		this.users.computeIfPresent(session.getUser().getUsername(), new BiFunction<String, Session[], Session[]>() {
+			public Session[] apply(String username, Session[] current) {
+				for (int i = 0; i < current.length; i++) {
+					if (current[i] == session) {
+						if (current.length == 1)
+							return null; // removes the user
+						Session[] removed = Arrays.copyOf(current, current.length - 1);
+						System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+						return removed;
+					}
+				}
+				return current;
+			}
+		});
+		return true;
+	}
+
+	private void fireEnded(Session session) {
+		SessionListener listener = this.listener;
+		if (listener != null)
+			listener.sessionEnded(session);
+	}
+
+	/* The time the session times out, the sooner of its idle and absolute timeouts. */
+	private long timeout(Session session) {
+		long idle = session.getAccessed() + this.idleTimeout;
+		long absolute = session.getCreated() + this.absoluteTimeout;
+		return idle - absolute < 0 ? idle : absolute;
+	}
+
+	private Session.State timedOut(Session session, long now) {
+		return now - (session.getCreated() + this.absoluteTimeout) >= 0 ? Session.State.EXPIRED : Session.State.IDLE;
+	}
+
+	/* Puts the session in the slot of the tick of the time, or the next tick if that has gone. */
+	private void schedule(Session session, long time) {
+		long tick = Math.max((time - this.origin) / this.tick, this.current + 1);
+		this.wheel[(int)(tick & (WHEEL_SIZE - 1))].add(session);
+	}
+
+	/*
+	 * Takes an ended session out of its slot. If the wheel is moving it at the time it may be
+	 * left for the wheel to drop, as it drops any session which isn't active.
+	 */
+	private static void unschedule(Session session) {
+		Slot slot;
+		while ((slot = session.slot) != null && !slot.remove(session))
+			; // moved to another slot meanwhile
+	}
+
+	/* Visits the slot of every tick up to now, on the wheel thread. */
+	private void advance() {
+		long target = (System.nanoTime() - this.origin) / this.tick;
+		List<Session> later = new ArrayList<Session>();
+		while (this.current < target) {
+			long now = System.nanoTime();
+			Session session = this.wheel[(int)((this.current + 1) & (WHEEL_SIZE - 1))].removeAll();
+			for (Session next; session != null; session = next) {
+				next = session.next;
+				session.next = null; // out of the slot, only this thread has the list
+				if (!session.isActive())
+					continue; // ended while the wheel was moving it
+				long timeout = this.timeout(session);
+				if (now - timeout >= 0)
+					this.end(session, this.timedOut(session, now));
+				else
+					later.add(session);
+			}
+			this.current++;
+			for (Session s : later)
+				this.schedule(s, this.timeout(s));
+			later.clear();
+		}
+	}
+
+	/* A slot of the wheel, a list of sessions linked through Session.previous and next. */
+	static final class Slot {
+		private Session head; // guarded by this
+
+		synchronized void add(Session session) {
+			session.previous = null;
+			session.next = this.head;
+			if (this.head != null)
+				this.head.previous = session;
+			this.head = session;
+			session.slot = this;
+		}
+
+		/* Unlinks the session, false if it is no longer in this slot. */
+		synchronized boolean remove(Session session) {
+			if (session.slot != this)
+				return false;
+			if (session.previous != null)
+				session.previous.next = session.next;
+			else
+				this.head = session.next;
+			if (session.next != null)
+				session.next.previous = session.previous;
+			session.previous = session.next = null;
+			session.slot = null;
+			return true;
+		}
+
+		/* Empties the slot and returns its sessions, linked by next, for the wheel thread. */
+		synchronized Session removeAll() {
+			Session first = this.head;
+			this.head = null;
+			for (Session session = first; session != null; session = session.next)
+				session.slot = null;
+			return first;
+		}
+	}
+}
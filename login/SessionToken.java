@@ -0,0 +1,34 @@
+package org.andy.login;
+
+import org.andy.user.User;
+
+/*
+ * A SessionToken is what a token issued by SessionTokens says about its holder, once it has
+ * been verified: who they are, the privileges they had when they logged in and when the token
+ * expires. See SessionTokens.verify().
+ */
+public final class SessionToken {
+	private final String username;
+	private final long privileges;
+	private final long expiryTime;
+	private final long policyEpoch;
+
+	SessionToken(String username, long privileges, long expiryTime, long policyEpoch) {
+		this.username = username;
+		this.privileges = privileges;
+		this.expiryTime = expiryTime;
+		this.policyEpoch = policyEpoch;
+	}
+
+	public String getUsername() { return this.username; }
+	/* The effective privileges of the user when the token was issued, see User.getEffectiveMask(). */
+	public long getPrivilegeMask() { return this.privileges; }
+	/* The time the token expires in milliseconds. */
+	public long getExpiryTime() { return this.expiryTime; }
+	/* The epoch of the SecurityPolicy the token was issued under, see PolicySnapshot.getEpoch(). */
+	public long getPolicyEpoch() { return this.policyEpoch; }
+
+	public boolean hasPrivilege(User.Privilege privilege) { return (this.privileges & privilege.mask()) != 0; }
+
+	public String toString() { return this.username; }
+}
\ No newline at end of file
@@ -0,0 +1,192 @@
+package org.andy.login;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.andy.security.Password;
+import org.andy.user.User;
+import org.andy.user.UserListener;
+
+/*
+ * SessionTokens issues a signed token to a user who has logged in, see AbstractLogin, so that
+ * later requests can be authenticated by verifying the token instead of the password:
+ *
+ * 		SessionTokens tokens = new SessionTokens(8, TimeUnit.HOURS);
+ * 		store.addListener(tokens);
+ * 		String token = tokens.issue(user);
+ * 		...
+ * 		SessionToken session = tokens.verify(token); // null if not valid
+ *
+ * A token holds the username, the effective privileges of the user, the time it expires, the
+ * epoch of the SecurityPolicy it was issued under and a stamp of the user's password, which is
+ * an HMAC of the secret and so says nothing about the password itself. It is signed with
+ * HMAC-SHA256, truncated to 128 bits, and encoded as URL safe base64 of around 80 characters.
+ * Verifying one is an HMAC of that and a few comparisons, it doesn't touch the user store.
+ *
+ * A token is only valid under the policy epoch it was issued under, so any change to the
+ * SecurityPolicy invalidates every token at once. To invalidate the tokens of a single user
+ * SessionTokens is a UserListener of the store: when a user is issued a token or is changed it
+ * records the stamp of their password, their privileges and whether the password is locked,
+ * and a token which doesn't match them, or of a user with no record, is no longer valid.
+ * Changing or locking a password or changing privileges therefore invalidates every token of
+ * the user, and removing the user invalidates them too.
+ *
+ * The key is random, and the records and policy epoch are those of this process, so a token
+ * is only valid where it was issued and a restart invalidates every token issued before it.
+ */
+public final class SessionTokens implements UserListener {
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final byte VERSION = 1;
+	private static final int HEADER = 1 + 4 * 8; // version, epoch, expiry, password, privileges
+	private static final int MAC_LENGTH = 16;
+
+	/* What tokens of a user must match since the user was last changed. */
+	private static final class Stamp {
+		final long password;
+		final long privileges;
+		final boolean isValid; // false once locked or removed
+
+		Stamp(long password, long privileges, boolean isValid) {
+			this.password = password;
+			this.privileges = privileges;
+			this.isValid = isValid;
+		}
+
+		boolean matches(long password, long privileges) {
+			return this.isValid && this.password == password && this.privileges == privileges;
+		}
+	}
+	private static final Stamp REMOVED = new Stamp(0, 0, false);
+
+	private final ThreadLocal<Mac> macs;
+	private final long timeToLive; // milliseconds
+	private final ConcurrentHashMap<String, Stamp> stamps = new ConcurrentHashMap<String, Stamp>();
+
+	/* Tokens signed with a random key, valid for the time to live. */
+	public SessionTokens(long timeToLive, TimeUnit unit) {
+		if (timeToLive <= 0)
+			throw new IllegalArgumentException("Time to live must be positive");
+		this.timeToLive = unit.toMillis(timeToLive);
+
+		final SecretKeySpec spec = new SecretKeySpec(randomKey(), MAC_ALGORITHM);
+		this.macs = new ThreadLocal<Mac>() {
+			protected Mac initialValue() {
+				try {
+					Mac mac = Mac.getInstance(MAC_ALGORITHM);
+					mac.init(spec);
+					return mac;
+				}
+				catch (GeneralSecurityException ex) { // HmacSHA256 is required of every JDK
+					throw new IllegalStateException(ex);
+				}
+			}
+		};
+	}
+
+	private static byte[] randomKey() {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		return key;
+	}
+
+	/*
+	 * Issues a token for the user, who should have just logged in. The user as it is now is
+	 * recorded as what its tokens must match, so a later change revokes the token whether or
+	 * not a change of the user has been seen before, also after a remove and re-add.
+	 */
+	public String issue(final User user) {
+		Stamp stamp = this.stamps.compute(user.getUsername(), new BiFunction<String, Stamp, Stamp>() {
+			public Stamp apply(String username, Stamp previous) { return SessionTokens.this.stamp(user); }
+		});
+		byte[] username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+
+		byte[] token = new byte[HEADER + username.length + MAC_LENGTH];
+		ByteBuffer.wrap(token)
+			.put(VERSION)
+			.putLong(Password.getSecurityPolicy().getSnapshot().getEpoch())
+			.putLong(System.currentTimeMillis() + this.timeToLive)
+			.putLong(stamp.password)
+			.putLong(stamp.privileges)
+			.put(username);
+		Mac mac = this.macs.get();
+		mac.update(token, 0, token.length - MAC_LENGTH);
+		System.arraycopy(mac.doFinal(), 0, token, token.length - MAC_LENGTH, MAC_LENGTH);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+	}
+
+	/*
+	 * Returns what the token says about its holder, or null if the token was not issued by
+	 * this, has expired, was issued under an earlier SecurityPolicy or the user has been
+	 * changed since it was issued.
+	 */
+	public SessionToken verify(String token) {
+		byte[] bytes;
+		try {
+			bytes = Base64.getUrlDecoder().decode(token);
+		}
+		catch (IllegalArgumentException ex) {
+			return null;
+		}
+		if (bytes.length < HEADER + MAC_LENGTH || bytes[0] != VERSION)
+			return null;
+
+		// compare every byte of the signature, so the time taken says nothing about it
+		int length = bytes.length - MAC_LENGTH;
+		Mac mac = this.macs.get();
+		mac.update(bytes, 0, length);
+		byte[] signature = mac.doFinal();
+		int difference = 0;
+		for (int i = 0; i < MAC_LENGTH; i++)
+			difference |= signature[i] ^ bytes[length + i];
+		if (difference != 0)
+			return null;
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, HEADER - 1);
+		long epoch = buffer.getLong();
+		long expiryTime = buffer.getLong();
+		long password = buffer.getLong();
+		long privileges = buffer.getLong();
+		if (expiryTime <= System.currentTimeMillis() || epoch != Password.getSecurityPolicy().getSnapshot().getEpoch())
+			return null;
+
+		String username = new String(bytes, HEADER, length - HEADER, StandardCharsets.UTF_8);
+		Stamp stamp = this.stamps.get(username);
+		if (stamp == null || !stamp.matches(password, privileges)) // every token issued is stamped
+			return null;
+		return new SessionToken(username, privileges, expiryTime, epoch);
+	}
+
+	/* Records the user as it is now, tokens issued before a change to it are no longer valid. */
+	public void userChanged(final User user) {
+		this.stamps.compute(user.getUsername(), new BiFunction<String, Stamp, Stamp>() {
+			public Stamp apply(String username, Stamp previous) { return SessionTokens.this.stamp(user); }
+		});
+	}
+
+	public void userRemoved(User user) { this.stamps.put(user.getUsername(), REMOVED); }
+
+	/*
+	 * Stamps the user as it is now. It is called while the map holds the user's entry, so of an
+	 * issue() and a change racing for the same user the one which records last also read last.
+	 */
+	private Stamp stamp(User user) {
+		return new Stamp(this.stamp(user.getPassword()), user.getEffectiveMask(), !user.getPassword().isLocked());
+	}
+
+	/* 
+	 * The first 8 bytes of an HMAC of the binary secret, which change with every change of
+	 * password. A password without a secret has the stamp of an empty one.
+	 */
+	private long stamp(Password password) {
+		Mac mac = this.macs.get();
+		password.updateMac(mac);
+		return ByteBuffer.wrap(mac.doFinal()).getLong();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,33 @@
+package org.andy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A Counter counts events, such as rejected passwords. Each thread adds to the count of its
+ * Stripe, which is a cache line of its own, so counting is a single atomic add which threads
+ * counting at once rarely contend on, and it never allocates or blocks. Counters are created
+ * by a MetricsRegistry.
+ */
+public final class Counter {
+	private static final int PADDING = 8; // longs in a cache line
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(Stripe.COUNT * PADDING);
+
+	Counter(String name) { this.name = name; }
+
+	public String getName() { return this.name; }
+
+	public void increment() { this.counts.getAndIncrement(Stripe.current() * PADDING); }
+	public void add(long n) { this.counts.getAndAdd(Stripe.current() * PADDING, n); }
+
+	/* The count so far, which is not exact while other threads are counting. */
+	public long get() {
+		long count = 0;
+		for (int i = 0; i < Stripe.COUNT; i++)
+			count += this.counts.get(i * PADDING);
+		return count;
+	}
+
+	public String toString() { return this.name + " " + this.get(); }
+}
\ No newline at end of file
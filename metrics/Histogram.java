@@ -0,0 +1,121 @@
+package org.andy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A Histogram records the distribution of values, normally durations in nanoseconds, in a
+ * fixed number of buckets in the manner of an HdrHistogram. Values up to 63 have a bucket
+ * each, above that each power of 2 is split into 32 buckets, so a value is known to within
+ * about 3% whatever its size. Values above MAX_VALUE, about 78 hours in nanoseconds, are
+ * counted as MAX_VALUE.
+ *
+ * record() works out the bucket with a few shifts, increments it in the buckets of the
+ * thread's Stripe and raises the stripe's maximum, held after its buckets, if the value is
+ * larger, so recording is a single atomic add to memory which threads recording at once
+ * rarely share, and it never allocates. The buckets take 11 KB a stripe whatever is recorded.
+ * A Snapshot adds up the stripes to work out percentiles and the mean, and takes the largest
+ * of their maximums, values recorded while it does may or may not be included.
+ */
+public final class Histogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 47;
+	public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = index(MAX_VALUE) + 1;
+	private static final int STRIDE = BUCKETS + 1; // a stripe's buckets and then its maximum
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(Stripe.COUNT * STRIDE);
+
+	Histogram(String name) { this.name = name; }
+
+	public String getName() { return this.name; }
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		else if (value > MAX_VALUE)
+			value = MAX_VALUE;
+		int stripe = Stripe.current() * STRIDE;
+		this.buckets.getAndIncrement(stripe + index(value));
+
+		long max;
+		while (value > (max = this.buckets.get(stripe + BUCKETS)) && !this.buckets.compareAndSet(stripe + BUCKETS, max, value))
+			; // another thread of the stripe raised it, try again if still higher
+	}
+
+	/* The bucket of the value, the value itself below 64 and then 32 buckets per power of 2. */
+	static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int)value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/* The lowest and the highest value which go in the bucket. */
+	static long lowestValue(int index) {
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		return (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+	}
+	static long highestValue(int index) { return lowestValue(index + 1) - 1; }
+
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		double sum = 0;
+		long max = 0;
+		for (int stripe = 0; stripe < Stripe.COUNT; stripe++) {
+			for (int i = 0; i < BUCKETS; i++)
+				counts[i] += this.buckets.get(stripe * STRIDE + i);
+			max = Math.max(max, this.buckets.get(stripe * STRIDE + BUCKETS));
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts[i];
+			sum += counts[i] * ((lowestValue(i) + highestValue(i)) / 2.0);
+		}
+		return new Snapshot(this.name, counts, count, sum, max);
+	}
+
+	/* The values recorded by a Histogram up to the time of snapshot(). */
+	public static final class Snapshot {
+		private final String name;
+		private final long[] counts;
+		private final long count;
+		private final double sum; // of the middle of each bucket
+		private final long max;
+
+		Snapshot(String name, long[] counts, long count, double sum, long max) {
+			this.name = name;
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public String getName() { return this.name; }
+		public long getCount() { return this.count; }
+		public long getMax() { return this.max; }
+		/* The mean of the values, to within about 3%. */
+		public double getMean() { return this.count == 0 ? 0 : this.sum / this.count; }
+
+		/* The value which the percentage of values are at or below, to within about 3%. */
+		public long getPercentile(double percentage) {
+			long rank = Math.max(1, (long)Math.ceil(this.count * percentage / 100));
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= rank)
+					return Math.min(highestValue(i), this.max);
+			}
+			return this.max;
+		}
+
+		public String toString() {
+			return String.format("%s count=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d", this.name,
+				this.count, this.getMean(), this.getPercentile(50), this.getPercentile(90), this.getPercentile(99),
+				this.getPercentile(99.9), this.max);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,69 @@
+package org.andy.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * MetricsRegistry holds the Counters and Histograms of the application by name. The login
+ * and policy code records to the registry returned by getInstance():
+ *
+ * 		login.validate            Histogram of UserStore.validate() in nanoseconds
+ * 		login.validated           Counter of logins validated
+ * 		login.rejected            Counter of logins rejected
+ * 		security.encrypt          Histogram of SecurityPolicy.encrypt() in nanoseconds
+ * 		security.validate         Histogram of SecurityPolicy.validate() in nanoseconds
+ * 		security.rejected         Counter of new passwords rejected by the rules or history
+ * 		security.expirationCheck  Histogram of SecurityPolicy.expirationCheck() in nanoseconds
+ * 		security.expired          Counter of passwords expired by expirationCheck()
+ * 		security.loginAttempts    Histogram of SecurityPolicy.loginAttemptCheck() in nanoseconds
+ * 		security.locked           Counter of passwords locked by loginAttemptCheck()
+ *
+ * A metric is looked up once, when the class recording it is loaded, and kept in a static
+ * field, so the registry is never touched when recording. snapshot() reads every metric for
+ * reporting, see MetricsSnapshot.
+ */
+public final class MetricsRegistry {
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	private static class Holder {
+		static final MetricsRegistry INSTANCE = new MetricsRegistry();
+	}
+
+	public static MetricsRegistry getInstance() { return Holder.INSTANCE; }
+
+	/* Returns the counter with the name, creating it the first time. */
+	public Counter counter(String name) {
+		Counter counter = this.counters.get(name);
+		if (counter == null) {
+			Counter created = new Counter(name);
+			counter = this.counters.putIfAbsent(name, created);
+			if (counter == null)
+				counter = created;
+		}
+		return counter;
+	}
+
+	/* Returns the histogram with the name, creating it the first time. */
+	public Histogram histogram(String name) {
+		Histogram histogram = this.histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram(name);
+			histogram = this.histograms.putIfAbsent(name, created);
+			if (histogram == null)
+				histogram = created;
+		}
+		return histogram;
+	}
+
+	/* Reads every metric, sorted by name. */
+	public MetricsSnapshot snapshot() {
+		List<Counter> counters = new ArrayList<Counter>(this.counters.values());
+		List<Histogram.Snapshot> histograms = new ArrayList<Histogram.Snapshot>();
+		for (Histogram histogram : this.histograms.values())
+			histograms.add(histogram.snapshot());
+		return new MetricsSnapshot(counters, histograms);
+	}
+}
\ No newline at end of file
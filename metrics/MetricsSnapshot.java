@@ -0,0 +1,64 @@
+package org.andy.metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * A MetricsSnapshot is the value of every metric of a MetricsRegistry at one time, which
+ * doesn't change as more is recorded. It can be queried by name or exported as text, one
+ * metric per line in the order of their names:
+ *
+ * 		login.rejected 3
+ * 		login.validate count=120 mean=2510 p50=2431 p90=2687 p99=8191 p99.9=9215 max=9020
+ */
+public final class MetricsSnapshot {
+	private final Map<String, Long> counters = new TreeMap<String, Long>();
+	private final Map<String, Histogram.Snapshot> histograms = new TreeMap<String, Histogram.Snapshot>();
+
+	MetricsSnapshot(List<Counter> counters, List<Histogram.Snapshot> histograms) {
+		for (Counter counter : counters)
+			this.counters.put(counter.getName(), counter.get());
+		for (Histogram.Snapshot histogram : histograms)
+			this.histograms.put(histogram.getName(), histogram);
+	}
+
+	/* The count of the counter with the name, 0 if there is no such counter. */
+	public long getCount(String name) {
+		Long count = this.counters.get(name);
+		return count == null ? 0 : count;
+	}
+
+	/* The snapshot of the histogram with the name, or null if there is no such histogram. */
+	public Histogram.Snapshot getHistogram(String name) { return this.histograms.get(name); }
+
+	public Map<String, Long> getCounters() { return Collections.unmodifiableMap(this.counters); }
+	public Map<String, Histogram.Snapshot> getHistograms() { return Collections.unmodifiableMap(this.histograms); }
+
+	/* Writes every metric as a line of text, sorted by name. */
+	public void export(Appendable out) throws IOException {
+		Map<String, Object> metrics = new TreeMap<String, Object>();
+		metrics.putAll(this.counters);
+		metrics.putAll(this.histograms);
+		for (Map.Entry<String, Object> metric : metrics.entrySet()) {
+			if (metric.getValue() instanceof Long)
+				out.append(metric.getKey()).append(' ').append(metric.getValue().toString());
+			else
+				out.append(metric.getValue().toString());
+			out.append(System.lineSeparator());
+		}
+	}
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		try {
+			this.export(builder);
+		}
+		catch (IOException ex) { // a StringBuilder doesn't throw
+			throw new IllegalStateException(ex);
+		}
+		return builder.toString();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,16 @@
+package org.andy.metrics;
+
+/*
+ * Counters and Histograms are split into stripes so that threads recording at once mostly
+ * update different cache lines. A thread always records to the stripe of its id, and a
+ * reader adds up the stripes. There are as many stripes as processors, rounded up to a power
+ * of 2, up to 16.
+ */
+final class Stripe {
+	static final int COUNT = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1), 16);
+
+	private Stripe() {}
+
+	/* The stripe of the current thread. */
+	static int current() { return (int)Thread.currentThread().getId() & (COUNT - 1); }
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+package org.andy.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * BufferPool hands out direct buffers of a fixed size so that a connection only holds a buffer
+ * while it has data to read or write, rather than one for as long as it is open. A buffer is
+ * wiped when it is given back as it may have held a password. At most maxPooled buffers are 
+ * kept, any more are left to the garbage collector.
+ */
+final class BufferPool {
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final int bufferSize;
+	private final int maxPooled;
+	private final byte[] zeros;
+
+	BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		this.zeros = new byte[bufferSize];
+	}
+
+	ByteBuffer acquire() {
+		ByteBuffer buffer = this.buffers.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(this.bufferSize);
+		this.pooled.decrementAndGet();
+		return buffer;
+	}
+
+	void release(ByteBuffer buffer) {
+		buffer.clear();
+		buffer.put(this.zeros).clear();
+		if (this.pooled.incrementAndGet() <= this.maxPooled)
+			this.buffers.offer(buffer);
+		else
+			this.pooled.decrementAndGet();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,271 @@
+package org.andy.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * LoginClient sends logins to a NetworkLoginServer. It opens a number of connections which are
+ * all served by one selector thread, and spreads logins across them round robin. Logins are
+ * pipelined, login() returns as soon as the request is queued and any number can be waiting
+ * for a response on a connection at once. A connection which fails, ie. closed by the server,
+ * fails the logins waiting on it and is skipped by the round robin from then on, a login sent
+ * on it by number fails at once.
+ *
+ * The encoded request is wiped once it has been written, the caller's password is not changed.
+ * If the selector thread fails, waiting and later logins fail with its IOException, which
+ * close() also throws.
+ */
+public final class LoginClient implements Closeable {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Selector selector;
+	private final Connection[] connections;
+	private final Queue<Connection> ready = new ConcurrentLinkedQueue<Connection>(); // have requests
+	private final BufferPool pool = new BufferPool(BUFFER_SIZE, 64);
+	private final AtomicInteger ids = new AtomicInteger();
+	private final AtomicInteger next = new AtomicInteger();
+	private final Thread thread;
+	private volatile boolean closed;
+	private volatile IOException failure; // what stopped the selector thread
+
+	private static final class Connection {
+		final SocketChannel channel;
+		SelectionKey key;
+		final Queue<ByteBuffer> requests = new ConcurrentLinkedQueue<ByteBuffer>();
+		final Map<Integer, CompletableFuture<RemoteLoginResponse>> pending =
+			new ConcurrentHashMap<Integer, CompletableFuture<RemoteLoginResponse>>();
+		ByteBuffer in; // a partly read response, otherwise null
+		volatile IOException failure; // why the connection was closed, otherwise null
+
+		Connection(SocketChannel channel) { this.channel = channel; }
+	}
+
+	private LoginClient(Selector selector, Connection[] connections) throws IOException {
+		this.selector = selector;
+		this.connections = connections;
+		for (Connection connection : connections)
+			connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+		this.thread = new Thread(new Runnable() {
+			public void run() { LoginClient.this.run(); }
+		}, "login-client");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/* Opens the specified number of connections to the server at address. */
+	public static LoginClient connect(InetSocketAddress address, int connections) throws IOException {
+		Selector selector = Selector.open();
+		Connection[] opened = new Connection[connections];
+		try {
+			for (int i = 0; i < connections; i++) {
+				SocketChannel channel = SocketChannel.open(address);
+				opened[i] = new Connection(channel);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				channel.configureBlocking(false);
+			}
+			return new LoginClient(selector, opened);
+		}
+		catch (IOException ex) {
+			for (Connection connection : opened) {
+				if (connection != null)
+					connection.channel.close();
+			}
+			selector.close();
+			throw ex;
+		}
+	}
+
+	/*
+	 * Sends a login on the next connection which hasn't failed and returns a future of the
+	 * server's response. If every connection has failed the login fails at once.
+	 */
+	public CompletableFuture<RemoteLoginResponse> login(String username, char[] password) {
+		Connection connection = null;
+		for (int i = 0; i < this.connections.length; i++) {
+			connection = this.connections[(this.next.getAndIncrement() & 0x7FFFFFFF) % this.connections.length];
+			if (connection.failure == null)
+				break;
+		}
+		return this.login(connection, username, password);
+	}
+
+	/* Sends a login on the specified connection, 0 to getConnections() - 1. */
+	public CompletableFuture<RemoteLoginResponse> login(int connection, String username, char[] password) {
+		return this.login(this.connections[connection], username, password);
+	}
+
+	private CompletableFuture<RemoteLoginResponse> login(Connection connection, String username, char[] password) {
+		CompletableFuture<RemoteLoginResponse> future = new CompletableFuture<RemoteLoginResponse>();
+		if (this.closed || this.failure != null || connection.failure != null) {
+			future.completeExceptionally(this.failure != null ? this.failure
+				: connection.failure != null ? connection.failure : new IOException("Login client is closed"));
+			return future;
+		}
+
+		int id = this.ids.incrementAndGet();
+		connection.pending.put(id, future);
+		connection.requests.add(LoginProtocol.encodeRequest(id, username, password));
+		this.ready.add(connection);
+		this.selector.wakeup();
+		if (connection.failure != null)
+			this.fail(connection, connection.failure); // failed meanwhile, after its logins were failed
+		return future;
+	}
+
+	public int getConnections() { return this.connections.length; }
+
+	/* The selector thread. */
+	private void run() {
+		try {
+			while (!this.closed) {
+				this.selector.select();
+
+				Connection connection;
+				while ((connection = this.ready.poll()) != null) {
+					try {
+						this.write(connection);
+					}
+					catch (IOException ex) {
+						this.fail(connection, ex);
+					}
+				}
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+
+					connection = (Connection)key.attachment();
+					try {
+						if (key.isWritable())
+							this.write(connection);
+						if (key.isValid() && key.isReadable())
+							this.read(connection);
+					}
+					catch (IOException ex) {
+						this.fail(connection, ex);
+					}
+				}
+			}
+		}
+		catch (IOException ex) {
+			this.stop(ex);
+		}
+		catch (ClosedSelectorException ex) {
+			this.stop(new IOException("Selector closed", ex));
+		}
+	}
+
+	/* Fails every connection with what stopped the selector thread, unless the client was closed. */
+	private void stop(IOException ex) {
+		if (this.closed)
+			return;
+		this.failure = ex;
+		for (Connection connection : this.connections)
+			this.fail(connection, ex);
+	}
+
+	private void write(Connection connection) throws IOException {
+		if (!connection.key.isValid())
+			return;
+
+		ByteBuffer request;
+		while ((request = connection.requests.peek()) != null) {
+			connection.channel.write(request);
+			if (request.hasRemaining()) {
+				connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			Arrays.fill(request.array(), (byte)0); // wipe the password
+			connection.requests.poll();
+		}
+		connection.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void read(Connection connection) throws IOException {
+		if (connection.in == null)
+			connection.in = this.pool.acquire();
+		ByteBuffer in = connection.in;
+
+		int read = connection.channel.read(in);
+		in.flip();
+		while (in.remaining() >= LoginProtocol.RESPONSE_WIDTH) {
+			if (in.getInt() != LoginProtocol.RESPONSE_WIDTH - 4)
+				throw new IOException("Malformed response");
+			CompletableFuture<RemoteLoginResponse> future = connection.pending.remove(in.getInt());
+			byte status = in.get();
+			if (future != null)
+				future.complete(new RemoteLoginResponse(status));
+		}
+
+		if (in.hasRemaining()) {
+			in.compact();
+		}
+		else {
+			this.pool.release(in);
+			connection.in = null;
+		}
+		if (read < 0)
+			throw new IOException("Connection closed by server");
+	}
+
+	/*
+	 * Closes the connection and fails the logins waiting on it. The failure is set first, so a
+	 * login which is added after the pending logins are failed sees it and fails itself.
+	 */
+	private void fail(Connection connection, IOException ex) {
+		if (connection.failure == null)
+			connection.failure = ex;
+		connection.key.cancel();
+		try {
+			connection.channel.close();
+		}
+		catch (IOException e) {} // already failing
+		for (Integer id : connection.pending.keySet()) {
+			CompletableFuture<RemoteLoginResponse> future = connection.pending.remove(id);
+			if (future != null)
+				future.completeExceptionally(ex);
+		}
+
+		ByteBuffer request;
+		while ((request = connection.requests.poll()) != null)
+			Arrays.fill(request.array(), (byte)0);
+	}
+
+	/*
+	 * Closes every connection, logins still waiting for a response fail. Throws what stopped
+	 * the selector thread if it failed before the client was closed.
+	 */
+	public void close() throws IOException {
+		this.closed = true;
+		this.selector.wakeup();
+		try {
+			this.thread.join();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		for (Connection connection : this.connections)
+			this.fail(connection, new IOException("Login client is closed"));
+		this.selector.close();
+		if (this.failure != null)
+			throw this.failure;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package org.andy.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.andy.login.LoginResponse;
+
+/*
+ * LoginProtocol is the binary encoding of a login and its response used by NetworkLoginServer
+ * and LoginClient. All numbers are big endian and every frame starts with the length of the
+ * rest of the frame:
+ *
+ * 		request  - length(4) id(4) usernameLength(2) username passwordLength(2) password
+ * 		response - length(4) id(4) status(1)
+ *
+ * Strings are UTF-8. The id is chosen by the client and returned with the response, so many
+ * requests can be sent on a connection without waiting and their responses can arrive in any
+ * order. The status is a combination of the flags below, 0 meaning the login failed.
+ *
+ * The password is sent as it was typed, the connection must be secured by other means ie. TLS
+ * or a trusted network.
+ */
+final class LoginProtocol {
+	static final int MAX_FIELD = 1024; // bytes in a username or password
+	static final int MAX_REQUEST = 4 + 2 + MAX_FIELD + 2 + MAX_FIELD; // after the length
+	static final int RESPONSE_WIDTH = 4 + 4 + 1;
+
+	static final byte VALIDATED = 1;
+	static final byte LOCKED = 2;
+	static final byte EXPIRED = 4;
+	static final byte REFUSED = 8; // the server could not take the request, try again later
+
+	private LoginProtocol() {}
+
+	/* Returns the status of the response. */
+	static byte status(LoginResponse response) {
+		if (response.isValidated())
+			return response.getUser().getPassword().isExpired() ? VALIDATED | EXPIRED : VALIDATED;
+		if (response.getUser() != null && response.getUser().getPassword().isLocked())
+			return LOCKED;
+		return 0;
+	}
+
+	static void writeResponse(ByteBuffer buffer, int id, byte status) {
+		buffer.putInt(RESPONSE_WIDTH - 4).putInt(id).put(status);
+	}
+
+	/*
+	 * Encodes a request into a new buffer ready to be written. The buffer holds the password
+	 * and should be wiped once written, the password itself is left as it is.
+	 */
+	static ByteBuffer encodeRequest(int id, String username, char[] password) {
+		byte[] user = username.getBytes(StandardCharsets.UTF_8);
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 2 + user.length + 2 + password.length * 3);
+		buffer.position(10 + user.length + 2);
+		encoder.encode(CharBuffer.wrap(password), buffer, true);
+		encoder.flush(buffer);
+		int passwordLength = buffer.position() - (12 + user.length);
+		if (user.length > MAX_FIELD || passwordLength > MAX_FIELD) {
+			Arrays.fill(buffer.array(), (byte)0);
+			throw new IllegalArgumentException("Username or password exceeds " + MAX_FIELD + " bytes");
+		}
+
+		buffer.putInt(0, buffer.position() - 4).putInt(4, id).putShort(8, (short)user.length);
+		buffer.put(10, user).putShort(10 + user.length, (short)passwordLength);
+		buffer.flip();
+		return buffer;
+	}
+
+	/*
+	 * Decodes length bytes of UTF-8 from the buffer into a char[] of exactly the decoded length,
+	 * using scratch which is wiped afterwards. Malformed input is replaced.
+	 */
+	static char[] decode(ByteBuffer buffer, CharsetDecoder decoder, CharBuffer scratch) 
+			throws CharacterCodingException {
+		decoder.reset();
+		scratch.clear();
+		CoderResult result = decoder.decode(buffer, scratch, true);
+		if (result.isError())
+			result.throwException();
+		decoder.flush(scratch);
+
+		char[] chars = Arrays.copyOf(scratch.array(), scratch.position());
+		Arrays.fill(scratch.array(), 0, scratch.position(), '\0');
+		return chars;
+	}
+}
\ No newline at end of file
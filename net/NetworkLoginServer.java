@@ -0,0 +1,381 @@
+package org.andy.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import org.andy.login.AsyncLoginServer;
+import org.andy.login.LoginRequest;
+import org.andy.login.LoginResponse;
+import org.andy.security.Password;
+
+/*
+ * NetworkLoginServer is a front end that accepts logins over TCP using LoginProtocol and passes
+ * them on to an AsyncLoginServer, ie. a LoginServerAdapter around a UserStore. 
+ *
+ * A single selector thread does all of the network I/O so an idle connection costs no more
+ * than its socket, and a connection only holds a pooled buffer while it has a partly read
+ * request or unwritten responses. Each complete request is decoded on the selector thread, the
+ * password bytes are wiped from the buffer as soon as they are decoded, and the request is
+ * handed to the AsyncLoginServer. Hashing therefore happens on its workers and the response is
+ * queued back to the selector thread to be written. A client may pipeline requests, up to 
+ * MAX_IN_FLIGHT per connection are validated at once after which reading from the connection 
+ * pauses until responses are written.
+ *
+ * Each LoginRequest has the client's address as its source, so a RateLimitedLoginServer can
+ * limit attempts per address. A malformed frame closes the connection. A request refused by
+ * the AsyncLoginServer, because it is saturated, is answered with the REFUSED status. A
+ * connection which fails, or fails to be set up, is closed on its own, and if accepting fails,
+ * ie. out of file descriptors, the server stops accepting for ACCEPT_BACKOFF. Only a failure
+ * of the selector itself stops the server.
+ */
+public final class NetworkLoginServer implements Closeable {
+	private static final int MAX_IN_FLIGHT = 64;
+	private static final int BUFFER_SIZE = 8192; // holds at least one request of MAX_REQUEST
+	private static final int MAX_POOLED = 1024;
+	private static final long ACCEPT_BACKOFF = 100; // milliseconds without accepting after accept() fails
+
+	private final AsyncLoginServer server;
+	private final ServerSocketChannel acceptor;
+	private final Selector selector;
+	private final BufferPool pool = new BufferPool(BUFFER_SIZE, MAX_POOLED);
+	private final Queue<Connection> ready = new ConcurrentLinkedQueue<Connection>(); // have responses
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder() // selector thread only
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer scratch = CharBuffer.allocate(LoginProtocol.MAX_FIELD);
+	private final AtomicInteger connections = new AtomicInteger();
+	private final Thread thread;
+	private volatile boolean closed;
+	private volatile IOException failure; // what stopped the selector thread, thrown by close()
+	private long acceptAgain; // selector thread only, the nanoTime to accept again after a failure, 0 if accepting
+
+	/* The state of a connection, only touched by the selector thread unless stated. */
+	private final class Connection {
+		final SocketChannel channel;
+		final SelectionKey key;
+		final String source; // the client's address, the source of its LoginRequests
+		final Queue<Long> responses = new ConcurrentLinkedQueue<Long>(); // id and status, from workers
+		final AtomicInteger inFlight = new AtomicInteger(); // from workers
+		ByteBuffer in; // a partly read request, otherwise null
+		ByteBuffer out; // responses not yet written, otherwise null
+		boolean isPaused; // not reading while MAX_IN_FLIGHT requests are being validated
+
+		Connection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			this.source = ((InetSocketAddress)channel.getRemoteAddress()).getAddress().getHostAddress();
+			this.key = channel.register(NetworkLoginServer.this.selector, SelectionKey.OP_READ, this);
+		}
+	}
+
+	private NetworkLoginServer(AsyncLoginServer server, ServerSocketChannel acceptor, Selector selector) {
+		this.server = server;
+		this.acceptor = acceptor;
+		this.selector = selector;
+		this.thread = new Thread(new Runnable() {
+			public void run() { NetworkLoginServer.this.run(); }
+		}, "network-login-server");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/* Starts a server listening at address, a port of 0 picks a free port. */
+	public static NetworkLoginServer open(AsyncLoginServer server, InetSocketAddress address) throws IOException {
+		Selector selector = Selector.open();
+		ServerSocketChannel acceptor = ServerSocketChannel.open();
+		try {
+			acceptor.bind(address, 4096);
+			acceptor.configureBlocking(false);
+			acceptor.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		catch (IOException ex) {
+			acceptor.close();
+			selector.close();
+			throw ex;
+		}
+		return new NetworkLoginServer(server, acceptor, selector);
+	}
+
+	/* Returns the address the server is listening on. */
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress)this.acceptor.getLocalAddress();
+	}
+
+	/* Returns the number of open connections. */
+	public int getConnections() { return this.connections.get(); }
+
+	/* The selector thread. */
+	private void run() {
+		try {
+			while (!this.closed) {
+				this.select();
+
+				Connection connection;
+				while ((connection = this.ready.poll()) != null)
+					this.respond(connection);
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						this.accept(key);
+						continue;
+					}
+
+					connection = (Connection)key.attachment();
+					try {
+						if (key.isWritable())
+							this.write(connection);
+						if (key.isValid() && key.isReadable())
+							this.read(connection);
+					}
+					catch (IOException ex) {
+						this.close(connection);
+					}
+				}
+			}
+		}
+		catch (IOException ex) {
+			if (!this.closed)
+				this.failure = ex;
+		}
+		catch (ClosedSelectorException ex) {
+			if (!this.closed)
+				this.failure = new IOException("Selector closed", ex);
+		}
+	}
+
+	/* Waits for the selector, and while accepting is backed off no longer than until it resumes. */
+	private void select() throws IOException {
+		if (this.acceptAgain == 0) {
+			this.selector.select();
+			return;
+		}
+		long wait = TimeUnit.NANOSECONDS.toMillis(this.acceptAgain - System.nanoTime());
+		if (wait > 0)
+			this.selector.select(wait);
+		if (System.nanoTime() - this.acceptAgain >= 0) {
+			this.acceptAgain = 0;
+			this.acceptor.keyFor(this.selector).interestOps(SelectionKey.OP_ACCEPT);
+		}
+	}
+
+	/*
+	 * Accepts every pending connection. A connection which can't be set up, ie. reset by the
+	 * client, is closed on its own. A failing accept(), ie. out of file descriptors, stops
+	 * accepting for ACCEPT_BACKOFF rather than spinning on a key which stays ready.
+	 */
+	private void accept(SelectionKey key) {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = this.acceptor.accept();
+			}
+			catch (IOException ex) {
+				key.interestOps(0);
+				this.acceptAgain = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_BACKOFF);
+				return;
+			}
+			if (channel == null)
+				return;
+
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				new Connection(channel);
+				this.connections.incrementAndGet();
+			}
+			catch (IOException ex) {
+				try {
+					channel.close();
+				}
+				catch (IOException e) {} // already failing
+			}
+		}
+	}
+
+	/* Reads what is available and validates every complete request. */
+	private void read(Connection connection) throws IOException {
+		if (connection.in == null)
+			connection.in = this.pool.acquire();
+
+		int read = connection.channel.read(connection.in);
+		connection.in.flip();
+		this.process(connection);
+		if (read < 0)
+			throw new IOException("Connection closed by client");
+	}
+
+	/* Validates the complete requests in the read buffer until MAX_IN_FLIGHT is reached. */
+	private void process(Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		while (in.remaining() >= 4 && connection.inFlight.get() < MAX_IN_FLIGHT) {
+			int length = in.getInt(in.position());
+			if (length < 8 || length > LoginProtocol.MAX_REQUEST)
+				throw new IOException("Malformed request");
+			if (in.remaining() < 4 + length)
+				break; // wait for the rest
+
+			int limit = in.limit();
+			int end = in.position() + 4 + length;
+			int id = in.getInt(in.position() + 4);
+			int usernameLength = in.getShort(in.position() + 8) & 0xFFFF;
+			int passwordStart = in.position() + 10 + usernameLength + 2;
+			if (passwordStart > end || passwordStart + (in.getShort(passwordStart - 2) & 0xFFFF) != end)
+				throw new IOException("Malformed request");
+
+			byte[] username = new byte[usernameLength];
+			in.get(in.position() + 10, username);
+
+			char[] password;
+			in.limit(end).position(passwordStart);
+			try {
+				password = LoginProtocol.decode(in, this.decoder, this.scratch);
+			}
+			catch (CharacterCodingException ex) {
+				throw new IOException("Malformed request");
+			}
+			finally {
+				for (int i = passwordStart; i < end; i++)
+					in.put(i, (byte)0);
+			}
+			in.limit(limit).position(end);
+
+			this.validate(connection, id, new LoginRequest(new String(username, StandardCharsets.UTF_8),
+				new Password(password), connection.source));
+		}
+
+		if (connection.inFlight.get() >= MAX_IN_FLIGHT) {
+			connection.isPaused = true;
+			connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+		}
+
+		if (!in.hasRemaining()) {
+			this.pool.release(in);
+			connection.in = null;
+		}
+		else {
+			// keep the partial request at the start of the buffer, and wipe what it leaves behind
+			int limit = in.limit();
+			in.compact();
+			for (int i = in.position(); i < limit; i++)
+				in.put(i, (byte)0);
+		}
+	}
+
+	/* Hands the request to the AsyncLoginServer, the response is queued for the selector thread. */
+	private void validate(final Connection connection, final int id, LoginRequest request) {
+		connection.inFlight.incrementAndGet();
+		this.server.validateAsync(request).whenComplete(new BiConsumer<LoginResponse, Throwable>() {
+			public void accept(LoginResponse response, Throwable ex) {
+				byte status = response != null ? LoginProtocol.status(response) : LoginProtocol.REFUSED;
+				connection.responses.add(((long)id << 8) | (status & 0xFF));
+				connection.inFlight.decrementAndGet();
+				NetworkLoginServer.this.ready.add(connection);
+				NetworkLoginServer.this.selector.wakeup();
+			}
+		});
+	}
+
+	/* Writes the queued responses of a connection and resumes reading if it was paused. */
+	private void respond(Connection connection) {
+		if (!connection.key.isValid())
+			return;
+		try {
+			this.write(connection);
+			if (connection.isPaused && connection.inFlight.get() < MAX_IN_FLIGHT) {
+				connection.isPaused = false;
+				connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+				if (connection.in != null) {
+					connection.in.flip();
+					this.process(connection); // requests already read
+				}
+			}
+		}
+		catch (IOException ex) {
+			this.close(connection);
+		}
+	}
+
+	private void write(Connection connection) throws IOException {
+		if (connection.out == null)
+			connection.out = this.pool.acquire();
+		ByteBuffer out = connection.out;
+
+		Long response;
+		while (out.remaining() >= LoginProtocol.RESPONSE_WIDTH && (response = connection.responses.poll()) != null)
+			LoginProtocol.writeResponse(out, (int)(response >>> 8), (byte)response.longValue());
+
+		out.flip();
+		connection.channel.write(out);
+		if (out.hasRemaining() || !connection.responses.isEmpty()) {
+			out.compact();
+			connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+		}
+		else {
+			this.pool.release(out);
+			connection.out = null;
+			connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	/* Closes the connection and returns its buffers, once, ie. close() meets cancelled keys too. */
+	private void close(Connection connection) {
+		if (!connection.channel.isOpen())
+			return;
+		connection.key.cancel();
+		try {
+			connection.channel.close();
+		}
+		catch (IOException ex) {} // nothing more can be done
+		if (connection.in != null)
+			this.pool.release(connection.in);
+		if (connection.out != null)
+			this.pool.release(connection.out);
+		connection.in = connection.out = null;
+		this.connections.decrementAndGet();
+	}
+
+	/*
+	 * Stops accepting logins and closes every connection, then throws what stopped the
+	 * selector thread if it failed before the server was closed.
+	 */
+	public void close() throws IOException {
+		this.closed = true;
+		this.selector.wakeup();
+		try {
+			this.thread.join();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : this.selector.keys()) {
+			if (key.attachment() instanceof Connection)
+				this.close((Connection)key.attachment());
+		}
+		this.acceptor.close();
+		this.selector.close();
+		if (this.failure != null)
+			throw this.failure;
+	}
+}
\ No newline at end of file
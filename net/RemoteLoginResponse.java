@@ -0,0 +1,24 @@
+package org.andy.net;
+
+import org.andy.login.LoginResponse;
+
+/*
+ * A RemoteLoginResponse is the LoginResponse returned by a LoginClient. The User stays on the
+ * server so getUser() returns null, instead the response tells the client whether the password
+ * is locked or has expired. AbstractLogin reads the User of every response, so it can't be
+ * used with a LoginClient, the caller checks these flags itself.
+ */
+public class RemoteLoginResponse extends LoginResponse {
+	private final byte status;
+
+	RemoteLoginResponse(byte status) {
+		super((status & LoginProtocol.VALIDATED) != 0);
+		this.status = status;
+	}
+
+	public boolean isLocked() { return (this.status & LoginProtocol.LOCKED) != 0; }
+	public boolean isExpired() { return (this.status & LoginProtocol.EXPIRED) != 0; }
+	
+	/* The server was too busy to validate the login, it can be tried again later. */
+	public boolean isRefused() { return (this.status & LoginProtocol.REFUSED) != 0; }
+}
\ No newline at end of file
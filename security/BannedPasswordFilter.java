@@ -0,0 +1,159 @@
+package org.andy.security;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * BannedPasswordFilter is a Bloom filter of banned passwords, ie. passwords known from breaches,
+ * held in a memory mapped file so that a list of tens of millions of passwords costs no heap and
+ * opening it costs nothing but the mapping. A file is built offline from a plain text list by
+ * BannedPasswordFilterBuilder. The layout of the file is:
+ *
+ * 		magic(4) version(4) hashes(4) reserved(4) bits(8) entries(8) bit array
+ *
+ * A password is looked up by its UTF-8 bytes, encoded from the Password.CharArray into a per
+ * thread scratch buffer which is wiped afterwards, so no String is ever made of it. The bytes
+ * are hashed twice with MurmurHash64A and the two hashes combined to give every bit position.
+ * A Bloom filter never misses a banned password but may report a password which is not banned,
+ * at the false positive rate chosen when the file was built.
+ */
+public final class BannedPasswordFilter implements Closeable {
+	static final int MAGIC = 0x42504246; // "BPBF"
+	static final int VERSION = 1;
+	static final int HEADER_WIDTH = 32;
+	static final long SEED_1 = 0x5BD1E9955BD1E995L;
+	static final long SEED_2 = 0x9E3779B97F4A7C15L;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer bits;
+	private final int hashes;
+	private final long bitCount;
+	private final long entries;
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		protected Scratch initialValue() { return new Scratch(); }
+	};
+
+	/* The per thread buffer a password is encoded into, it only grows. */
+	private static final class Scratch {
+		private byte[] bytes = new byte[64];
+		private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	private BannedPasswordFilter(FileChannel channel, MappedByteBuffer bits) throws IOException {
+		this.channel = channel;
+		this.bits = bits;
+		if (bits.getInt(0) != MAGIC || bits.getInt(4) != VERSION)
+			throw new IOException("Not a banned password filter");
+		this.hashes = bits.getInt(8);
+		this.bitCount = bits.getLong(16);
+		this.entries = bits.getLong(24);
+		if (this.hashes < 1 || this.bitCount < 64 || HEADER_WIDTH + this.bitCount / 8 > channel.size())
+			throw new IOException("Banned password filter is corrupt");
+	}
+
+	/* Maps the filter file at path. */
+	public static BannedPasswordFilter open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new BannedPasswordFilter(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/* Returns true if the password is probably banned, and false if it is certainly not. */
+	boolean mightContain(Password.CharArray charArray) {
+		Scratch scratch = this.scratch.get();
+		if (scratch.bytes.length < charArray.maxEncodedLength())
+			scratch.bytes = new byte[charArray.maxEncodedLength()];
+		byte[] bytes = scratch.bytes;
+
+		int length = charArray.encode(bytes);
+		try {
+			return this.mightContain(bytes, 0, length);
+		}
+		finally {
+			Arrays.fill(bytes, 0, length, (byte)0);
+		}
+	}
+
+	/* Returns true if the plain text is probably banned, the plain text is not changed. */
+	public boolean mightContain(char[] plainText) {
+		Scratch scratch = this.scratch.get();
+		if (scratch.bytes.length < plainText.length * 3)
+			scratch.bytes = new byte[plainText.length * 3];
+		ByteBuffer bytes = ByteBuffer.wrap(scratch.bytes);
+
+		scratch.encoder.reset();
+		scratch.encoder.encode(CharBuffer.wrap(plainText), bytes, true);
+		scratch.encoder.flush(bytes);
+		try {
+			return this.mightContain(scratch.bytes, 0, bytes.position());
+		}
+		finally {
+			Arrays.fill(scratch.bytes, 0, bytes.position(), (byte)0);
+		}
+	}
+
+	/* Returns true if the UTF-8 bytes are probably banned. */
+	boolean mightContain(byte[] bytes, int offset, int length) {
+		long h1 = hash(bytes, offset, length, SEED_1);
+		long h2 = hash(bytes, offset, length, SEED_2);
+		for (int i = 0; i < this.hashes; i++) {
+			long bit = Long.remainderUnsigned(h1 + i * h2, this.bitCount);
+			if ((this.bits.getLong(HEADER_WIDTH + (int)(bit >>> 6) * 8) & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/* The number of passwords the filter was built from. */
+	public long size() { return this.entries; }
+
+	public void close() throws IOException { this.channel.close(); }
+
+	/* MurmurHash64A of the bytes. */
+	static long hash(byte[] data, int offset, int length, long seed) {
+		final long m = 0xC6A4A7935BD1E995L;
+		final int r = 47;
+		long h = seed ^ (length * m);
+
+		int end = offset + (length & ~7);
+		for (int i = offset; i < end; i += 8) {
+			long k = (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8 | (data[i + 2] & 0xFFL) << 16 |
+				(data[i + 3] & 0xFFL) << 24 | (data[i + 4] & 0xFFL) << 32 | (data[i + 5] & 0xFFL) << 40 |
+				(data[i + 6] & 0xFFL) << 48 | (data[i + 7] & 0xFFL) << 56;
+			k *= m;
+			k ^= k >>> r;
+			k *= m;
+			h ^= k;
+			h *= m;
+		}
+
+		int remaining = length & 7;
+		if (remaining > 0) {
+			for (int i = remaining - 1; i >= 0; i--)
+				h ^= (data[end + i] & 0xFFL) << (8 * i);
+			h *= m;
+		}
+
+		h ^= h >>> r;
+		h *= m;
+		h ^= h >>> r;
+		return h;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package org.andy.security;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * BannedPasswordFilterBuilder builds a BannedPasswordFilter file from a plain text list of
+ * passwords, one per line in UTF-8. The list is streamed twice, once to count the passwords so
+ * the filter can be sized for the false positive rate and once to add them, and lines are
+ * hashed straight from the read buffer so memory use does not depend on the size of the list.
+ * The filter is written to a temporary file through a mapping and then moved into place.
+ *
+ * It can be run as a tool:
+ *
+ * 		java org.andy.security.BannedPasswordFilterBuilder <list> <filter> [false positive rate]
+ */
+public final class BannedPasswordFilterBuilder {
+	private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+	private static final int MAX_LINE = 1024; // longer lines are truncated
+	private static final long MAX_BITS = (Integer.MAX_VALUE - BannedPasswordFilter.HEADER_WIDTH) / 8 * 8 * 8L; // a mapping's worth of longs
+
+	private BannedPasswordFilterBuilder() {}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: BannedPasswordFilterBuilder <list> <filter> [false positive rate]");
+			return;
+		}
+		double rate = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_FALSE_POSITIVE_RATE;
+
+		long start = System.nanoTime();
+		long entries = build(Paths.get(args[0]), Paths.get(args[1]), rate);
+		System.out.println(String.format("%d passwords, %d bytes, %d ms", entries,
+			Files.size(Paths.get(args[1])), (System.nanoTime() - start) / 1000000));
+	}
+
+	/*
+	 * Builds the filter file from the list and returns the number of passwords added. An
+	 * IllegalArgumentException is thrown if the filter for the list at the false positive rate
+	 * would be too big to map, rather than building one with a worse rate.
+	 */
+	public static long build(Path list, Path filter, double falsePositiveRate) throws IOException {
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+
+		final long[] entries = { 0 };
+		read(list, new Line() {
+			public void accept(byte[] bytes, int length) { entries[0]++; }
+		});
+
+		// m = -n ln(p) / ln(2)^2 and k = m / n ln(2)
+		long bits = (long)Math.ceil(-Math.max(entries[0], 1) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		bits = Math.max(64, (bits + 63) & ~63L);
+		if (bits > MAX_BITS)
+			throw new IllegalArgumentException(String.format("%d passwords need %d bits at a false positive rate of %s, "
+				+ "more than the %d a filter can have", entries[0], bits, falsePositiveRate, MAX_BITS));
+		final int hashes = (int)Math.max(1, Math.min(30, Math.round((double)bits / Math.max(entries[0], 1) * Math.log(2))));
+		final long bitCount = bits;
+
+		Path temp = filter.resolveSibling(filter.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				BannedPasswordFilter.HEADER_WIDTH + bits / 8);
+			read(list, new Line() {
+				public void accept(byte[] bytes, int length) {
+					long h1 = BannedPasswordFilter.hash(bytes, 0, length, BannedPasswordFilter.SEED_1);
+					long h2 = BannedPasswordFilter.hash(bytes, 0, length, BannedPasswordFilter.SEED_2);
+					for (int i = 0; i < hashes; i++) {
+						long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+						int index = BannedPasswordFilter.HEADER_WIDTH + (int)(bit >>> 6) * 8;
+						buffer.putLong(index, buffer.getLong(index) | (1L << bit));
+					}
+				}
+			});
+
+			buffer.putInt(0, BannedPasswordFilter.MAGIC);
+			buffer.putInt(4, BannedPasswordFilter.VERSION);
+			buffer.putInt(8, hashes);
+			buffer.putLong(16, bits);
+			buffer.putLong(24, entries[0]);
+			buffer.force();
+		}
+
+		Files.move(temp, filter, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return entries[0];
+	}
+
+	private interface Line {
+		void accept(byte[] bytes, int length);
+	}
+
+	/* Streams the non empty lines of the file, without their line terminator, to the consumer. */
+	private static void read(Path path, Line consumer) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		byte[] line = new byte[MAX_LINE];
+		int length = 0;
+		try (InputStream in = Files.newInputStream(path)) {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
+					if (b == '\n') {
+						accept(consumer, line, length);
+						length = 0;
+					}
+					else if (length < MAX_LINE) {
+						line[length++] = b;
+					}
+				}
+			}
+			accept(consumer, line, length);
+		}
+	}
+
+	private static void accept(Line consumer, byte[] line, int length) {
+		if (length > 0 && line[length - 1] == '\r')
+			length--;
+		if (length > 0)
+			consumer.accept(line, length);
+	}
+}
\ No newline at end of file
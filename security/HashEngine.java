@@ -0,0 +1,79 @@
+package org.andy.security;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/*
+ * HashEngine computes message digests on behalf of SecurityPolicy. A MessageDigest is not
+ * thread-safe, so rather than sharing one instance behind a lock every thread is given its
+ * own digest for the configured algorithm. Threads never contend with each other and the
+ * digest is reset by MessageDigest.digest() so each instance can be reused indefinitely.
+ *
+ * A HashEngine is immutable with respect to its algorithm. When SecurityPolicy changes the
+ * encryption algorithm it creates a new HashEngine, and any thread still holding the old one
+ * simply finishes its current hash with the previous algorithm.
+ *
+ * Each thread also keeps a scratch buffer which a Password.CharArray is encoded into before
+ * being fed to the digest. The buffer only grows, and is wiped after every use, so hashing
+ * a password allocates nothing but the resulting secret.
+ */
+final class HashEngine {
+	private final String algorithm;
+	private final ThreadLocal<Context> contexts;
+	
+	/* The per thread state, a digest and the scratch buffer for encoded plain text. */
+	private static final class Context {
+		private final MessageDigest digest;
+		private byte[] scratch = new byte[64];
+		
+		Context(MessageDigest digest) { this.digest = digest; }
+	}
+
+	/* The algorithm is verified up front so that a bad name is reported to the caller. */
+	HashEngine(String algorithm) throws NoSuchAlgorithmException {
+		MessageDigest.getInstance(algorithm); // throws ex
+
+		this.algorithm = algorithm;
+		this.contexts = new ThreadLocal<Context>() {
+			protected Context initialValue() {
+				try {
+					return new Context(MessageDigest.getInstance(HashEngine.this.algorithm));
+				}
+				catch (NoSuchAlgorithmException ex) { // already verified in constructor
+					throw new IllegalStateException(ex);
+				}
+			}
+		};
+	}
+
+	/* 
+	 * Returns the digest of the UTF-8 encoded plain text as a DIGEST secret (see Secrets).
+	 * The text is encoded into the thread's scratch buffer, fed into the digest and then
+	 * wiped from the buffer. The digest is written directly after the tag byte.
+	 */
+	byte[] digest(Password.CharArray charArray) {
+		Context context = this.contexts.get();
+		if (context.scratch.length < charArray.maxEncodedLength())
+			context.scratch = new byte[charArray.maxEncodedLength()];
+		
+		int length = charArray.encode(context.scratch);
+		try {
+			context.digest.update(context.scratch, 0, length);
+			
+			byte[] secret = new byte[context.digest.getDigestLength() + 1];
+			secret[0] = Secrets.DIGEST;
+			context.digest.digest(secret, 1, secret.length - 1);
+			return secret;
+		}
+		catch (DigestException ex) { // the secret is always sized to the digest
+			throw new IllegalStateException(ex);
+		}
+		finally {
+			Arrays.fill(context.scratch, 0, length, (byte)0);
+		}
+	}
+
+	String getAlgorithm() { return this.algorithm; }
+}
\ No newline at end of file
@@ -0,0 +1,74 @@
+package org.andy.security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * HashExecutor is a bounded pool of threads dedicated to slow key derivation. A burst of
+ * logins all deriving keys at once would otherwise occupy every thread of the application,
+ * so SecurityPolicy hands the work to this pool and the calling thread waits for the result.
+ * No more than the configured number of threads ever hash at once and waiting work is held
+ * in a bounded queue. When the queue is full the request is refused with a SecurityException
+ * rather than letting the backlog grow without limit.
+ */
+final class HashExecutor {
+	private static final long RETIRED_KEEP_ALIVE = 1; // seconds
+	private final ThreadPoolExecutor executor;
+
+	HashExecutor(int threads, int queueCapacity) {
+		final AtomicInteger count = new AtomicInteger();
+
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "password-hash-" + count.incrementAndGet());
+					thread.setDaemon(true); // must not keep the application alive
+					return thread;
+				}
+			});
+	}
+
+	/* Runs the task on the pool and waits for its result. */
+	<T> T execute(Callable<T> task) throws SecurityException {
+		Future<T> future;
+		try {
+			future = this.executor.submit(task);
+		}
+		catch (RejectedExecutionException ex) {
+			throw new SecurityException("Password hashing capacity exceeded, try again later");
+		}
+
+		try {
+			return future.get();
+		}
+		catch (InterruptedException ex) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new SecurityException("Interrupted while hashing password");
+		}
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException)ex.getCause();
+			throw new SecurityException(ex.getCause().getMessage());
+		}
+	}
+
+	int getThreads() { return this.executor.getMaximumPoolSize(); }
+
+	/*
+	 * Lets the threads end once they are idle, called when the pool is replaced. The pool is not
+	 * shut down, a caller which read it before it was replaced may still hand it work, and a 
+	 * shutdown racing with that can leave the work queued with no thread to run it.
+	 */
+	void retire() {
+		this.executor.setKeepAliveTime(RETIRED_KEEP_ALIVE, TimeUnit.SECONDS);
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+package org.andy.security;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/*
+ * KeyDerivation describes a salted, iterated key derivation (PBKDF2) and is used by
+ * SecurityPolicy when the encryption algorithm is one of the JDK PBKDF2 algorithms ie.
+ * PBKDF2WithHmacSHA256. Unlike a plain message digest the parameters used to derive a
+ * secret must be known to verify it later, so they are recorded next to the derived key
+ * in the secret itself. A derived secret is a fixed width byte array:
+ *
+ * 		tag(1) algorithm(1) iterations(4) salt(16) key(32)
+ *
+ * and its persisted form is:
+ *
+ * 		algorithm$iterations$salt$key   (salt and key are hexadecimal)
+ *
+ * This means every secret, including those in the Password history, carries its own cost
+ * setting. Raising the iteration count only affects secrets created after the change while
+ * older secrets can still be verified.
+ */
+final class KeyDerivation {
+	static final String PREFIX = "PBKDF2";
+	private static final String[] ALGORITHMS = {
+		"PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA224", "PBKDF2WithHmacSHA256",
+		"PBKDF2WithHmacSHA384", "PBKDF2WithHmacSHA512"
+	};
+	private static final char SEPARATOR = '$';
+	private static final int SALT_LENGTH = 16;  // bytes
+	private static final int KEY_LENGTH = 32;   // bytes
+	private static final int SECRET_LENGTH = 1 + 1 + 4 + SALT_LENGTH + KEY_LENGTH;
+	private static final HexFormat HEX = HexFormat.of().withUpperCase();
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final int algorithm; // index into ALGORITHMS
+	private final int iterations;
+	private final byte[] salt;
+
+	private KeyDerivation(int algorithm, int iterations, byte[] salt) {
+		this.algorithm = algorithm;
+		this.iterations = iterations;
+		this.salt = salt;
+	}
+
+	/* Creates a KeyDerivation with a new random salt, used when a new secret is created. */
+	static KeyDerivation create(String algorithm, int iterations) {
+		byte[] salt = new byte[SALT_LENGTH];
+		RANDOM.nextBytes(salt);
+		return new KeyDerivation(indexOf(algorithm), iterations, salt);
+	}
+
+	/*
+	 * Creates a secret with a random salt and an empty key, which no password derives to. A
+	 * refused login is derived against it so it costs the same as a wrong password, see
+	 * SecurityPolicy.refuse().
+	 */
+	static byte[] dummy(String algorithm, int iterations) {
+		return create(algorithm, iterations).toSecret(new byte[KEY_LENGTH]);
+	}
+
+	private static int indexOf(String algorithm) {
+		for (int i = 0; i < ALGORITHMS.length; i++) {
+			if (ALGORITHMS[i].equals(algorithm))
+				return i;
+		}
+		throw new IllegalArgumentException("Unsupported key derivation: " + algorithm);
+	}
+
+	/* Returns true if the algorithm name is one handled by KeyDerivation. */
+	static boolean isKeyDerivation(String algorithm) {
+		return algorithm != null && algorithm.startsWith(PREFIX);
+	}
+
+	/* Returns true if the persisted secret was created by a KeyDerivation. */
+	static boolean isDerived(String secret) {
+		return secret != null && secret.startsWith(PREFIX) && secret.indexOf(SEPARATOR) > 0;
+	}
+
+	/* Restores the parameters recorded in a derived secret. */
+	static KeyDerivation parse(byte[] secret) {
+		ByteBuffer buffer = ByteBuffer.wrap(secret, 1, SECRET_LENGTH - 1);
+		int algorithm = buffer.get();
+		int iterations = buffer.getInt();
+		byte[] salt = new byte[SALT_LENGTH];
+		buffer.get(salt);
+
+		return new KeyDerivation(algorithm, iterations, salt);
+	}
+
+	/* Returns the persisted form of a derived secret. */
+	static String encode(byte[] secret) {
+		KeyDerivation derivation = parse(secret);
+		return ALGORITHMS[derivation.algorithm] + SEPARATOR + derivation.iterations + SEPARATOR +
+			HEX.formatHex(derivation.salt) + SEPARATOR +
+			HEX.formatHex(secret, SECRET_LENGTH - KEY_LENGTH, SECRET_LENGTH);
+	}
+
+	/* Restores a derived secret from its persisted form. */
+	static byte[] decode(String secret) {
+		String[] parts = secret.split("\\" + SEPARATOR);
+		if (parts.length != 4)
+			throw new IllegalArgumentException("Malformed derived secret");
+
+		byte[] salt = HEX.parseHex(parts[2]);
+		byte[] key = HEX.parseHex(parts[3]);
+		if (salt.length != SALT_LENGTH || key.length != KEY_LENGTH)
+			throw new IllegalArgumentException("Malformed derived secret");
+
+		return new KeyDerivation(indexOf(parts[0]), Integer.parseInt(parts[1]), salt).toSecret(key);
+	}
+
+	/* Verifies the algorithm is available from the JDK, throws NoSuchAlgorithmException if not. */
+	static void verify(String algorithm) throws NoSuchAlgorithmException {
+		for (String name : ALGORITHMS) {
+			if (name.equals(algorithm)) {
+				SecretKeyFactory.getInstance(algorithm);
+				return;
+			}
+		}
+		throw new NoSuchAlgorithmException(algorithm + " is not a supported key derivation");
+	}
+
+	/*
+	 * Derives the secret for the plain text password. This is CPU heavy by design and
+	 * SecurityPolicy runs it on its hashing executor. The copy of the plain text held
+	 * by PBEKeySpec and the intermediate key are cleared before returning.
+	 */
+	byte[] derive(char[] plainText) {
+		PBEKeySpec spec = new PBEKeySpec(plainText, this.salt, this.iterations, KEY_LENGTH * 8);
+		byte[] key = null;
+		try {
+			key = SecretKeyFactory.getInstance(ALGORITHMS[this.algorithm]).generateSecret(spec).getEncoded();
+			return this.toSecret(key);
+		}
+		catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+			throw new SecurityException("Unable to derive secret: " + ex.getMessage());
+		}
+		finally {
+			spec.clearPassword();
+			if (key != null)
+				Arrays.fill(key, (byte)0);
+		}
+	}
+
+	/* Lays out the parameters and key as a fixed width derived secret. */
+	private byte[] toSecret(byte[] key) {
+		byte[] secret = new byte[SECRET_LENGTH];
+		ByteBuffer.wrap(secret)
+			.put(Secrets.DERIVED)
+			.put((byte)this.algorithm)
+			.putInt(this.iterations)
+			.put(this.salt)
+			.put(key);
+		return secret;
+	}
+
+	int getIterations() { return this.iterations; }
+}
\ No newline at end of file
@@ -1,10 +1,11 @@
 package org.andy.security;
 
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Mac;
+import org.andy.events.PasswordEvent;
 
 /*
  * A Password object is used to store a password which is governed by a SecurityPolicy. By default 
@@ -34,17 +35,30 @@ import java.util.Date;
  * will monitor this and lock the password if it reaches a failure limit. A locked password 
  * will need to be unlocked by an Admin. Password contains a history array of previous passwords,
  * this is to prevent reuse of passwords, if configured. The history count is defined in 
- * SecurityPolicy.
+ * SecurityPolicy. The secret and history are held as fixed width byte arrays and are only
+ * converted to Strings for persistence, see getSecret() and getHistory().
+ *
+ * A PasswordListener can be set to be told when the password is changed, locked or unlocked.
+ * Locking, unlocking and expiring are recorded as Flight Recorder PasswordEvents under a
+ * hash of the owner, the username of the User the password belongs to, see setOwner().
+ *
+ * A Password can be verified and changed from many threads at once. Failed attempts are counted
+ * atomically and the password is locked once, by whichever failure reaches the limit. change()
+ * holds the lock of the Password, so changes are made one at a time, but verification takes no
+ * lock and sees either the secret before a change or after it.
  */
 public class Password {
-	private Date creationDate;
+	private volatile Date creationDate;
+	private volatile long policyEpoch; // of the PolicySnapshot the secret was created under
 	private Password.CharArray charArray;
-	private String[] history;
-	private String secret;
-	private int loginAttempts;
-	private boolean expired;
-	private boolean isLocked;
+	private volatile byte[][] history; // never modified once set, change() sets a new array
+	private volatile byte[] secret;
+	private final AtomicInteger loginAttempts = new AtomicInteger();
+	private volatile boolean expired;
+	private final AtomicBoolean isLocked = new AtomicBoolean();
 	private boolean isNew;
+	private volatile PasswordListener listener;
+	private volatile String owner; // only recorded in events, as a hash
 	
 	/* This constructor is called when creating a Password for verification purposes. */
 	public Password(char[] plainText) { this(plainText, false); }
@@ -58,10 +72,10 @@ public class Password {
 		// If historyCount = 0 we don't want to attempt to create a negative array which would
 		// cause a crash. In this case we create a dummy array of size 0 and this is to ensure
 		// that calls to getHistoty will not crash with NullPointerException.
-		if (this.getSecurityPolicy().getHistoryCount() > 0)
-			this.setHistory(new String[this.getSecurityPolicy().getHistoryCount() - 1]); // all values = null
+		if (Password.getSecurityPolicy().getHistoryCount() > 0)
+			this.setHistory(new byte[Password.getSecurityPolicy().getHistoryCount() - 1][]); // all values = null
 		else
-			this.setHistory(new String[0]);
+			this.setHistory(new byte[0][]);
 
 		this.change(plainText, isNew); // use change method to set the password
 	}
@@ -69,14 +83,32 @@ public class Password {
 	 * This constructor is called when creating passwords from persistence. Once the persisted
 	 * values are set it does an expiration check. The SecurityPolicy will determine if this 
 	 * password has expired based on the creation date or if the SecurityPolicy has been updated
-	 * and requires all passwords to be recreated under the new rules.
+	 * and requires all passwords to be recreated under the new rules. The persisted secrets
+	 * are hexadecimal, or plain text if encryption is turned off, and are decoded into their
+	 * binary form here.
 	 */
 	public Password(String secret, String[] history, Date creationDate, boolean isLocked) {
+		this(decode(secret), decode(history), creationDate, isLocked);
+	}
+	/* This constructor is used by PasswordRecord to restore a Password in its binary form. */
+	Password(byte[] secret, byte[][] history, Date creationDate, boolean isLocked) {
 		this.setSecret(secret);
 		this.setHistory(history);
 		this.setCreationDate(creationDate);
-		this.setLocked(isLocked);
-		this.getSecurityPolicy().expirationCheck(this);
+		this.setPolicyEpoch(Password.getSecurityPolicy().getSnapshot().restoredEpoch(creationDate.getTime()));
+		this.isLocked.set(isLocked); // restored as it was, not locked now, so no event or listener
+		Password.getSecurityPolicy().expirationCheck(this);
+	}
+	
+	/* Decodes persisted secrets, which are plain text if encryption is turned off. */
+	private static byte[] decode(String secret) {
+		return Secrets.decode(secret, getSecurityPolicy().getEncryptionAlgorithm() == null);
+	}
+	private static byte[][] decode(String[] history) {
+		byte[][] secrets = new byte[history.length][];
+		for (int i = 0; i < history.length; i++)
+			secrets[i] = decode(history[i]);
+		return secrets;
 	}
 	
 	/*
@@ -99,50 +131,93 @@ public class Password {
 	public void change(char[] plainText) throws SecurityException {
 		this.change(plainText, true);
 	}
-	private void change(char[] plainText, boolean isNew) throws SecurityException {
+	private synchronized void change(char[] plainText, boolean isNew) throws SecurityException {
 		this.setIsNew(isNew); // this flags whether or not to do security checking
 		this.setCharArray(new Password.CharArray(plainText));
 		
-		// If the history count has been changed, modify the array length. If history count
-		// has been disabled then set history to a new dummy array.
-		// Note: -1 is applied to historyCount to reflect the history size offset
-		if (this.getSecurityPolicy().getHistoryCount() > 0) {
-			if (this.getHistory().length != this.getSecurityPolicy().getHistoryCount() - 1)
-				this.setHistory(Arrays.copyOf(this.getHistory(), this.getSecurityPolicy().getHistoryCount() - 1));
-		}
-		else {
-			this.setHistory(new String[0]);
-		}
+		// If the history count has been changed, modify the array length
+		Password.getSecurityPolicy().historyCheck(this);
 		
 		// need to keep a copy of the current secret password to put into history
-		String previousSecret = this.getSecret();
+		byte[] previousSecret = this.getSecretBytes();
 		
-		this.getSecurityPolicy().encrypt(this); // will throw SecurityException on conflicts
+		Password.getSecurityPolicy().encrypt(this); // will throw SecurityException on conflicts
 		
-		// put previous secret into history
-		if (this.history.length != 0) {
-			for (int i = this.history.length - 2; i > -1; i--) {
-				this.history[i+1] = this.history[i];
-			}
-			this.history[0] = previousSecret;
+		// put previous secret into history, a new array is set so that readers of the
+		// history never see it part way through being shifted
+		byte[][] history = this.getHistoryBytes();
+		if (history.length != 0) {
+			byte[][] shifted = new byte[history.length][];
+			shifted[0] = previousSecret;
+			System.arraycopy(history, 0, shifted, 1, history.length - 1);
+			this.setHistory(shifted);
 		}
 		
-		// clean up
-		this.getCharArray().clear();
+		// clean up, a verification password which is still to be derived keeps its plain
+		// text until it is compared (see SecurityPolicy.matches)
+		if (this.getSecretBytes() != null)
+			this.getCharArray().clear();
 		this.setCreationDate(new Date());
 		this.setIsNew(false);
+		
+		if (isNew)
+			this.fireChanged();
 	}
 		
-	/* Password equality is determined by comparing the secret passwords. */
-	public boolean equals(Password password) { return equals(password.getSecret()); }
+	/*
+	 * Password equality is determined by comparing the secret passwords in constant time. If
+	 * the other password is a verification password which has not been derived yet, it is
+	 * derived using the parameters of this secret. The failure count of 'this' is updated 
+	 * either way. equals(String) takes a secret in its persisted form.
+	 */
+	public boolean equals(Password password) {
+		if (password.getSecretBytes() == null)
+			return this.checkAttempt(Password.getSecurityPolicy().matches(password, this.getSecretBytes()));
+		return this.checkAttempt(Password.getSecurityPolicy().matches(this, password.getSecretBytes()));
+	}
 	public boolean equals(String secret) {
-		if (this.getSecret().equals(secret)) {
-			this.loginAttempts = 0; // reset counter
+		byte[] other;
+		try {
+			other = decode(secret);
+		}
+		catch (IllegalArgumentException ex) {
+			other = null; // a malformed secret can't match
+		}
+		return this.checkAttempt(Password.getSecurityPolicy().matches(this, other));
+	}
+	/*
+	 * Refuses this verification password without comparing it, for a login which fails because
+	 * the user is unknown or locked. It costs the same as a failed equals(), see
+	 * SecurityPolicy.refuse(), and the plain text is cleared.
+	 */
+	public void refuse() {
+		try {
+			Password.getSecurityPolicy().refuse(this);
+		}
+		finally {
+			this.clear();
+		}
+	}
+	
+	/*
+	 * Destroys the plain text of a verification password, ie. one which is refused before it
+	 * is compared. Once a secret has been created the plain text is already destroyed.
+	 */
+	public void clear() {
+		Password.CharArray charArray = this.getCharArray();
+		if (charArray != null)
+			charArray.clear();
+	}
+	
+	/* Records the outcome of a login attempt, VerificationCache records its hits here too. */
+	boolean checkAttempt(boolean isMatch) {
+		if (isMatch) {
+			this.loginAttempts.set(0); // reset counter
 			return true;
 		}
 		else {
-			this.loginAttempts++; // increment counter and checkin with SecurityPolicy
-			this.getSecurityPolicy().loginAttemptCheck(this);
+			this.loginAttempts.incrementAndGet(); // increment counter and checkin with SecurityPolicy
+			Password.getSecurityPolicy().loginAttemptCheck(this);
 			return false;
 		}
 	}
@@ -152,18 +227,50 @@ public class Password {
 	
 	public Date getCreationDate() { return this.creationDate; }
 	
-	/* This method will be called by a persistor and should not return any null values. */
+	/* 
+	 * This method will be called by a persistor and should not return any null values. The
+	 * history is encoded into its persisted form, see getSecret().
+	 */
 	public String[] getHistory() {
-		for (int i = 0; i < this.history.length; i++) {
-			if (this.history[i] == null)
-				this.history[i] = "";
+		byte[][] secrets = this.history;
+		String[] history = new String[secrets.length];
+		for (int i = 0; i < secrets.length; i++) {
+			history[i] = Secrets.encode(secrets[i]);
+			if (history[i] == null)
+				history[i] = "";
 		}
-		return this.history; 
+		return history; 
 	}
 	
-	int getLoginAttempts() { return this.loginAttempts; }
+	/* default access gives SecurityPolicy access to the binary history. */
+	byte[][] getHistoryBytes() { return this.history; }
 	
-	public String getSecret() { return this.secret; }
+	int getLoginAttempts() { return this.loginAttempts.get(); }
+	
+	/* The username events of this password are recorded under, or null if it has no owner. */
+	String getOwner() { return this.owner; }
+	
+	/* The epoch of the PolicySnapshot the secret was created under, see SecurityPolicy.expirationCheck(). */
+	long getPolicyEpoch() { return this.policyEpoch; }
+	
+	/* 
+	 * Returns the secret in its persisted form; hexadecimal, or plain text if encryption is 
+	 * turned off. Internally the secret is held in binary, see getSecretBytes().
+	 */
+	public String getSecret() { return Secrets.encode(this.secret); }
+	
+	/* default access gives SecurityPolicy access to the binary secret. */
+	byte[] getSecretBytes() { return this.secret; }
+	
+	/*
+	 * Passes the binary secret to the MAC, ie. to bind a session token to the current secret
+	 * without the secret leaving the Password. Nothing is passed if there is no secret.
+	 */
+	public void updateMac(Mac mac) {
+		byte[] secret = this.secret;
+		if (secret != null)
+			mac.update(secret);
+	}
 	
 	/* A convenience method for access to the SecurityPolicy. */
 	public static SecurityPolicy getSecurityPolicy() { return SecurityPolicy.getInstance(); }
@@ -175,7 +282,7 @@ public class Password {
 	public boolean isExpired() { return this.expired; }
 	
 	/* This will return true if the password has been locked by SecurityPolicy. */
-	public boolean isLocked() { return this.isLocked; }
+	public boolean isLocked() { return this.isLocked.get(); }
 	
 	/* This will return true if the password is new, and false if it is a temp password. */
 	boolean isNew() { return this.isNew; }
@@ -184,23 +291,56 @@ public class Password {
 	
 	private void setCreationDate(Date creationDate) { this.creationDate = creationDate; }
 	
+	void setPolicyEpoch(long policyEpoch) { this.policyEpoch = policyEpoch; }
+	
 	/* This method is called by SecurityPolicy to expire this Password. */
 	void setExpired(boolean expired) { this.expired = expired; }
 	
-	private void setHistory(String[] history) { this.history = history; }
+	private void setHistory(byte[][] history) { this.history = history; }
 	
-	void setLocked(boolean isLocked) {
+	/*
+	 * This method is called by SecurityPolicy to resize the history, the oldest secrets are
+	 * dropped if it shrinks. It holds the lock of the Password so it can't interleave with a
+	 * change(). Returns true if the history was resized.
+	 */
+	synchronized boolean resizeHistory(int length) {
+		if (this.getHistoryBytes().length == length)
+			return false;
+		this.setHistory(length == 0 ? new byte[0][] : Arrays.copyOf(this.getHistoryBytes(), length));
+		return true;
+	}
+	
+	/* Returns true if this call locked or unlocked the password, false if it already was. */
+	boolean setLocked(boolean isLocked) {
 		// If a password is unlocked reset the loginAttempts counter
+		int loginAttempts = this.loginAttempts.get();
 		if (!isLocked)
-			this.loginAttempts = 0;
+			this.loginAttempts.set(0);
 		
-		this.isLocked = isLocked; 
+		// only the thread which makes the transition tells the listener
+		if (!this.isLocked.compareAndSet(!isLocked, isLocked))
+			return false;
+		PasswordEvent.record(isLocked ? PasswordEvent.LOCKED : PasswordEvent.UNLOCKED, this.owner, loginAttempts);
+		this.fireChanged();
+		return true;
+	}
+	
+	/* Sets the listener to be told of changes, or null to remove it. */
+	public void setListener(PasswordListener listener) { this.listener = listener; }
+	
+	/* Sets the username which events of this password are recorded under, see PasswordEvent. */
+	public void setOwner(String owner) { this.owner = owner; }
+	
+	private void fireChanged() {
+		PasswordListener listener = this.listener;
+		if (listener != null)
+			listener.passwordChanged(this);
 	}
 	
 	void setIsNew(boolean isNew) { this.isNew = isNew; }
 	
 	/* This method is used by SecurityPolicy to set the newly created secret password. */
-	void setSecret(String secret) { this.secret = secret; }
+	void setSecret(byte[] secret) { this.secret = secret; }
 	
 	public String toString() { return this.getSecret(); }
 	
@@ -209,7 +349,7 @@ public class Password {
 	 * rule checking. It has an added clear() method to clear out any contents and a 
 	 * getBytes() method which converts the char[] into a byte[] without the use of String.
 	 * String objects should not be used for sensitive data storage due to their immutable
-	 * nature. getBytes() is required to apply the encryption algorithm.
+	 * nature. encode() is used to apply the encryption algorithm.
 	 */
 	class CharArray implements CharSequence {
 		private byte[] bytes;
@@ -228,14 +368,62 @@ public class Password {
 				Arrays.fill(bytes, (byte)0);
 		}
 		
-		/* Convert the character array into a byte array. */
+		/* Returns the character array itself, used for key derivation. */
+		char[] getChars() { return ary; }
+		
+		/*
+		 * Encodes the character array as UTF-8 into dest, which must hold at least
+		 * maxEncodedLength() bytes, and returns the number of bytes written. Nothing is
+		 * allocated so a caller can encode into a reusable buffer, SecurityPolicy feeds
+		 * the result straight into its digest. An unpaired surrogate is encoded as '?', 
+		 * the same as the UTF-8 Charset would. The caller is responsible for clearing dest.
+		 */
+		int encode(byte[] dest) {
+			int n = 0;
+			for (int i = 0; i < ary.length; i++) {
+				char c = ary[i];
+				if (c < 0x80) {
+					dest[n++] = (byte)c;
+				}
+				else if (c < 0x800) {
+					dest[n++] = (byte)(0xC0 | (c >> 6));
+					dest[n++] = (byte)(0x80 | (c & 0x3F));
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < ary.length && 
+						Character.isLowSurrogate(ary[i + 1])) {
+					int cp = Character.toCodePoint(c, ary[++i]);
+					dest[n++] = (byte)(0xF0 | (cp >> 18));
+					dest[n++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+					dest[n++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+					dest[n++] = (byte)(0x80 | (cp & 0x3F));
+				}
+				else if (Character.isSurrogate(c)) {
+					dest[n++] = (byte)'?';
+				}
+				else {
+					dest[n++] = (byte)(0xE0 | (c >> 12));
+					dest[n++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+					dest[n++] = (byte)(0x80 | (c & 0x3F));
+				}
+			}
+			return n;
+		}
+		
+		/* The most bytes encode() can write, UTF-8 uses at most 3 bytes per char. */
+		int maxEncodedLength() { return ary.length * 3; }
+		
+		/* 
+		 * Convert the character array into a byte array. The bytes are kept so that 
+		 * clear() can destroy them, SecurityPolicy uses encode() and avoids this copy.
+		 */
 		public byte[] getBytes() {
-			CharBuffer cb = CharBuffer.wrap(ary);
-			ByteBuffer bb = Charset.forName("UTF-8").encode(cb);
-			bytes = Arrays.copyOfRange(bb.array(), bb.position(), bb.limit());
+			byte[] scratch = new byte[maxEncodedLength()];
+			int length = encode(scratch);
 			
-			Arrays.fill(cb.array(), '\u0000');
-			Arrays.fill(bb.array(), (byte)0);
+			if (bytes != null)
+				Arrays.fill(bytes, (byte)0);
+			bytes = Arrays.copyOf(scratch, length);
+			Arrays.fill(scratch, (byte)0);
 			
 			return bytes;
 		}
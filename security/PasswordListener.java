@@ -0,0 +1,10 @@
+package org.andy.security;
+
+/*
+ * A PasswordListener is notified when a Password is changed, ie. a new secret is set, or when
+ * it is locked or unlocked. It is called on the thread that made the change, after the change
+ * has been made. A Password has at most one listener which is normally the User that owns it.
+ */
+public interface PasswordListener {
+	void passwordChanged(Password password);
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package org.andy.security;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/*
+ * PasswordRecord writes and reads the state of a Password as a fixed width binary record, for
+ * use by a persistence layer that wants to store secrets in their binary form rather than as
+ * Strings. The layout of a record is:
+ *
+ * 		creationDate(8) flags(1) secret(1 + SECRET_WIDTH) historyCount(1) history(n * (1 + SECRET_WIDTH))
+ *
+ * Each secret is written as a length byte followed by a slot of SECRET_WIDTH bytes, which is
+ * wide enough for every digest and derived secret. The number of history slots is chosen by
+ * the caller and fixes the width of the record, see width(). The failed login attempt count
+ * is not persisted.
+ */
+public final class PasswordRecord {
+	public static final int SECRET_WIDTH = 72;
+	private static final int SLOT_WIDTH = SECRET_WIDTH + 1;
+	private static final byte LOCKED = 1;
+
+	private PasswordRecord() {}
+
+	/* Returns the width in bytes of a record holding the specified number of history slots. */
+	public static int width(int historySlots) {
+		return 8 + 1 + SLOT_WIDTH + 1 + historySlots * SLOT_WIDTH;
+	}
+
+	/* Returns the number of history slots needed to store the password. */
+	public static int historySlots(Password password) {
+		return password.getHistoryBytes().length;
+	}
+
+	/*
+	 * Writes the password at the offset of the buffer. An IllegalArgumentException is thrown
+	 * if the password has more history than slots or a secret too wide for its slot, which is
+	 * only possible for plain text secrets.
+	 */
+	public static void write(Password password, ByteBuffer buffer, int offset, int historySlots) {
+		byte[][] history = password.getHistoryBytes();
+		if (history.length > historySlots)
+			throw new IllegalArgumentException("Password history exceeds " + historySlots + " slots");
+
+		buffer.putLong(offset, password.getCreationDate().getTime());
+		buffer.put(offset + 8, password.isLocked() ? LOCKED : 0);
+		writeSecret(buffer, offset + 9, password.getSecretBytes());
+		buffer.put(offset + 9 + SLOT_WIDTH, (byte)history.length);
+
+		int position = offset + 10 + SLOT_WIDTH;
+		for (int i = 0; i < historySlots; i++, position += SLOT_WIDTH)
+			writeSecret(buffer, position, i < history.length ? history[i] : null);
+	}
+
+	/* Reads the password at the offset of the buffer. The expiration check is applied. */
+	public static Password read(ByteBuffer buffer, int offset) {
+		Date creationDate = new Date(buffer.getLong(offset));
+		boolean isLocked = buffer.get(offset + 8) == LOCKED;
+		byte[] secret = readSecret(buffer, offset + 9);
+
+		byte[][] history = new byte[buffer.get(offset + 9 + SLOT_WIDTH)][];
+		int position = offset + 10 + SLOT_WIDTH;
+		for (int i = 0; i < history.length; i++, position += SLOT_WIDTH)
+			history[i] = readSecret(buffer, position);
+
+		return new Password(secret, history, creationDate, isLocked);
+	}
+
+	/* Reads only the creation date of the password at the offset of the buffer, in milliseconds. */
+	public static long readCreationTime(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset);
+	}
+
+	/* Reads only the length of the history of the password at the offset of the buffer. */
+	public static int readHistoryLength(ByteBuffer buffer, int offset) {
+		return buffer.get(offset + 9 + SLOT_WIDTH);
+	}
+
+	private static void writeSecret(ByteBuffer buffer, int offset, byte[] secret) {
+		int length = secret == null ? 0 : secret.length;
+		if (length > SECRET_WIDTH)
+			throw new IllegalArgumentException("Secret exceeds " + SECRET_WIDTH + " bytes");
+
+		buffer.put(offset, (byte)length);
+		if (length > 0)
+			buffer.put(offset + 1, secret);
+		for (int i = length; i < SECRET_WIDTH; i++)
+			buffer.put(offset + 1 + i, (byte)0);
+	}
+
+	private static byte[] readSecret(ByteBuffer buffer, int offset) {
+		int length = buffer.get(offset) & 0xFF;
+		if (length == 0)
+			return null;
+
+		byte[] secret = new byte[length];
+		buffer.get(offset + 1, secret);
+		return secret;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package org.andy.security;
+
+/*
+ * PasswordRules is the compiled form of the SecurityPolicy password rules. Rather than running a
+ * regular expression per rule, every enabled rule is folded into a bit mask and a plain text
+ * password is checked with a single pass over its characters. Each character is classified once
+ * and the classes seen are accumulated in a second bit mask, which is then compared against the
+ * required mask. Nothing is allocated unless a rule is broken and a SecurityException is thrown.
+ *
+ * A PasswordRules object is immutable. Each PolicySnapshot builds its own when it is published,
+ * so validation never has to re-read the individual policy fields.
+ */
+final class PasswordRules {
+	// Character classes, these mirror the regular expressions previously used by SecurityPolicy.
+	static final int CHARACTER = 1;       // [a-zA-Z]
+	static final int DIGIT = 1 << 1;      // [\d]
+	static final int LOWER_CASE = 1 << 2; // [a-z]
+	static final int WHITESPACE = 1 << 3; // [\s]
+	static final int SPECIAL = 1 << 4;    // [^a-zA-Z0-9]
+	static final int UPPER_CASE = 1 << 5; // [A-Z]
+
+	private final int minLength;
+	private final int required;       // classes that must be present
+	private final boolean noWhitespace;
+
+	PasswordRules(int minLength, boolean character, boolean digit, boolean lowerCase,
+			boolean noWhitespace, boolean special, boolean upperCase) {
+		int required = 0;
+		if (character) required |= CHARACTER;
+		if (digit) required |= DIGIT;
+		if (lowerCase) required |= LOWER_CASE;
+		if (special) required |= SPECIAL;
+		if (upperCase) required |= UPPER_CASE;
+
+		this.minLength = minLength;
+		this.required = required;
+		this.noWhitespace = noWhitespace;
+	}
+
+	/* Returns the character classes of c as a bit mask. */
+	private static int classify(char c) {
+		if (c >= 'a' && c <= 'z') return CHARACTER | LOWER_CASE;
+		if (c >= 'A' && c <= 'Z') return CHARACTER | UPPER_CASE;
+		if (c >= '0' && c <= '9') return DIGIT;
+		if (c == ' ' || (c >= '\t' && c <= '\r')) return WHITESPACE | SPECIAL;
+		return SPECIAL;
+	}
+
+	/*
+	 * Validates the plain text password against every enabled rule in one scan. Rules are
+	 * reported in the same order as the original SecurityPolicy checks so the first conflict
+	 * encountered produces the same warning as before.
+	 */
+	void validate(Password.CharArray charArray, String warning) throws SecurityException {
+		int length = charArray.length();
+		if (length < this.minLength)
+			throw new SecurityException(warning + "Not long enough!");
+
+		int seen = 0;
+		for (int i = 0; i < length; i++)
+			seen |= classify(charArray.charAt(i));
+
+		int missing = this.required & ~seen;
+		if (missing == 0 && !this.noWhitespace)
+			return;
+
+		if ((missing & CHARACTER) != 0)
+			throw new SecurityException(warning + "No characters used!");
+
+		if ((missing & DIGIT) != 0)
+			throw new SecurityException(warning + "No digit used!");
+
+		if ((missing & LOWER_CASE) != 0)
+			throw new SecurityException(warning + "No lower case used!");
+
+		// an empty password never matched the original [^\s]+ expression
+		if (this.noWhitespace && (length == 0 || (seen & WHITESPACE) != 0))
+			throw new SecurityException(warning + "Whitespace character used!");
+
+		if ((missing & SPECIAL) != 0)
+			throw new SecurityException(warning + "No special character used!");
+
+		if ((missing & UPPER_CASE) != 0)
+			throw new SecurityException(warning + "No upper case used!");
+	}
+}
\ No newline at end of file
@@ -0,0 +1,11 @@
+package org.andy.security;
+
+/*
+ * A PolicyListener is notified whenever a rule of the SecurityPolicy is set, including its
+ * time to live and modification which change when passwords expire. It is called on the
+ * thread that made the change, after the new PolicySnapshot is in place. See
+ * SecurityPolicy.addListener().
+ */
+public interface PolicyListener {
+	void policyChanged(SecurityPolicy policy);
+}
\ No newline at end of file
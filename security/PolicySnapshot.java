@@ -0,0 +1,196 @@
+package org.andy.security;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A PolicySnapshot is an immutable copy of every rule of the SecurityPolicy at one point in
+ * time. SecurityPolicy holds its current snapshot in a volatile field and a change never
+ * modifies it, it builds a new snapshot and swaps it in. A thread which reads the snapshot
+ * once therefore sees a whole policy, either from before a change or after it, never one
+ * half applied by setStrict().
+ *
+ * Each snapshot has an epoch which is one higher than the snapshot it replaced. A Password
+ * records the epoch of the policy its secret was created under, and the snapshot records the
+ * epoch of the last setModified(), so a password is expired by a policy modification when its
+ * epoch is older, see isExpired(). The modification time is kept as well for passwords
+ * restored from persistence, which only have a creation date.
+ */
+public final class PolicySnapshot {
+	private final long epoch;
+	private final long modifiedEpoch;
+	private final long modificationTime;
+	private final String algorithm;
+	private final HashEngine hashEngine;
+	private final PasswordRules rules;
+	private final BannedPasswordFilter bannedPasswords;
+	private final int failureLimit;
+	private final int historyCount;
+	private final int iterations;
+	private final int minLength;
+	private final boolean mustContainCharacter;
+	private final boolean mustContainDigit;
+	private final boolean mustContainLowerCase;
+	private final boolean mustContainNoWhitespace;
+	private final boolean mustContainSpecialCharacter;
+	private final boolean mustContainUpperCase;
+	private final int timeToLive;
+	private final long timeToLiveMillis;
+	private final byte[] dummySecret;
+
+	private PolicySnapshot(Builder builder, long epoch) {
+		this.epoch = epoch;
+		this.modifiedEpoch = builder.modified ? epoch : builder.modifiedEpoch;
+		this.modificationTime = builder.modificationTime;
+		this.algorithm = builder.algorithm;
+		this.hashEngine = builder.hashEngine;
+		this.bannedPasswords = builder.bannedPasswords;
+		this.failureLimit = builder.failureLimit;
+		this.historyCount = builder.historyCount;
+		this.iterations = builder.iterations;
+		this.minLength = builder.minLength;
+		this.mustContainCharacter = builder.mustContainCharacter;
+		this.mustContainDigit = builder.mustContainDigit;
+		this.mustContainLowerCase = builder.mustContainLowerCase;
+		this.mustContainNoWhitespace = builder.mustContainNoWhitespace;
+		this.mustContainSpecialCharacter = builder.mustContainSpecialCharacter;
+		this.mustContainUpperCase = builder.mustContainUpperCase;
+		this.timeToLive = builder.timeToLive;
+		this.timeToLiveMillis = TimeUnit.DAYS.toMillis(builder.timeToLive);
+		this.rules = new PasswordRules(this.minLength, this.mustContainCharacter, this.mustContainDigit,
+			this.mustContainLowerCase, this.mustContainNoWhitespace, this.mustContainSpecialCharacter,
+			this.mustContainUpperCase);
+		this.dummySecret = KeyDerivation.isKeyDerivation(this.algorithm) ?
+			KeyDerivation.dummy(this.algorithm, this.iterations) : null;
+	}
+
+	/* The version of the policy, it increases by one with every change. */
+	public long getEpoch() { return this.epoch; }
+	/* The epoch of the last setModified(), passwords created under an older epoch are expired. */
+	public long getModifiedEpoch() { return this.modifiedEpoch; }
+	/* The time of the last setModified() in milliseconds, 0 if it has not been modified. */
+	public long getModificationTime() { return this.modificationTime; }
+
+	public BannedPasswordFilter getBannedPasswords() { return this.bannedPasswords; }
+	public String getEncryptionAlgorithm() { return this.algorithm; }
+	public int getFailureLimit() { return this.failureLimit; }
+	public int getHistoryCount() { return this.historyCount; }
+	/* The length of the history array of a password, see SecurityPolicy.historyCheck(). */
+	public int getHistoryLength() { return Math.max(this.historyCount - 1, 0); }
+	public int getIterations() { return this.iterations; }
+	public int getMinimumLength() { return this.minLength; }
+	public int getTimeToLive() { return this.timeToLive; }
+	public boolean mustContainCharacter() { return this.mustContainCharacter; }
+	public boolean mustContainDigit() { return this.mustContainDigit; }
+	public boolean mustContainLowerCase() { return this.mustContainLowerCase; }
+	public boolean mustContainNoWhitespace() { return this.mustContainNoWhitespace; }
+	public boolean mustContainSpecialCharacter() { return this.mustContainSpecialCharacter; }
+	public boolean mustContainUpperCase() { return this.mustContainUpperCase; }
+
+	/* A derived secret nothing matches, with the cost of new secrets, or null if keys are not derived. */
+	byte[] getDummySecret() { return this.dummySecret; }
+	HashEngine getHashEngine() { return this.hashEngine; }
+	PasswordRules getRules() { return this.rules; }
+
+	/*
+	 * Returns true if a password created at the time under the epoch has expired at now,
+	 * because it is older than the time to live or older than the last modification. Nothing
+	 * expires when the time to live is 0.
+	 */
+	public boolean isExpired(long passwordEpoch, long creationTime, long now) {
+		return this.timeToLive != 0 &&
+			(passwordEpoch < this.modifiedEpoch || creationTime < now - this.timeToLiveMillis);
+	}
+
+	/*
+	 * Returns the creation time before which passwords have expired at the time, or
+	 * Long.MIN_VALUE if passwords don't expire. This is for passwords known only by their
+	 * creation date, ie. in persistence.
+	 */
+	public long getExpiryCutoff(long time) {
+		if (this.timeToLive == 0)
+			return Long.MIN_VALUE;
+		return Math.max(time - this.timeToLiveMillis, this.modificationTime);
+	}
+
+	/* Returns the time at which a password created at the time reaches the time to live. */
+	public long getExpiryTime(long creationTime) { return creationTime + this.timeToLiveMillis; }
+
+	/* Returns the epoch a password restored with the creation time is treated as created under. */
+	long restoredEpoch(long creationTime) {
+		return creationTime < this.modificationTime ? this.modifiedEpoch - 1 : this.epoch;
+	}
+
+	/*
+	 * Builder collects changes to a snapshot, starting from the values of an existing one, and
+	 * builds the snapshot which replaces it. It is only used by SecurityPolicy while it holds
+	 * its own lock, so a change is always made to the current snapshot.
+	 */
+	static final class Builder {
+		private long modifiedEpoch;
+		private long modificationTime;
+		private boolean modified;
+		private String algorithm;
+		private HashEngine hashEngine;
+		private BannedPasswordFilter bannedPasswords;
+		private int failureLimit;
+		private int historyCount;
+		private int iterations;
+		private int minLength;
+		private boolean mustContainCharacter;
+		private boolean mustContainDigit;
+		private boolean mustContainLowerCase;
+		private boolean mustContainNoWhitespace;
+		private boolean mustContainSpecialCharacter;
+		private boolean mustContainUpperCase;
+		private int timeToLive;
+
+		/* A builder with every rule turned off, for the first snapshot. */
+		Builder(int iterations) { this.iterations = iterations; }
+
+		Builder(PolicySnapshot snapshot) {
+			this.modifiedEpoch = snapshot.modifiedEpoch;
+			this.modificationTime = snapshot.modificationTime;
+			this.algorithm = snapshot.algorithm;
+			this.hashEngine = snapshot.hashEngine;
+			this.bannedPasswords = snapshot.bannedPasswords;
+			this.failureLimit = snapshot.failureLimit;
+			this.historyCount = snapshot.historyCount;
+			this.iterations = snapshot.iterations;
+			this.minLength = snapshot.minLength;
+			this.mustContainCharacter = snapshot.mustContainCharacter;
+			this.mustContainDigit = snapshot.mustContainDigit;
+			this.mustContainLowerCase = snapshot.mustContainLowerCase;
+			this.mustContainNoWhitespace = snapshot.mustContainNoWhitespace;
+			this.mustContainSpecialCharacter = snapshot.mustContainSpecialCharacter;
+			this.mustContainUpperCase = snapshot.mustContainUpperCase;
+			this.timeToLive = snapshot.timeToLive;
+		}
+
+		Builder setEncryptionAlgorithm(String algorithm) throws NoSuchAlgorithmException {
+			// A PBKDF2 algorithm leaves the current HashEngine in place, it is still needed to
+			// verify any secrets which were created before the change.
+			if (KeyDerivation.isKeyDerivation(algorithm))
+				KeyDerivation.verify(algorithm); // throws ex
+			else if (algorithm != null)
+				this.hashEngine = new HashEngine(algorithm); // throws ex
+			this.algorithm = algorithm;
+			return this;
+		}
+		Builder setBannedPasswords(BannedPasswordFilter bannedPasswords) { this.bannedPasswords = bannedPasswords; return this; }
+		Builder setFailureLimit(int failureLimit) { this.failureLimit = failureLimit; return this; }
+		Builder setHistoryCount(int historyCount) { this.historyCount = historyCount; return this; }
+		Builder setIterations(int iterations) { this.iterations = iterations; return this; }
+		Builder setMinimumLength(int minLength) { this.minLength = minLength; return this; }
+		Builder setModified(long time) { this.modified = true; this.modificationTime = time; return this; }
+		Builder setMustContainCharacter(boolean b) { this.mustContainCharacter = b; return this; }
+		Builder setMustContainDigit(boolean b) { this.mustContainDigit = b; return this; }
+		Builder setMustContainLowerCase(boolean b) { this.mustContainLowerCase = b; return this; }
+		Builder setMustContainNoWhitespace(boolean b) { this.mustContainNoWhitespace = b; return this; }
+		Builder setMustContainSpecialCharacter(boolean b) { this.mustContainSpecialCharacter = b; return this; }
+		Builder setMustContainUpperCase(boolean b) { this.mustContainUpperCase = b; return this; }
+		Builder setTimeToLive(int timeToLive) { this.timeToLive = timeToLive; return this; }
+
+		PolicySnapshot build(long epoch) { return new PolicySnapshot(this, epoch); }
+	}
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package org.andy.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/*
+ * Secrets holds the binary representation of secret passwords. Password keeps its secret and
+ * every history entry as a raw byte array, the first byte is a tag describing the form of the
+ * secret and the rest is the secret itself:
+ *
+ * 		PLAIN   - the UTF-8 plain text, only used when encryption is turned off
+ * 		DIGEST  - the message digest, ie. 32 bytes for SHA-256
+ * 		DERIVED - a PBKDF2 secret and its parameters, see KeyDerivation
+ *
+ * A String form is only produced at the persistence boundary, by Password.getSecret() and
+ * Password.getHistory(), and read back by the persistence constructor. Digests are written
+ * as upper case hexadecimal so secrets persisted by earlier versions can still be restored.
+ * Secrets are always compared in constant time.
+ */
+final class Secrets {
+	static final byte PLAIN = 0;
+	static final byte DIGEST = 1;
+	static final byte DERIVED = 2;
+
+	private static final HexFormat HEX = HexFormat.of().withUpperCase();
+
+	private Secrets() {}
+
+	/* Returns the plain text as a PLAIN secret, used when encryption is turned off. */
+	static byte[] plain(Password.CharArray charArray) {
+		byte[] scratch = new byte[charArray.maxEncodedLength()];
+		int length = charArray.encode(scratch);
+
+		byte[] secret = new byte[length + 1];
+		secret[0] = PLAIN;
+		System.arraycopy(scratch, 0, secret, 1, length);
+		Arrays.fill(scratch, (byte)0);
+
+		return secret;
+	}
+
+	/*
+	 * Compares two secrets in constant time. The time taken depends only on the length of
+	 * the secrets, which for a given form is fixed, and not on where they differ.
+	 */
+	static boolean isEqual(byte[] a, byte[] b) {
+		if (a == null || b == null)
+			return false;
+		return MessageDigest.isEqual(a, b);
+	}
+
+	static boolean isDerived(byte[] secret) {
+		return secret != null && secret.length > 0 && secret[0] == DERIVED;
+	}
+
+	static boolean isPlain(byte[] secret) {
+		return secret != null && secret.length > 0 && secret[0] == PLAIN;
+	}
+
+	/* Returns the persisted form of the secret, or null if there is no secret. */
+	static String encode(byte[] secret) {
+		if (secret == null || secret.length == 0)
+			return null;
+
+		switch (secret[0]) {
+			case PLAIN:
+				return new String(secret, 1, secret.length - 1, StandardCharsets.UTF_8);
+			case DERIVED:
+				return KeyDerivation.encode(secret);
+			default:
+				return HEX.formatHex(secret, 1, secret.length);
+		}
+	}
+
+	/*
+	 * Restores a secret from its persisted form. Secrets persisted while encryption was turned
+	 * off are plain text, which can't be told apart from a digest, so the caller says which.
+	 * An IllegalArgumentException is thrown if the secret is malformed.
+	 */
+	static byte[] decode(String secret, boolean isPlainText) {
+		if (secret == null || secret.isEmpty())
+			return null;
+
+		if (isPlainText) {
+			byte[] text = secret.getBytes(StandardCharsets.UTF_8);
+			byte[] plain = new byte[text.length + 1];
+			plain[0] = PLAIN;
+			System.arraycopy(text, 0, plain, 1, text.length);
+			return plain;
+		}
+
+		if (KeyDerivation.isDerived(secret))
+			return KeyDerivation.decode(secret);
+
+		byte[] digest = HEX.parseHex(secret);
+		byte[] tagged = new byte[digest.length + 1];
+		tagged[0] = DIGEST;
+		System.arraycopy(digest, 0, tagged, 1, digest.length);
+		return tagged;
+	}
+}
\ No newline at end of file
@@ -1,11 +1,15 @@
 package org.andy.security;
 
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.regex.Pattern;
-import javax.xml.bind.DatatypeConverter;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.andy.events.PasswordEvent;
+import org.andy.events.PolicyEvent;
+import org.andy.metrics.Counter;
+import org.andy.metrics.Histogram;
+import org.andy.metrics.MetricsRegistry;
 
 /*
  * SecurityPolicy defines the rules for Password creation and once a password is deemed
@@ -30,7 +34,26 @@ import javax.xml.bind.DatatypeConverter;
  * tured back on or modified to create a custom policy. SecurityPolicy has a modification date
  * which is updated if the policy is updated. This will cause all passwords with a creation date 
  * of before this time to become expired. An expired Password will be forced to change its
- * password to the newly updated policy.
+ * password to the newly updated policy. A PolicyListener is told when the time to live or
+ * the modification date changes, ie. to reschedule expiry reminders.
+ *
+ * The encryption algorithm can be any MessageDigest algorithm or one of the JDK PBKDF2 
+ * algorithms ie. PBKDF2WithHmacSHA256. PBKDF2 secrets are salted and iterated, the salt and 
+ * iteration count are stored in the secret so each secret can be verified with the parameters
+ * it was created with. Key derivation is deliberately slow and runs on a dedicated bounded 
+ * pool of hashing threads, see setIterations() and setHashThreads() to tune the cost.
+ *
+ * A BannedPasswordFilter can be set to reject new passwords found in a list of banned or
+ * breached passwords, see setBannedPasswords(). No filter is set by default.
+ *
+ * The rules are held in an immutable PolicySnapshot which every setter replaces with a new
+ * one, under the lock of the policy, and which is read through a single volatile field. A
+ * password is checked against one snapshot from start to finish so it never sees a change
+ * half made, and reading the policy takes no lock. Use getSnapshot() to read several rules
+ * which must agree with each other.
+ *
+ * Encrypting and validating are timed as Flight Recorder PolicyEvents, expiring a password
+ * is recorded as a PasswordEvent, see the org.andy.events package.
  */
 public class SecurityPolicy {
 	private static final String WARNING = "Warning! Password does not meet security requirements: ";
@@ -39,91 +62,222 @@ public class SecurityPolicy {
 	private static final String STRICT_ALGORITHM = "SHA-256";
 	private static final int STRICT_TIME_TO_LIVE = 90;
 	private static final int STRICT_FAILURE_LIMIT = 3;
+	private static final int DEFAULT_ITERATIONS = 310000;
+	private static final int HASH_QUEUE_CAPACITY = 1024;
+	private static final Histogram ENCRYPT_TIME = MetricsRegistry.getInstance().histogram("security.encrypt");
+	private static final Histogram VALIDATE_TIME = MetricsRegistry.getInstance().histogram("security.validate");
+	private static final Histogram EXPIRATION_TIME = MetricsRegistry.getInstance().histogram("security.expirationCheck");
+	private static final Histogram LOGIN_ATTEMPT_TIME = MetricsRegistry.getInstance().histogram("security.loginAttempts");
+	private static final Counter REJECTED = MetricsRegistry.getInstance().counter("security.rejected");
+	private static final Counter EXPIRED = MetricsRegistry.getInstance().counter("security.expired");
+	private static final Counter LOCKED = MetricsRegistry.getInstance().counter("security.locked");
 	
-	private Date modificationDate;
-	private MessageDigest messageDigest;
-	private String algorithm;
-	private int failureLimit;
-	private int historyCount;
-	private int minLength;
-	private boolean mustContainCharacter;
-	private boolean mustContainDigit;
-	private boolean mustContainLowerCase;
-	private boolean mustContainNoWhitespace;
-	private boolean mustContainSpecialCharacter;
-	private boolean mustContainUpperCase;
-	private int timeToLive;
-	
-	/* Set up Singleton creation. Use SecurityPolicy.getInstance() to get instance. */
-	private static SecurityPolicy instance;
-	
-	public static SecurityPolicy getInstance() {
-		if (instance == null)
-			instance = new SecurityPolicy();
-			
-		return instance;
+	private volatile PolicySnapshot snapshot; // replaced, never modified, under the lock of this
+	private volatile HashExecutor hashExecutor;
+	private final List<PolicyListener> listeners = new CopyOnWriteArrayList<PolicyListener>();
+	private int hashThreads = Runtime.getRuntime().availableProcessors();
+	
+	/* 
+	 * Set up Singleton creation. Use SecurityPolicy.getInstance() to get instance. The holder
+	 * class is initialised on the first call, which the JVM makes thread-safe.
+	 */
+	private static final class Holder {
+		static final SecurityPolicy INSTANCE = new SecurityPolicy();
 	}
 	
+	public static SecurityPolicy getInstance() { return Holder.INSTANCE; }
+	
 	private SecurityPolicy() {
-		this.setModified();
+		// not modified, which would expire every password persisted before start up
+		this.snapshot = new PolicySnapshot.Builder(DEFAULT_ITERATIONS).build(0);
 		this.setStrict(true); // by default turn all security rules on
 	}
 	
+	/* Returns the current rules, which don't change once read. */
+	public PolicySnapshot getSnapshot() { return this.snapshot; }
+	
 	/* 
-	 * This encrypts the password using a Message Digest. It returns the digest as
-	 * as hexadecimal String.
+	 * This encrypts the password using a Message Digest. It returns the digest as a
+	 * DIGEST secret (see Secrets). The HashEngine gives each thread its own digest so 
+	 * this method is safe to call from any number of threads concurrently.
+	 */
+	private byte[] computeHash(PolicySnapshot policy, Password.CharArray charArray) {
+		return policy.getHashEngine().digest(charArray);
+	}
+	
+	/*
+	 * This derives a salted secret using the KeyDerivation parameters. The work is handed to
+	 * the hashing executor and the calling thread waits for the result. The executor is only
+	 * created the first time a key is derived.
 	 */
-	private String computeHash(Password.CharArray charArray) {
-		byte[] hash = messageDigest.digest(charArray.getBytes());
-		return DatatypeConverter.printHexBinary(hash);
+	private byte[] deriveKey(final KeyDerivation derivation, final Password.CharArray charArray) {
+		HashExecutor executor = this.hashExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				if (this.hashExecutor == null)
+					this.hashExecutor = new HashExecutor(this.getHashThreads(), HASH_QUEUE_CAPACITY);
+				executor = this.hashExecutor;
+			}
+		}
+		
+		return executor.execute(new Callable<byte[]>() {
+			public byte[] call() { return derivation.derive(charArray.getChars()); }
+		});
+	}
+	
+	/*
+	 * Computes the secret of the plain text in the same form as the secret passed in. A 
+	 * derived secret is recomputed with its own salt and iteration count, a plain text
+	 * secret is compared as plain text, otherwise the message digest is used.
+	 */
+	private byte[] computeSecretLike(PolicySnapshot policy, Password.CharArray charArray, byte[] secret) {
+		if (Secrets.isDerived(secret))
+			return this.deriveKey(KeyDerivation.parse(secret), charArray);
+		else if (Secrets.isPlain(secret))
+			return Secrets.plain(charArray);
+		else
+			return this.computeHash(policy, charArray);
 	}
 	
 	/* 
 	 * A Password will call this method to generate and set its secret password
-	 * based on its CharArray plain text password.
+	 * based on its CharArray plain text password. The password records the epoch of
+	 * the policy it was created under, see expirationCheck().
 	 */
 	public void encrypt(Password password) throws SecurityException {
+		PolicySnapshot policy = this.snapshot; // one policy from start to finish
+		PolicyEvent event = PolicyEvent.start();
+		long start = System.nanoTime();
+		boolean rejected = true;
+		try {
+			this.encrypt(policy, password);
+			rejected = false;
+		}
+		finally {
+			ENCRYPT_TIME.record(System.nanoTime() - start);
+			event.finish(PolicyEvent.ENCRYPT, password.getOwner(), policy.getEncryptionAlgorithm(), rejected);
+		}
+	}
+	private void encrypt(PolicySnapshot policy, Password password) throws SecurityException {
 		Password.CharArray charArray = password.getCharArray();
 		
 		if (password.isNew())
-			this.validate(charArray); // verify plain text password is complient with rules
+			this.validate(policy, password); // verify plain text password is complient with rules
+		
+		// A verification password can't be derived until the salt of the secret it is to be
+		// compared with is known. It keeps its plain text and matches() derives it later.
+		boolean derived = KeyDerivation.isKeyDerivation(policy.getEncryptionAlgorithm());
+		if (derived && !password.isNew()) {
+			password.setSecret(null);
+			return;
+		}
 		
-		String secret;
-		if (getEncryptionAlgorithm() != null)
-			secret = this.computeHash(charArray);	
+		byte[] secret;
+		if (derived)
+			secret = this.deriveKey(KeyDerivation.create(policy.getEncryptionAlgorithm(), policy.getIterations()), charArray);
+		else if (policy.getEncryptionAlgorithm() != null)
+			secret = this.computeHash(policy, charArray);	
 		else
-			secret = charArray.toString(); // secret == password if no policy is in place
+			secret = Secrets.plain(charArray); // secret == password if no policy is in place
 		
-		// verify the secret password has not already been used
+		// verify the secret password has not already been used, the current secret counts
+		// as a used password only when a history is kept
 		if (password.isNew()) {
-			String[] history = password.getHistory();
+			byte[][] history = password.getHistoryBytes();
 			for (int i = 0; i < history.length; i++) {
-				if (secret.equals(history[i]) || secret.equals(password.getSecret()))
-					throw new SecurityException(WARNING + "Password in recently used list!");
-				}
+				if (this.isReused(policy, charArray, secret, history[i]))
+					throw this.reused();
+			}
+			if (history.length > 0 && this.isReused(policy, charArray, secret, password.getSecretBytes()))
+				throw this.reused();
 		}
 		
 		// no exceptions have been thrown and therefore password is valid
 		password.setSecret(secret);
+		password.setPolicyEpoch(policy.getEpoch());
 		password.setExpired(false);
 	}
 	
+	private SecurityException reused() {
+		REJECTED.increment();
+		return new SecurityException(WARNING + "Password in recently used list!");
+	}
+	
+	/*
+	 * Returns true if the new secret is the same password as a previous one. Salted secrets
+	 * never compare equal so if either is derived the plain text is derived again using the
+	 * parameters of the previous secret.
+	 */
+	private boolean isReused(PolicySnapshot policy, Password.CharArray charArray, byte[] secret, byte[] previous) {
+		if (previous == null)
+			return false;
+		if (Secrets.isEqual(secret, previous))
+			return true;
+		if (Secrets.isDerived(previous) || Secrets.isDerived(secret))
+			return Secrets.isEqual(previous, this.computeSecretLike(policy, charArray, previous));
+		return false;
+	}
+	
+	/*
+	 * Password calls this method to compare a candidate password with a secret. If the
+	 * candidate is a verification password still holding its plain text, its secret is
+	 * computed in the same form as the secret being compared to, ie. using the same salt,
+	 * and the plain text is then cleared. Secrets are compared in constant time.
+	 */
+	boolean matches(Password candidate, byte[] secret) {
+		if (secret == null)
+			return false;
+		
+		if (candidate.getSecretBytes() == null) {
+			Password.CharArray charArray = candidate.getCharArray();
+			candidate.setSecret(this.computeSecretLike(this.snapshot, charArray, secret));
+			charArray.clear();
+		}
+		
+		return Secrets.isEqual(secret, candidate.getSecretBytes());
+	}
+	
+	/*
+	 * Password calls this method when a login is refused without a secret to compare the
+	 * candidate with, ie. the user is unknown or locked. A candidate still holding its plain
+	 * text is derived against the dummy secret of the policy, so a refusal takes as long as a
+	 * wrong password and does not reveal which usernames exist. A candidate hashed when it was
+	 * created has already paid the same cost.
+	 */
+	void refuse(Password candidate) {
+		byte[] dummySecret = this.snapshot.getDummySecret();
+		if (candidate.getSecretBytes() == null && dummySecret != null)
+			this.matches(candidate, dummySecret);
+	}
+	
 	/* 
 	 * Password will call this method to verify it has not expired. It will be based
-	 * on its creation date v's the TimeToLive rule and also the policy modification 
-	 * date. If the policy was updated after the password was created it will force 
-	 * the Password to expire and renew itself.
+	 * on its creation date v's the TimeToLive rule and also the policy modification. 
+	 * If the policy was modified after the password was created, ie. the password's
+	 * epoch is older than the modification, it will force the Password to expire and 
+	 * renew itself. See PolicySnapshot.isExpired().
 	 */
 	public void expirationCheck(Password password) {
-		if (this.getTimeToLive() == 0)
-			return;
-		
-		Calendar ttl = Calendar.getInstance();
-		ttl.add(Calendar.DATE, (this.getTimeToLive() * -1)); // subtract TTL days from now
-		
-		if (password.getCreationDate().compareTo(ttl.getTime()) < 0 ||
-			password.getCreationDate().compareTo(this.getModificationDate()) < 0)
+		long start = System.nanoTime();
+		if (this.snapshot.isExpired(password.getPolicyEpoch(), password.getCreationDate().getTime(),
+				System.currentTimeMillis())) {
+			if (!password.isExpired()) {
+				EXPIRED.increment();
+				PasswordEvent.record(PasswordEvent.EXPIRED, password.getOwner(), password.getLoginAttempts());
+			}
 			password.setExpired(true);
+		}
+		EXPIRATION_TIME.record(System.nanoTime() - start);
+	}
+	
+	/*
+	 * Password will call this method before each change to resize its history to the 
+	 * history count. If history is disabled it is set to an empty array. The current 
+	 * password counts as a used password so the history holds historyCount - 1 secrets.
+	 * Returns true if the history was resized.
+	 */
+	public boolean historyCheck(Password password) {
+		return password.resizeHistory(this.snapshot.getHistoryLength());
 	}
 	
 	/*
@@ -134,105 +288,169 @@ public class SecurityPolicy {
 	 * is set to 3.
 	 */
 	public void loginAttemptCheck(Password password) {
-		if (password.getLoginAttempts() == this.getFailureLimit())
-			password.setLocked(true);
-	}
-	
-	public String getEncryptionAlgorithm() { return this.algorithm; }
-	public int getFailureLimit() { return this.failureLimit; }
-	public int getHistoryCount() { return this.historyCount; }
-	public int getMinimumLength() { return this.minLength; }
-	private Date getModificationDate() { return this.modificationDate; }
-	public int getTimeToLive() { return this.timeToLive; }
-	public boolean mustContainCharacter() { return this.mustContainCharacter; }
-	public boolean mustContainDigit() { return this.mustContainDigit; }
-	public boolean mustContainLowerCase() { return this.mustContainLowerCase; }
-	public boolean mustContainNoWhitespace() { return this.mustContainNoWhitespace; }
-	public boolean mustContainSpecialCharacter() { return this.mustContainSpecialCharacter; }
-	public boolean mustContainUpperCase() { return this.mustContainUpperCase; }
-	
-	public void setEncryptionAlgorithm(String algorithm) throws NoSuchAlgorithmException {
-		this.algorithm = algorithm;
-		if (algorithm == null) 
-			return;
-		else this.messageDigest = MessageDigest.getInstance(this.algorithm); // throws ex
-	}
-	public void setFailureLimit(int failureLimit) { this.failureLimit = failureLimit; }
-	public void setHistoryCount(int historyCount) { this.historyCount = historyCount; }
-	public void setMinimumLength(int minLength) { this.minLength = minLength; }
-	public void setModified() { this.modificationDate = new Date(); }
-	public void setMustContainCharacter(boolean b) { this.mustContainCharacter = b; }
-	public void setMustContainDigit(boolean b) { this.mustContainDigit = b; }
-	public void setMustContainLowerCase(boolean b) { this.mustContainLowerCase = b; }
-	public void setMustContainNoWhitespace(boolean b) { this.mustContainNoWhitespace = b; }
-	public void setMustContainSpecialCharacter(boolean b) { this.mustContainSpecialCharacter = b; }
-	public void setMustContainUpperCase(boolean b) { this.mustContainUpperCase = b; }
-	public void setTimeToLive(int timeToLive) { this.timeToLive = timeToLive; }
+		// >= rather than == as concurrent failures may each see a count past the limit
+		long start = System.nanoTime();
+		int failureLimit = this.snapshot.getFailureLimit();
+		if (failureLimit > 0 && password.getLoginAttempts() >= failureLimit && password.setLocked(true))
+			LOCKED.increment();
+		LOGIN_ATTEMPT_TIME.record(System.nanoTime() - start);
+	}
+	
+	public BannedPasswordFilter getBannedPasswords() { return this.snapshot.getBannedPasswords(); }
+	public String getEncryptionAlgorithm() { return this.snapshot.getEncryptionAlgorithm(); }
+	public int getFailureLimit() { return this.snapshot.getFailureLimit(); }
+	public int getHashThreads() { return this.hashThreads; }
+	public int getHistoryCount() { return this.snapshot.getHistoryCount(); }
+	/* The length of the history array of a password, see historyCheck(). */
+	public int getHistoryLength() { return this.snapshot.getHistoryLength(); }
+	public int getIterations() { return this.snapshot.getIterations(); }
+	public int getMinimumLength() { return this.snapshot.getMinimumLength(); }
+	public Date getModificationDate() { return new Date(this.snapshot.getModificationTime()); }
+	public int getTimeToLive() { return this.snapshot.getTimeToLive(); }
+	public boolean mustContainCharacter() { return this.snapshot.mustContainCharacter(); }
+	public boolean mustContainDigit() { return this.snapshot.mustContainDigit(); }
+	public boolean mustContainLowerCase() { return this.snapshot.mustContainLowerCase(); }
+	public boolean mustContainNoWhitespace() { return this.snapshot.mustContainNoWhitespace(); }
+	public boolean mustContainSpecialCharacter() { return this.snapshot.mustContainSpecialCharacter(); }
+	public boolean mustContainUpperCase() { return this.snapshot.mustContainUpperCase(); }
+	
+	public synchronized void setEncryptionAlgorithm(String algorithm) throws NoSuchAlgorithmException {
+		this.publish(this.edit().setEncryptionAlgorithm(algorithm)); // throws ex before publishing
+	}
+	/* Sets the filter of banned passwords checked by validation, or null for none. */
+	public synchronized void setBannedPasswords(BannedPasswordFilter bannedPasswords) { this.publish(this.edit().setBannedPasswords(bannedPasswords)); }
+	public synchronized void setFailureLimit(int failureLimit) { this.publish(this.edit().setFailureLimit(failureLimit)); }
+	
+	/*
+	 * Sets the number of threads dedicated to key derivation. The new executor is published
+	 * before the previous one is retired, so a caller which already holds the previous one
+	 * still has its work done, and any work queued on it is allowed to finish.
+	 */
+	public synchronized void setHashThreads(int hashThreads) {
+		if (hashThreads < 1)
+			throw new IllegalArgumentException("hashThreads must be at least 1");
+		
+		this.hashThreads = hashThreads;
+		HashExecutor previous = this.hashExecutor;
+		if (previous != null) {
+			this.hashExecutor = new HashExecutor(hashThreads, HASH_QUEUE_CAPACITY);
+			previous.retire();
+		}
+	}
+	public synchronized void setHistoryCount(int historyCount) { this.publish(this.edit().setHistoryCount(historyCount)); }
+	/* The iteration count used for new PBKDF2 secrets, existing secrets keep their own. */
+	public synchronized void setIterations(int iterations) { this.publish(this.edit().setIterations(iterations)); }
+	public synchronized void setMinimumLength(int minLength) { this.publish(this.edit().setMinimumLength(minLength)); }
+	public synchronized void setModified() { this.publish(this.edit().setModified(System.currentTimeMillis())); }
+	public synchronized void setMustContainCharacter(boolean b) { this.publish(this.edit().setMustContainCharacter(b)); }
+	public synchronized void setMustContainDigit(boolean b) { this.publish(this.edit().setMustContainDigit(b)); }
+	public synchronized void setMustContainLowerCase(boolean b) { this.publish(this.edit().setMustContainLowerCase(b)); }
+	public synchronized void setMustContainNoWhitespace(boolean b) { this.publish(this.edit().setMustContainNoWhitespace(b)); }
+	public synchronized void setMustContainSpecialCharacter(boolean b) { this.publish(this.edit().setMustContainSpecialCharacter(b)); }
+	public synchronized void setMustContainUpperCase(boolean b) { this.publish(this.edit().setMustContainUpperCase(b)); }
+	public synchronized void setTimeToLive(int timeToLive) { this.publish(this.edit().setTimeToLive(timeToLive)); }
+	
+	/*
+	 * Sets the time to live and history count, and the modification date if modified is true,
+	 * in one snapshot so no reader sees them half changed, see PolicyReview.apply(). Returns
+	 * the snapshot published.
+	 */
+	public synchronized PolicySnapshot setExpiryRules(int timeToLive, int historyCount, boolean modified) {
+		PolicySnapshot.Builder builder = this.edit().setTimeToLive(timeToLive).setHistoryCount(historyCount);
+		if (modified)
+			builder.setModified(System.currentTimeMillis());
+		this.publish(builder);
+		return this.snapshot;
+	}
+	
+	/* Adds a listener to be told of every change to the policy. */
+	public void addListener(PolicyListener listener) { this.listeners.add(listener); }
+	public void removeListener(PolicyListener listener) { this.listeners.remove(listener); }
+	
+	/* Starts a change to the current snapshot, the caller holds the lock of this. */
+	private PolicySnapshot.Builder edit() { return new PolicySnapshot.Builder(this.snapshot); }
+	
+	/* Replaces the current snapshot with the next epoch and tells the listeners. */
+	private void publish(PolicySnapshot.Builder builder) {
+		this.snapshot = builder.build(this.snapshot.getEpoch() + 1);
+		for (PolicyListener listener : this.listeners)
+			listener.policyChanged(this);
+	}
 	
 	/*
 	 * This is a convenience method which sets all rules to a default value if set to true and
-	 * will essentially disable the SecurityPolicy if set to false.
+	 * will essentially disable the SecurityPolicy if set to false. Every rule is changed in
+	 * one snapshot.
 	 */
-	public void setStrict(boolean strict) {
+	public synchronized void setStrict(boolean strict) {
+		PolicySnapshot.Builder builder = this.edit();
 		if (strict) {
 			try {
-				this.setEncryptionAlgorithm(STRICT_ALGORITHM); // default will not throw ex
+				builder.setEncryptionAlgorithm(STRICT_ALGORITHM); // default will not throw ex
 			}
 			catch (NoSuchAlgorithmException ex) { ex.printStackTrace(); }
-			this.setFailureLimit(STRICT_FAILURE_LIMIT);
-			this.setHistoryCount(STRICT_HISTORY_COUNT);
-			this.setMinimumLength(STRICT_MIN_LENGTH);
-			this.setMustContainCharacter(true);
-			this.setMustContainDigit(true);
-			this.setMustContainLowerCase(true);
-			this.setMustContainNoWhitespace(true);
-			this.setMustContainSpecialCharacter(true);
-			this.setMustContainUpperCase(true);
-			this.setTimeToLive(STRICT_TIME_TO_LIVE);
+			builder.setFailureLimit(STRICT_FAILURE_LIMIT)
+				.setHistoryCount(STRICT_HISTORY_COUNT)
+				.setMinimumLength(STRICT_MIN_LENGTH)
+				.setMustContainCharacter(true)
+				.setMustContainDigit(true)
+				.setMustContainLowerCase(true)
+				.setMustContainNoWhitespace(true)
+				.setMustContainSpecialCharacter(true)
+				.setMustContainUpperCase(true)
+				.setTimeToLive(STRICT_TIME_TO_LIVE);
 		}
 		else {
 			try {
-				this.setEncryptionAlgorithm(null); // throws ex but discard it as strict=off is in place
+				builder.setEncryptionAlgorithm(null); // throws ex but discard it as strict=off is in place
 			}
 			catch (NoSuchAlgorithmException ex) {}
-			this.setFailureLimit(0);
-			this.setHistoryCount(0);
-			this.setMinimumLength(0);
-			this.setMustContainCharacter(false);
-			this.setMustContainDigit(false);
-			this.setMustContainLowerCase(false);
-			this.setMustContainNoWhitespace(false);
-			this.setMustContainSpecialCharacter(false);
-			this.setMustContainUpperCase(false);
-			this.setTimeToLive(0); // a value of 0 means password will never expire
+			builder.setFailureLimit(0)
+				.setHistoryCount(0)
+				.setMinimumLength(0)
+				.setMustContainCharacter(false)
+				.setMustContainDigit(false)
+				.setMustContainLowerCase(false)
+				.setMustContainNoWhitespace(false)
+				.setMustContainSpecialCharacter(false)
+				.setMustContainUpperCase(false)
+				.setTimeToLive(0); // a value of 0 means password will never expire
 		}
+		this.publish(builder);
 	}
 	
 	/*
-	 * This method validates the plain text password against the defined rules. It uses
-	 * regular expressions to test the rules, and this is why a CharSequence object is 
-	 * required. A SecurityException is thrown on the first conflict encountered.
+	 * This method validates the plain text password against the defined rules. The rules are
+	 * precompiled into the snapshot and checked in a single scan over the CharArray. A 
+	 * password which meets the rules is then looked up in the banned passwords, if there are
+	 * any. A SecurityException is thrown on the first conflict encountered.
 	 */
-	private void validate(Password.CharArray charArray) throws SecurityException {
-		if (charArray.length() < this.getMinimumLength())
-			throw new SecurityException(WARNING + "Not long enough!");
-		
-		if (mustContainCharacter() && Pattern.matches(".*[a-zA-Z]+.*", charArray) == false)
-			throw new SecurityException(WARNING + "No characters used!");
-		
-		if (mustContainDigit() && Pattern.matches(".*[\\d]+.*", charArray) == false)
-			throw new SecurityException(WARNING + "No digit used!");
-		
-		if (mustContainLowerCase() && Pattern.matches(".*[a-z]+.*", charArray) == false)
-			throw new SecurityException(WARNING + "No lower case used!");
-		
-		if (mustContainNoWhitespace() && Pattern.matches("[^\\s]+", charArray) == false)
-			throw new SecurityException(WARNING + "Whitespace character used!");
-		
-		if (mustContainSpecialCharacter() && Pattern.matches(".*[^a-zA-Z0-9]+.*", charArray) == false)
-			throw new SecurityException(WARNING + "No special character used!");
-		
-		if (mustContainUpperCase() && Pattern.matches(".*[A-Z]+.*", charArray) == false)
-			throw new SecurityException(WARNING + "No upper case used!");
+	private void validate(PolicySnapshot policy, Password password) throws SecurityException {
+		PolicyEvent event = PolicyEvent.start();
+		boolean rejected = true;
+		try {
+			this.validate(policy, password.getCharArray());
+			rejected = false;
+		}
+		finally {
+			event.finish(PolicyEvent.VALIDATE, password.getOwner(), policy.getEncryptionAlgorithm(), rejected);
+		}
+	}
+	void validate(PolicySnapshot policy, Password.CharArray charArray) throws SecurityException {
+		long start = System.nanoTime();
+		try {
+			policy.getRules().validate(charArray, WARNING);
+			
+			BannedPasswordFilter bannedPasswords = policy.getBannedPasswords();
+			if (bannedPasswords != null && bannedPasswords.mightContain(charArray))
+				throw new SecurityException(WARNING + "Password is too common!");
+		}
+		catch (SecurityException ex) {
+			REJECTED.increment();
+			throw ex;
+		}
+		finally {
+			VALIDATE_TIME.record(System.nanoTime() - start);
+		}
 	}
 }
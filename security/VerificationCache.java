@@ -0,0 +1,160 @@
+package org.andy.security;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * VerificationCache remembers recent successful logins so that a client logging in with the
+ * same credentials again does not pay for another key derivation. An entry is the username and
+ * an HMAC of the password, using a random key which never leaves the cache, so the cache holds
+ * nothing that can be turned back into a password or attacked offline at the cost of a hash.
+ *
+ * A cached login only counts while the entry is younger than the time to live, the stored
+ * secret is the one it was verified against, the password is not locked and the SecurityPolicy
+ * has not been modified since. Otherwise the password is verified as usual, see verify(). 
+ * invalidate() should be called when a user is changed or removed, which UserStore does, but 
+ * the checks above mean a change to the Password is never missed. The cache is bounded, when
+ * it is full the least recently used entry is dropped. The entries are held in an access
+ * ordered LinkedHashMap under its own lock, which is only held to look up, add or remove a
+ * single entry, so dropping one costs the same however large the cache is.
+ *
+ * Only verification passwords which still hold their plain text can be cached, that is when
+ * the policy uses key derivation. A message digest is computed by new Password(char[]) and is
+ * cheap enough not to need caching.
+ */
+public final class VerificationCache {
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	/* A successful verification. */
+	private static final class Entry {
+		final byte[] mac;
+		final byte[] secret; // compared by identity, change() always sets a new secret
+		final long policyModified; // PolicySnapshot.getModifiedEpoch()
+		final long expires; // System.nanoTime()
+
+		Entry(byte[] mac, byte[] secret, long policyModified, long expires) {
+			this.mac = mac;
+			this.secret = secret;
+			this.policyModified = policyModified;
+			this.expires = expires;
+		}
+	}
+
+	private final LinkedHashMap<String, Entry> entries; // guarded by itself
+	private final ThreadLocal<Mac> macs;
+	private final int capacity;
+	private final long timeToLive; // nanoseconds
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public VerificationCache(int capacity, long timeToLive, TimeUnit unit) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		this.capacity = capacity;
+		this.timeToLive = unit.toNanos(timeToLive);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return this.size() > VerificationCache.this.capacity;
+			}
+		};
+
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		final SecretKeySpec spec = new SecretKeySpec(key, MAC_ALGORITHM);
+		Arrays.fill(key, (byte)0);
+		this.macs = new ThreadLocal<Mac>() {
+			protected Mac initialValue() {
+				try {
+					Mac mac = Mac.getInstance(MAC_ALGORITHM);
+					mac.init(spec);
+					return mac;
+				}
+				catch (GeneralSecurityException ex) { // HmacSHA256 is required of every JDK
+					throw new IllegalStateException(ex);
+				}
+			}
+		};
+	}
+
+	/*
+	 * Verifies the candidate against the stored password of the user, the same as
+	 * stored.equals(candidate), unless the same password was verified for the user recently
+	 * in which case the candidate's plain text is cleared and the login counts as a success
+	 * without deriving its key.
+	 */
+	public boolean verify(String username, Password stored, Password candidate) {
+		Password.CharArray charArray = candidate.getCharArray();
+		if (candidate.getSecretBytes() != null || charArray == null)
+			return stored.equals(candidate); // already hashed, nothing to save
+
+		byte[] mac = this.mac(charArray);
+		byte[] secret = stored.getSecretBytes();
+		long policyModified = Password.getSecurityPolicy().getSnapshot().getModifiedEpoch();
+
+		Entry entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(username);
+		}
+		if (entry != null && entry.secret == secret && secret != null && !stored.isLocked() &&
+				entry.policyModified == policyModified && System.nanoTime() - entry.expires < 0 &&
+				MessageDigest.isEqual(entry.mac, mac)) {
+			charArray.clear();
+			this.hits.increment();
+			return stored.checkAttempt(true);
+		}
+
+		this.misses.increment();
+		boolean isMatch = stored.equals(candidate);
+		if (isMatch) 
+			this.put(username, new Entry(mac, secret, policyModified, System.nanoTime() + this.timeToLive));
+		return isMatch;
+	}
+
+	private byte[] mac(Password.CharArray charArray) {
+		byte[] scratch = new byte[charArray.maxEncodedLength()];
+		try {
+			Mac mac = this.macs.get();
+			mac.update(scratch, 0, charArray.encode(scratch));
+			return mac.doFinal();
+		}
+		finally {
+			Arrays.fill(scratch, (byte)0);
+		}
+	}
+
+	private void put(String username, Entry entry) {
+		synchronized (this.entries) {
+			this.entries.put(username, entry); // drops the least recently used if full
+		}
+	}
+
+	/* Forgets the user's cached login, to be called when the user is changed or removed. */
+	public void invalidate(String username) {
+		synchronized (this.entries) {
+			this.entries.remove(username);
+		}
+	}
+
+	public void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	/* Counters, logins verified from the cache and logins which were not. */
+	public long getHits() { return this.hits.sum(); }
+	public long getMisses() { return this.misses.sum(); }
+	public int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+}
\ No newline at end of file
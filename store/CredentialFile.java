@@ -0,0 +1,261 @@
+package org.andy.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Predicate;
+import org.andy.user.User;
+
+/*
+ * A CredentialFile is a compact, read only file of User and Password state which is accessed
+ * through a memory mapped FileChannel. Opening a file only maps it, nothing is read up front,
+ * so start up takes the same time whatever the number of users. A User is decoded the first
+ * time it is looked up by read(), UserStore does this on demand when given a CredentialFile.
+ *
+ * The file is made up of a header, a hash table and the records:
+ *
+ * 		header  - magic, version, record count, table size, record width, history slots, sequence
+ * 		table   - open addressing hash table of record numbers keyed by username
+ * 		records - fixed width records, see below
+ *
+ * Each record is a UserRecord. Every record in a file has the same number of history slots,
+ * the most used by any password in the file.
+ * Records are mapped in segments so a file may be larger than a single mapping allows.
+ *
+ * A CredentialFile is created with write(), which writes a temporary file and moves it into
+ * place so a reader never sees a partially written file.
+ */
+public final class CredentialFile implements Closeable {
+	private static final int MAGIC = 0x55414346; // UACF
+	private static final int VERSION = 1;
+	private static final int HEADER_WIDTH = 64;
+	private static final int SEGMENT_SIZE = 1 << 30;
+
+	private final FileChannel channel;
+	private final ByteBuffer table;
+	private final ByteBuffer[] segments;
+	private final int recordCount;
+	private final int tableMask;
+	private final int recordWidth;
+	private final int recordsPerSegment;
+	private final int historySlots;
+	private final long sequence;
+
+	private CredentialFile(FileChannel channel) throws IOException {
+		this.channel = channel;
+
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_WIDTH);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+			throw new IOException("Not a credential file");
+
+		this.recordCount = header.getInt(8);
+		int tableSize = header.getInt(12);
+		this.tableMask = tableSize - 1;
+		this.recordWidth = header.getInt(16);
+		this.historySlots = header.getInt(20);
+		this.sequence = header.getLong(24);
+		this.recordsPerSegment = SEGMENT_SIZE / this.recordWidth;
+
+		this.table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_WIDTH, (long)tableSize * 4);
+
+		long start = recordStart(tableSize);
+		int segmentCount = (this.recordCount + this.recordsPerSegment - 1) / this.recordsPerSegment;
+		this.segments = new ByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			int records = Math.min(this.recordsPerSegment, this.recordCount - i * this.recordsPerSegment);
+			this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+				start + (long)i * this.recordsPerSegment * this.recordWidth, (long)records * this.recordWidth);
+		}
+	}
+
+	/* Opens and maps an existing credential file. */
+	public static CredentialFile open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new CredentialFile(channel);
+		}
+		catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/* Returns the number of users in the file. */
+	public int size() { return this.recordCount; }
+	
+	/* Returns the MutationLog sequence number this file is a snapshot of, 0 if it is not one. */
+	public long getSequence() { return this.sequence; }
+
+	/* Decodes and returns the user with the specified username, or null if there is none. */
+	public User read(String username) {
+		byte[] key = username.getBytes(StandardCharsets.UTF_8);
+		if (key.length > UserRecord.USERNAME_WIDTH)
+			return null;
+
+		for (int slot = hash(key) & this.tableMask; ; slot = (slot + 1) & this.tableMask) {
+			int entry = this.table.getInt(slot * 4);
+			if (entry == 0)
+				return null;
+			if (this.matches(entry - 1, key))
+				return this.read(entry - 1);
+		}
+	}
+
+	/* Decodes and returns the user held in the specified record. */
+	public User read(int index) {
+		ByteBuffer segment = this.segments[index / this.recordsPerSegment];
+		return UserRecord.read(segment, (index % this.recordsPerSegment) * this.recordWidth);
+	}
+
+	/* Decodes only the username of the specified record. */
+	public String username(int index) {
+		ByteBuffer segment = this.segments[index / this.recordsPerSegment];
+		return UserRecord.readUsername(segment, (index % this.recordsPerSegment) * this.recordWidth);
+	}
+
+	/* Reads only the password creation date of the specified record, in milliseconds. */
+	long creationTime(int index) {
+		ByteBuffer segment = this.segments[index / this.recordsPerSegment];
+		return UserRecord.readCreationTime(segment, (index % this.recordsPerSegment) * this.recordWidth);
+	}
+
+	/* Reads only the password history length of the specified record. */
+	int historyLength(int index) {
+		ByteBuffer segment = this.segments[index / this.recordsPerSegment];
+		return UserRecord.readHistoryLength(segment, (index % this.recordsPerSegment) * this.recordWidth);
+	}
+
+	/* Compares the username of a record with the key without decoding the record. */
+	private boolean matches(int index, byte[] key) {
+		ByteBuffer segment = this.segments[index / this.recordsPerSegment];
+		return UserRecord.matches(segment, (index % this.recordsPerSegment) * this.recordWidth, key);
+	}
+
+	public void close() throws IOException { this.channel.close(); }
+
+	/*
+	 * Writes the users to a new credential file at path, replacing any existing file. The
+	 * users are written to a temporary file first which is then moved into place. The
+	 * collection may be modified concurrently, the users present when it is copied are written.
+	 */
+	public static void write(Path path, Collection<User> users) throws IOException {
+		write(path, users, null, null, 0);
+	}
+	
+	/*
+	 * Writes a snapshot of the users and the records of a base file to a new credential file.
+	 * Records of the base file whose username is matched by shadowed, because the user is in
+	 * the collection or has been removed, are skipped. The remaining records are copied as
+	 * they are without being decoded. The sequence is the MutationLog sequence number the 
+	 * snapshot is consistent with, see getSequence().
+	 */
+	public static void write(Path path, Collection<User> collection, CredentialFile base,
+			Predicate<String> shadowed, long sequence) throws IOException {
+		User[] users = collection.toArray(new User[0]);
+		
+		int historySlots = base == null ? 0 : base.historySlots;
+		for (User user : users)
+			historySlots = Math.max(historySlots, UserRecord.historySlots(user));
+		
+		int baseCount = 0;
+		for (int i = 0; base != null && i < base.recordCount; i++) {
+			if (!shadowed.test(base.username(i)))
+				baseCount++;
+		}
+
+		int recordCount = users.length + baseCount;
+		int tableSize = Integer.highestOneBit(Math.max(recordCount, 1) * 2 - 1) << 1; // load <= 0.5
+		int recordWidth = UserRecord.width(historySlots);
+		int recordsPerSegment = SEGMENT_SIZE / recordWidth;
+		long start = recordStart(tableSize);
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_WIDTH);
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, recordCount);
+			header.putInt(12, tableSize);
+			header.putInt(16, recordWidth);
+			header.putInt(20, historySlots);
+			header.putLong(24, sequence);
+
+			MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_WIDTH, (long)tableSize * 4);
+			int tableMask = tableSize - 1;
+
+			MappedByteBuffer segment = null;
+			int baseIndex = 0;
+			for (int index = 0; index < recordCount; index++) {
+				if (index % recordsPerSegment == 0) {
+					if (segment != null)
+						segment.force();
+					int records = Math.min(recordsPerSegment, recordCount - index);
+					segment = channel.map(FileChannel.MapMode.READ_WRITE,
+						start + (long)index * recordWidth, (long)records * recordWidth);
+				}
+				int offset = (index % recordsPerSegment) * recordWidth;
+
+				byte[] key;
+				if (index < users.length) {
+					key = UserRecord.write(users[index], segment, offset, historySlots);
+				}
+				else {
+					while (shadowed.test(base.username(baseIndex)))
+						baseIndex++;
+					key = base.copy(baseIndex++, segment, offset);
+				}
+
+				int slot = hash(key) & tableMask;
+				while (table.getInt(slot * 4) != 0)
+					slot = (slot + 1) & tableMask;
+				table.putInt(slot * 4, index + 1); // 0 marks an empty slot
+			}
+
+			if (segment != null)
+				segment.force();
+			header.force();
+			table.force();
+			channel.force(true);
+		}
+
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/*
+	 * Copies the raw record into the buffer and returns its UTF-8 username. The destination
+	 * may have more history slots than this file, the extra slots are left empty.
+	 */
+	private byte[] copy(int index, ByteBuffer buffer, int offset) {
+		ByteBuffer segment = this.segments[index / this.recordsPerSegment];
+		int source = (index % this.recordsPerSegment) * this.recordWidth;
+		buffer.put(offset, segment, source, this.recordWidth);
+		
+		byte[] key = new byte[segment.getShort(source)];
+		segment.get(source + 2, key);
+		return key;
+	}
+
+	/* Records start after the table, aligned to 8 bytes. */
+	private static long recordStart(int tableSize) {
+		return (HEADER_WIDTH + (long)tableSize * 4 + 7) & ~7L;
+	}
+
+	/* FNV-1a hash of the UTF-8 username. */
+	private static int hash(byte[] key) {
+		int hash = 0x811C9DC5;
+		for (int i = 0; i < key.length; i++) {
+			hash ^= key[i] & 0xFF;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+}
\ No newline at end of file
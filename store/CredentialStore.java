@@ -0,0 +1,361 @@
+package org.andy.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.andy.user.User;
+
+/*
+ * CredentialStore keeps a UserStore durable in a directory of snapshots and log segments:
+ *
+ * 		snapshot-<sequence>.dat - a CredentialFile of every user as of a MutationLog sequence number
+ * 		log-<n>.log             - the MutationLog segments written since, in order of n
+ *
+ * snapshot() rotates the log to a new segment and writes every user to a new snapshot while the
+ * store carries on serving logins. Users who have not been decoded since the last snapshot are
+ * copied from it record by record, the rest are encoded from memory. Nothing is locked, so a
+ * user changed while the snapshot is written may be written half changed, but the change is
+ * logged after the rotation and so is replayed over the snapshot by recovery. Once the snapshot
+ * is in place the older snapshots and segments are deleted, which keeps the log to the changes
+ * made since the last snapshot.
+ *
+ * open() recovers the store by mapping the newest snapshot, which takes constant time, and
+ * replaying the entries of the log after its sequence number. One thread reads the segments
+ * and hands batches of entries to the recovery threads, each entry to the thread chosen by its
+ * username, so entries for the same user are applied in order while different users are
+ * decoded and applied in parallel. A log shorter than PARALLEL_REPLAY bytes is replayed by the
+ * reading thread alone, as is any log when there is only one processor, where several threads
+ * were measured to be slower than one.
+ */
+public final class CredentialStore implements Closeable {
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".dat";
+	private static final String LOG_PREFIX = "log-";
+	private static final String LOG_SUFFIX = ".log";
+	private static final long PARALLEL_REPLAY = 4L << 20; // bytes, about 10,000 entries
+	private static final int RECOVERY_QUEUE_CAPACITY = 64; // batches
+	private static final int RECOVERY_BATCH = 256; // entries
+	private static final List<ByteBuffer> END = new ArrayList<ByteBuffer>(0); // ends a recovery thread
+
+	private final Path directory;
+	private final UserStore store;
+	private final MutationLog log;
+	private final Path base; // the snapshot the store reads from, kept while it is open
+	private long snapshotSequence; // guarded by this
+	private long segment; // guarded by this
+	private ScheduledExecutorService scheduler; // guarded by this
+	private IOException failure; // guarded by this, why the last scheduled snapshot failed
+
+	private CredentialStore(Path directory, UserStore store, MutationLog log, Path base,
+			long snapshotSequence, long segment) {
+		this.directory = directory;
+		this.store = store;
+		this.log = log;
+		this.base = base;
+		this.snapshotSequence = snapshotSequence;
+		this.segment = segment;
+		this.store.addListener(log);
+	}
+
+	/*
+	 * Opens the store in directory, creating it if it doesn't exist, and recovers its users
+	 * using up to the specified number of threads, see replayThreads(). maxDelay is passed on
+	 * to the MutationLog.
+	 */
+	public static CredentialStore open(Path directory, long maxDelay, TimeUnit unit,
+			int recoveryThreads) throws IOException {
+		Files.createDirectories(directory);
+		TreeMap<Long, Path> snapshots = list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		TreeMap<Long, Path> segments = list(directory, LOG_PREFIX, LOG_SUFFIX);
+
+		Path base = null;
+		long sequence = 0;
+		UserStore store;
+		if (snapshots.isEmpty()) {
+			store = new UserStore();
+		}
+		else {
+			base = snapshots.lastEntry().getValue();
+			CredentialFile file = CredentialFile.open(base);
+			sequence = file.getSequence();
+			store = new UserStore(file);
+		}
+
+		long snapshotSequence = sequence;
+		List<Path> tail = new ArrayList<Path>(segments.values());
+		sequence = replay(tail, store, sequence, replayThreads(tail, recoveryThreads));
+
+		// carry on appending to the last segment, open() truncates an incomplete entry
+		long segment = segments.isEmpty() ? 1 : segments.lastKey();
+		MutationLog log = MutationLog.open(segmentPath(directory, segment), sequence, maxDelay, unit);
+		return new CredentialStore(directory, store, log, base, snapshotSequence, segment);
+	}
+
+	/* Returns the recovered store, changes to its users are logged. */
+	public UserStore getUserStore() { return this.store; }
+
+	/*
+	 * Writes a snapshot of the store and deletes the snapshots and log segments it replaces.
+	 * Returns the sequence number of the snapshot.
+	 */
+	public synchronized long snapshot() throws IOException {
+		long sequence = this.log.rotate(segmentPath(this.directory, this.segment + 1));
+		this.segment++;
+
+		if (sequence != this.snapshotSequence) {
+			User[] users = this.store.loaded().toArray(new User[0]);
+			final Set<String> written = new HashSet<String>();
+			for (User user : users)
+				written.add(user.getUsername());
+
+			// a user decoded after the copy above is still unchanged in the base file
+			CredentialFile.write(snapshotPath(this.directory, sequence), Arrays.asList(users),
+				this.store.getFile(), new Predicate<String>() {
+					public boolean test(String username) {
+						return written.contains(username) || CredentialStore.this.store.isRemoved(username);
+					}
+				}, sequence);
+			this.snapshotSequence = sequence;
+		}
+
+		this.compact();
+		return sequence;
+	}
+
+	/* Deletes the segments before the current one and the snapshots before the last. */
+	private void compact() throws IOException {
+		for (Path path : list(this.directory, LOG_PREFIX, LOG_SUFFIX).headMap(this.segment).values())
+			Files.deleteIfExists(path);
+
+		Path current = snapshotPath(this.directory, this.snapshotSequence);
+		for (Path path : list(this.directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).values()) {
+			// the base snapshot is still mapped, it is deleted when the store is next opened
+			if (!path.equals(current) && !path.equals(this.base))
+				Files.deleteIfExists(path);
+		}
+	}
+
+	/*
+	 * Takes a snapshot every period on a background thread until the store is closed. A
+	 * snapshot which fails is kept and the next one tries again, close() throws the failure
+	 * unless a later snapshot succeeded.
+	 */
+	public synchronized void scheduleSnapshots(long period, TimeUnit unit) {
+		if (this.scheduler != null)
+			this.scheduler.shutdown();
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "credential-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				IOException failure = null;
+				try {
+					CredentialStore.this.snapshot();
+				}
+				catch (IOException ex) {
+					failure = ex;
+				}
+				catch (RuntimeException ex) {
+					failure = new IOException("Snapshot failed", ex);
+				}
+				synchronized (CredentialStore.this) {
+					CredentialStore.this.failure = failure;
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/* Stops scheduled snapshots and closes the log, then throws the last snapshot's failure if any. */
+	public void close() throws IOException {
+		ScheduledExecutorService scheduler;
+		synchronized (this) {
+			scheduler = this.scheduler;
+		}
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); // a snapshot in progress
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		this.store.removeListener(this.log);
+		this.log.close();
+		if (this.store.getFile() != null)
+			this.store.getFile().close();
+
+		IOException failure;
+		synchronized (this) {
+			failure = this.failure;
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/*
+	 * Returns the number of threads to replay the segments with, no more than requested or
+	 * than there are processors. A log shorter than PARALLEL_REPLAY is replayed by one thread,
+	 * starting and feeding more costs as much as they save.
+	 */
+	private static int replayThreads(List<Path> segments, int threads) throws IOException {
+		long size = 0;
+		for (Path segment : segments)
+			size += Files.size(segment);
+		if (size < PARALLEL_REPLAY)
+			return 1;
+		return Math.min(threads, Runtime.getRuntime().availableProcessors());
+	}
+
+	/*
+	 * Applies the entries of the segments after the sequence number to the store and returns
+	 * the sequence number of the last entry, or the sequence number given if there are none.
+	 */
+	private static long replay(List<Path> segments, final UserStore store, final long sequence,
+			int threads) throws IOException {
+		final long[] last = { sequence };
+		if (threads <= 1) {
+			for (Path segment : segments) {
+				MutationLog.read(segment, new Consumer<ByteBuffer>() {
+					public void accept(ByteBuffer entry) {
+						if (MutationLog.sequence(entry) > sequence) {
+							MutationLog.apply(entry, store);
+							last[0] = MutationLog.sequence(entry);
+						}
+					}
+				});
+			}
+			return last[0];
+		}
+
+		final List<BlockingQueue<List<ByteBuffer>>> queues = new ArrayList<BlockingQueue<List<ByteBuffer>>>();
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final BlockingQueue<List<ByteBuffer>> queue = new ArrayBlockingQueue<List<ByteBuffer>>(RECOVERY_QUEUE_CAPACITY);
+			queues.add(queue);
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						List<ByteBuffer> batch;
+						while ((batch = queue.take()) != END) {
+							if (failure.get() != null)
+								continue; // keep taking so the reader is not blocked
+							try {
+								for (ByteBuffer entry : batch)
+									MutationLog.apply(entry, store);
+							}
+							catch (RuntimeException ex) {
+								failure.compareAndSet(null, ex);
+							}
+						}
+					}
+					catch (InterruptedException ex) {
+						failure.compareAndSet(null, new IllegalStateException("Recovery interrupted"));
+					}
+				}
+			}, "credential-recovery-" + (i + 1));
+			workers[i].start();
+		}
+
+		// entries are handed over a batch at a time, a queue operation per entry cost more
+		// than decoding it
+		final List<List<ByteBuffer>> batches = new ArrayList<List<ByteBuffer>>();
+		for (int i = 0; i < threads; i++)
+			batches.add(new ArrayList<ByteBuffer>(RECOVERY_BATCH));
+		try {
+			for (Path segment : segments) {
+				MutationLog.read(segment, new Consumer<ByteBuffer>() {
+					public void accept(ByteBuffer entry) {
+						if (MutationLog.sequence(entry) <= sequence)
+							return;
+						last[0] = MutationLog.sequence(entry);
+						int partition = (MutationLog.usernameHash(entry) & 0x7FFFFFFF) % queues.size();
+						List<ByteBuffer> batch = batches.get(partition);
+						batch.add(entry);
+						if (batch.size() == RECOVERY_BATCH) {
+							put(queues.get(partition), batch);
+							batches.set(partition, new ArrayList<ByteBuffer>(RECOVERY_BATCH));
+						}
+					}
+				});
+			}
+			for (int i = 0; i < threads; i++) {
+				if (!batches.get(i).isEmpty())
+					put(queues.get(i), batches.get(i));
+			}
+		}
+		finally {
+			for (BlockingQueue<List<ByteBuffer>> queue : queues)
+				put(queue, END);
+			for (Thread worker : workers) {
+				try {
+					worker.join();
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		if (failure.get() != null)
+			throw new IOException("Recovery failed", failure.get());
+		return last[0];
+	}
+
+	private static void put(BlockingQueue<List<ByteBuffer>> queue, List<ByteBuffer> batch) {
+		try {
+			queue.put(batch);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Recovery interrupted");
+		}
+	}
+
+	/* Returns the files in directory named prefix<number>suffix sorted by number. */
+	private static TreeMap<Long, Path> list(Path directory, String prefix, String suffix) throws IOException {
+		TreeMap<Long, Path> files = new TreeMap<Long, Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), path);
+				}
+				catch (NumberFormatException ex) {} // not one of ours
+			}
+		}
+		return files;
+	}
+
+	private static Path snapshotPath(Path directory, long sequence) {
+		return directory.resolve(SNAPSHOT_PREFIX + sequence + SNAPSHOT_SUFFIX);
+	}
+
+	private static Path segmentPath(Path directory, long segment) {
+		return directory.resolve(LOG_PREFIX + segment + LOG_SUFFIX);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,243 @@
+package org.andy.store;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import org.andy.security.Password;
+import org.andy.security.PolicyListener;
+import org.andy.security.PolicySnapshot;
+import org.andy.security.SecurityPolicy;
+import org.andy.user.User;
+import org.andy.user.UserListener;
+
+/*
+ * ExpiryIndex keeps the users of a UserStore sorted by the creation date of their password so
+ * the users whose password is about to expire can be found without scanning the store, and
+ * so an ExpiryListener can be told when each password expires.
+ *
+ * A password expires when it is older than the time to live of the SecurityPolicy or older
+ * than the policy's modification date, so the passwords which expire before a time are always
+ * those created before a cutoff, see PolicySnapshot.getExpiryCutoff():
+ *
+ * 		cutoff(time) = max(time - timeToLive days, modification date)
+ *
+ * Because the index is keyed by creation date rather than by expiry date nothing in it has to
+ * be moved when the time to live or the modification date changes, only the cutoff does. A
+ * query is a range of a ConcurrentSkipListSet, found in O(log n) and read in order.
+ *
+ * The index is built from the store's users and the records of its CredentialFile, without
+ * decoding them, and kept up to date as a UserListener of the store. schedule() starts a
+ * background thread which sleeps until the next password expires, applies the expiration check
+ * to it if it is loaded and tells the listener. The thread is woken as a PolicyListener when
+ * the time to live or modification date changes, and if the cutoff has moved back, ie. a
+ * longer time to live, the passwords which are no longer expired are reported again when they
+ * expire under the new rules. Passwords which have already expired when the index is
+ * scheduled are not reported, see expired(). An exception thrown by the listener
+ * doesn't stop the thread, the first is kept and thrown by close().
+ */
+public final class ExpiryIndex implements UserListener, PolicyListener, Closeable {
+	private static final long MAX_DELAY = TimeUnit.HOURS.toMillis(1); // wakes up to check the clock
+
+	private final UserStore store;
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<Entry>();
+	private final ConcurrentHashMap<String, Entry> users = new ConcurrentHashMap<String, Entry>();
+	private ScheduledExecutorService scheduler; // guarded by this
+	private ScheduledFuture<?> pending; // guarded by this
+	private ExpiryListener listener; // guarded by this
+	private RuntimeException failure; // guarded by this, the first the listener threw
+	private long reported = Long.MIN_VALUE; // passwords created before this are reported, scheduler only
+
+	/* Builds the index of the users in the store, the index is kept up to date until closed. */
+	public ExpiryIndex(UserStore store) {
+		this.store = store;
+		this.store.addListener(this); // before reading so no change is missed
+
+		CredentialFile file = store.getFile();
+		for (int i = 0; file != null && i < file.size(); i++) {
+			String username = file.username(i);
+			if (!store.isLoaded(username) && !store.isRemoved(username))
+				this.update(username, file.creationTime(i));
+		}
+		for (User user : store.loaded())
+			this.userChanged(user);
+		Password.getSecurityPolicy().addListener(this);
+	}
+
+	/* Returns the number of users in the index. */
+	public int size() { return this.users.size(); }
+
+	/* Returns the usernames of the passwords which have expired, oldest first. */
+	public List<String> expired() {
+		long now = System.currentTimeMillis();
+		return this.usernames(Long.MIN_VALUE, Password.getSecurityPolicy().getSnapshot().getExpiryCutoff(now));
+	}
+
+	/* Returns the usernames of the passwords which will expire within the duration, soonest first. */
+	public List<String> expiringWithin(long duration, TimeUnit unit) {
+		PolicySnapshot policy = Password.getSecurityPolicy().getSnapshot();
+		long now = System.currentTimeMillis();
+		return this.usernames(policy.getExpiryCutoff(now), policy.getExpiryCutoff(now + unit.toMillis(duration)));
+	}
+
+	/* Returns the usernames of the passwords created from the time up to but not including the cutoff. */
+	private List<String> usernames(long from, long to) {
+		List<String> usernames = new ArrayList<String>();
+		if (from < to) {
+			for (Entry entry : this.entries.subSet(new Entry(from, ""), new Entry(to, "")))
+				usernames.add(entry.username);
+		}
+		return usernames;
+	}
+
+	/*
+	 * Tells the listener of each password as it expires until the index is closed. Passwords
+	 * which have already expired are not reported.
+	 */
+	public synchronized void schedule(ExpiryListener listener) {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "password-expiry");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		this.listener = listener;
+		this.scheduler.execute(new Runnable() {
+			public void run() {
+				ExpiryIndex.this.reported = Password.getSecurityPolicy().getSnapshot().getExpiryCutoff(System.currentTimeMillis());
+				ExpiryIndex.this.reschedule(0);
+			}
+		});
+	}
+
+	/* Runs expire() after the delay in milliseconds, replacing any run already pending. */
+	private synchronized void reschedule(long delay) {
+		if (this.scheduler == null || this.scheduler.isShutdown())
+			return;
+		if (this.pending != null)
+			this.pending.cancel(false);
+		this.pending = this.scheduler.schedule(new Runnable() {
+			public void run() { ExpiryIndex.this.expire(); }
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/* Reports the passwords which have expired since the last run and sleeps until the next. */
+	private void expire() {
+		ExpiryListener listener;
+		synchronized (this) {
+			listener = this.listener;
+		}
+
+		PolicySnapshot policy = Password.getSecurityPolicy().getSnapshot();
+		long now = System.currentTimeMillis();
+		long cutoff = policy.getExpiryCutoff(now);
+		if (cutoff < this.reported)
+			this.reported = cutoff; // the policy moved the cutoff back, the passwords since haven't expired
+		if (cutoff > this.reported) {
+			for (Entry entry : this.entries.subSet(new Entry(this.reported, ""), new Entry(cutoff, ""))) {
+				User user = this.store.getLoaded(entry.username);
+				if (user != null && user.getPassword() != null)
+					Password.getSecurityPolicy().expirationCheck(user.getPassword());
+				try {
+					listener.passwordExpired(entry.username, new Date(entry.creationTime));
+				}
+				catch (RuntimeException ex) {
+					synchronized (this) {
+						if (this.failure == null)
+							this.failure = ex;
+					}
+				}
+			}
+			this.reported = cutoff;
+		}
+
+		long delay = MAX_DELAY;
+		Entry next = this.entries.ceiling(new Entry(this.reported, ""));
+		if (policy.getTimeToLive() != 0 && next != null)
+			delay = Math.max(0, Math.min(policy.getExpiryTime(next.creationTime) - now, MAX_DELAY));
+		this.reschedule(delay);
+	}
+
+	/* Called by the SecurityPolicy when it is changed, the deadline may have moved. */
+	public void policyChanged(SecurityPolicy policy) { this.reschedule(0); }
+
+	/* Called by the UserStore when a user is added or changed. */
+	public void userChanged(User user) {
+		if (user.getPassword() != null && user.getPassword().getCreationDate() != null)
+			this.update(user.getUsername(), user.getPassword().getCreationDate().getTime());
+	}
+
+	/* Called by the UserStore when a user is removed. */
+	public void userRemoved(User user) {
+		this.users.computeIfPresent(user.getUsername(), new BiFunction<String, Entry, Entry>() {
+			public Entry apply(String username, Entry previous) {
+				ExpiryIndex.this.entries.remove(previous);
+				return null;
+			}
+		});
+	}
+
+	/* Moves the user to the creation time, the update is made under the user's map entry. */
+	private void update(String username, final long creationTime) {
+		Entry current = this.users.get(username);
+		if (current != null && current.creationTime == creationTime)
+			return; // not a password change, ie. a privilege or lock
+
+		this.users.compute(username, new BiFunction<String, Entry, Entry>() {
+			public Entry apply(String username, Entry previous) {
+				if (previous != null) {
+					if (previous.creationTime == creationTime)
+						return previous;
+					ExpiryIndex.this.entries.remove(previous);
+				}
+				Entry entry = new Entry(creationTime, username);
+				ExpiryIndex.this.entries.add(entry);
+				return entry;
+			}
+		});
+	}
+
+	/*
+	 * Stops the scheduler and stops following the store and policy, then throws the first
+	 * exception the listener threw, if it did.
+	 */
+	public void close() {
+		RuntimeException failure;
+		synchronized (this) {
+			if (this.scheduler != null)
+				this.scheduler.shutdownNow();
+			failure = this.failure;
+		}
+		this.store.removeListener(this);
+		Password.getSecurityPolicy().removeListener(this);
+		if (failure != null)
+			throw failure;
+	}
+
+	/* A user in the index, ordered by creation time followed by username. */
+	private static final class Entry implements Comparable<Entry> {
+		private final long creationTime;
+		private final String username;
+
+		Entry(long creationTime, String username) {
+			this.creationTime = creationTime;
+			this.username = username;
+		}
+
+		public int compareTo(Entry other) {
+			int res = Long.compare(this.creationTime, other.creationTime);
+			return res != 0 ? res : this.username.compareTo(other.username);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,12 @@
+package org.andy.store;
+
+import java.util.Date;
+
+/*
+ * An ExpiryListener is notified by an ExpiryIndex when a password expires, ie. to send the
+ * user a reminder. It is called on the thread of the index's scheduler with the username and
+ * the creation date of the expired password.
+ */
+public interface ExpiryListener {
+	void passwordExpired(String username, Date creationDate);
+}
\ No newline at end of file
@@ -0,0 +1,396 @@
+package org.andy.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import org.andy.security.Password;
+import org.andy.user.User;
+import org.andy.user.UserListener;
+
+/*
+ * MutationLog is an append only write ahead log of changes to users held in a UserStore. Each
+ * entry holds the whole state of a user after a change, a UserRecord, or the username of a
+ * removed user, so replaying the log in order simply keeps the last entry for each username.
+ *
+ * Appends are made durable with group commit. Writers queue their entries and a single flusher
+ * thread writes everything queued in one write and one fsync, then completes every writer's
+ * future. While a flush is in progress new entries build up for the next one, so under load many
+ * failed logins share a single disk flush. The flusher can also wait up to maxDelay after the
+ * first entry of a batch for more to arrive; this bounds the extra latency a writer sees and a
+ * maxDelay of 0 flushes as soon as possible.
+ *
+ * An entry is laid out as:
+ *
+ * 		length(4) crc(4) sequence(8) type(1) payload
+ *
+ * where length covers everything after the crc and the crc covers the same bytes. Replay stops
+ * at the first incomplete or corrupt entry, which can only be the tail of a log written when
+ * the process crashed, and open() truncates the log at that point. A write which fails while
+ * the process carries on is truncated straight away, see write().
+ *
+ * As a UserListener the log is registered with a UserStore and blocks the thread making a
+ * change until its entry is durable.
+ *
+ * The log can be rotated to a new segment file with rotate(), which is how CredentialStore
+ * compacts it behind a snapshot. Sequence numbers carry on across segments.
+ */
+public final class MutationLog implements UserListener, Closeable {
+	private static final byte UPDATE = 1;
+	private static final byte REMOVE = 2;
+	private static final int HEADER_WIDTH = 4 + 4 + 8 + 1;
+	private static final int MAX_BATCH = 4096;
+	private static final int READ_BUFFER = 1 << 16;
+
+	/* An entry waiting to be written. */
+	private static final class Entry {
+		final ByteBuffer buffer;
+		final CompletableFuture<Long> future = new CompletableFuture<Long>();
+
+		Entry(ByteBuffer buffer) { this.buffer = buffer; }
+	}
+
+	private FileChannel channel; // guarded by this, replaced by rotate()
+	private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+	private final long maxDelay; // nanoseconds
+	private final Thread flusher;
+	private volatile boolean closed;
+	private long sequence; // guarded by this
+	private IOException failure; // guarded by this, a torn write which could not be removed
+
+	private MutationLog(FileChannel channel, long sequence, long maxDelay) {
+		this.channel = channel;
+		this.sequence = sequence;
+		this.maxDelay = maxDelay;
+		this.flusher = new Thread(new Runnable() {
+			public void run() { MutationLog.this.flush(); }
+		}, "mutation-log-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/*
+	 * Opens the log at path for appending, creating it if it doesn't exist. Any incomplete
+	 * entry at the end of the log is truncated. maxDelay is the longest the flusher waits for
+	 * more entries before flushing a batch.
+	 */
+	public static MutationLog open(Path path, long maxDelay, TimeUnit unit) throws IOException {
+		return open(path, 0, maxDelay, unit);
+	}
+	
+	/* 
+	 * Opens a segment of a log, numbering new entries after the sequence number if the segment
+	 * is empty or after its last entry otherwise.
+	 */
+	static MutationLog open(Path path, long sequence, long maxDelay, TimeUnit unit) throws IOException {
+		long[] end = new long[2];
+		FileChannel channel = openSegment(path, end);
+		return new MutationLog(channel, Math.max(sequence, end[1]), unit.toNanos(maxDelay));
+	}
+	
+	/* 
+	 * Opens a segment for appending, positioned after its last complete entry. The position
+	 * and sequence number of that entry are returned in end.
+	 */
+	private static FileChannel openSegment(Path path, long[] end) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			System.arraycopy(scan(channel, null), 0, end, 0, 2);
+			channel.truncate(end[0]);
+			channel.position(end[0]);
+			return channel;
+		}
+		catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/*
+	 * Replays the log at path into the store and returns the sequence number of the last entry
+	 * applied. Entries are applied with UserStore.restore() so no listeners are called.
+	 */
+	public static long replay(Path path, final UserStore store) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return scan(channel, new Consumer<ByteBuffer>() {
+				public void accept(ByteBuffer entry) { apply(entry, store); }
+			})[1];
+		}
+	}
+	
+	/*
+	 * Reads every complete entry of the log at path and passes each to the consumer in order.
+	 * Returns the sequence number of the last entry.
+	 */
+	static long read(Path path, Consumer<ByteBuffer> consumer) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return scan(channel, consumer)[1];
+		}
+	}
+	
+	/*
+	 * Switches the log to a new segment at path and returns the sequence number of the last
+	 * entry written to the previous segment. Every entry after it is written to the new segment.
+	 */
+	public synchronized long rotate(Path path) throws IOException {
+		FileChannel next = openSegment(path, new long[2]);
+		FileChannel previous = this.channel;
+		this.channel = next;
+		this.failure = null; // a torn write left in the previous segment ends it
+		previous.close();
+		return this.sequence;
+	}
+
+	/* Queues the current state of the user and returns a future completed once it is durable. */
+	public CompletableFuture<Long> append(User user) {
+		// The user is locked while it is encoded and queued so that two threads changing the
+		// same user queue their entries in the same order as the state they encoded. Its
+		// password is locked first, the order Password.change() takes them in when it logs its
+		// own change, so the history can't be resized between being measured and written.
+		Password password = user.getPassword();
+		synchronized (password) {
+			synchronized (user) {
+				int historySlots = UserRecord.historySlots(user);
+				ByteBuffer buffer = ByteBuffer.allocate(HEADER_WIDTH + UserRecord.width(historySlots));
+				buffer.put(HEADER_WIDTH - 1, UPDATE);
+				UserRecord.write(user, buffer, HEADER_WIDTH, historySlots);
+				return this.enqueue(buffer);
+			}
+		}
+	}
+
+	/* Queues the removal of the user and returns a future completed once it is durable. */
+	public CompletableFuture<Long> remove(String username) {
+		byte[] key = username.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_WIDTH + 2 + key.length);
+		buffer.put(HEADER_WIDTH - 1, REMOVE);
+		buffer.putShort(HEADER_WIDTH, (short)key.length);
+		buffer.put(HEADER_WIDTH + 2, key);
+		return this.enqueue(buffer);
+	}
+
+	private CompletableFuture<Long> enqueue(ByteBuffer buffer) {
+		Entry entry = new Entry(buffer);
+		if (!this.closed) {
+			this.queue.add(entry);
+			// close() may have drained the queue between the check and the add, if the entry is
+			// still queued no one else will complete it, otherwise the flusher or close() has it
+			if (!this.closed || !this.queue.remove(entry))
+				return entry.future;
+		}
+		entry.future.completeExceptionally(new IOException("Mutation log is closed"));
+		return entry.future;
+	}
+
+	/* UserListener, the change is logged and the calling thread waits until it is durable. */
+	public void userChanged(User user) { this.append(user).join(); }
+	public void userRemoved(User user) { this.remove(user.getUsername()).join(); }
+
+	/* The flusher thread, writes and syncs a batch of entries at a time. */
+	private void flush() {
+		List<Entry> batch = new ArrayList<Entry>();
+		CRC32 crc = new CRC32();
+
+		while (!this.closed || !this.queue.isEmpty()) {
+			try {
+				Entry first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+
+				// wait up to maxDelay for more entries to share the flush
+				long deadline = System.nanoTime() + this.maxDelay;
+				this.queue.drainTo(batch, MAX_BATCH - batch.size());
+				while (batch.size() < MAX_BATCH) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					Entry next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+					this.queue.drainTo(batch, MAX_BATCH - batch.size());
+				}
+			}
+			catch (InterruptedException ex) {
+				if (batch.isEmpty())
+					continue; // nothing collected yet, otherwise flush what we have
+			}
+
+			try {
+				long sequence = this.write(batch, crc);
+				for (Entry entry : batch)
+					entry.future.complete(++sequence);
+			}
+			catch (IOException ex) {
+				for (Entry entry : batch)
+					entry.future.completeExceptionally(ex);
+			}
+			batch.clear();
+		}
+	}
+
+	/*
+	 * Numbers the batch and writes and syncs it to the current segment, returning the sequence
+	 * number before the first entry. The lock keeps a batch from being split by rotate().
+	 *
+	 * A batch which fails part way through is cut off the segment again, so the next batch is
+	 * written after the last good entry rather than after a torn one, which replay would stop
+	 * at. If it can't be cut off the log refuses every later batch.
+	 */
+	private synchronized long write(List<Entry> batch, CRC32 crc) throws IOException {
+		if (this.failure != null)
+			throw new IOException("Mutation log failed, a torn write could not be removed", this.failure);
+		
+		long first = this.sequence;
+		ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			ByteBuffer buffer = batch.get(i).buffer;
+			buffer.putInt(0, buffer.capacity() - 8);
+			buffer.putLong(8, first + i + 1);
+			crc.reset();
+			crc.update(buffer.array(), 8, buffer.capacity() - 8);
+			buffer.putInt(4, (int)crc.getValue());
+			buffers[i] = buffer;
+		}
+
+		long end = this.channel.position();
+		try {
+			long remaining = 0;
+			for (ByteBuffer buffer : buffers)
+				remaining += buffer.remaining();
+			while (remaining > 0)
+				remaining -= this.channel.write(buffers);
+			this.channel.force(false);
+		}
+		catch (IOException ex) {
+			try {
+				this.channel.truncate(end);
+				this.channel.position(end);
+			}
+			catch (IOException truncateEx) {
+				ex.addSuppressed(truncateEx);
+				this.failure = ex;
+			}
+			throw ex;
+		}
+
+		this.sequence = first + buffers.length; // only once the batch is written
+		return first;
+	}
+
+	/* Flushes anything still queued and closes the log. */
+	public void close() throws IOException {
+		this.closed = true;
+		try {
+			this.flusher.join();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		
+		// anything queued as the flusher stopped is refused
+		Entry entry;
+		while ((entry = this.queue.poll()) != null)
+			entry.future.completeExceptionally(new IOException("Mutation log is closed"));
+		synchronized (this) {
+			this.channel.close();
+		}
+	}
+
+	/*
+	 * Reads every complete entry from the start of the channel, passing each to the consumer if
+	 * there is one. Returns the position after the last complete entry and its sequence number.
+	 */
+	private static long[] scan(FileChannel channel, Consumer<ByteBuffer> consumer) throws IOException {
+		long position = 0;
+		long sequence = 0;
+		long size = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+		buffer.flip(); // nothing read yet
+		CRC32 crc = new CRC32();
+
+		channel.position(0);
+		while (position + 8 <= size) {
+			if ((buffer = fill(channel, buffer, 8)) == null)
+				break;
+			int length = buffer.getInt(buffer.position());
+			int checksum = buffer.getInt(buffer.position() + 4);
+			if (length < HEADER_WIDTH - 8 || position + 8 + length > size)
+				break; // incomplete entry
+			if ((buffer = fill(channel, buffer, 8 + length)) == null)
+				break;
+
+			ByteBuffer entry = ByteBuffer.allocate(length);
+			buffer.position(buffer.position() + 8);
+			buffer.get(entry.array());
+			crc.reset();
+			crc.update(entry.array());
+			if ((int)crc.getValue() != checksum)
+				break; // torn write
+
+			sequence = entry.getLong(0);
+			if (consumer != null)
+				consumer.accept(entry);
+			position += 8 + length;
+		}
+		return new long[] { position, sequence };
+	}
+	
+	/*
+	 * Reads from the channel until at least needed bytes remain in the buffer, returning the
+	 * buffer, which is replaced if it is too small, or null if the channel ends first.
+	 */
+	private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+		if (buffer.remaining() >= needed)
+			return buffer;
+
+		if (needed > buffer.capacity())
+			buffer = ByteBuffer.allocate(needed).put(buffer);
+		else
+			buffer.compact();
+		while (buffer.position() < needed) {
+			if (channel.read(buffer) < 0)
+				return null;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/* Returns the sequence number of an entry passed to a consumer. */
+	static long sequence(ByteBuffer entry) { return entry.getLong(0); }
+	
+	/* 
+	 * Returns a hash of the username of an entry, which is laid out the same way for an update
+	 * and a removal, computed over its UTF-8 bytes without decoding it or the rest of the entry.
+	 */
+	static int usernameHash(ByteBuffer entry) {
+		int hash = 1;
+		for (int i = 11, end = 11 + entry.getShort(9); i < end; i++)
+			hash = 31 * hash + entry.get(i);
+		return hash;
+	}
+
+	/* Applies an entry, which starts at the sequence number, to the store. */
+	static void apply(ByteBuffer entry, UserStore store) {
+		if (entry.get(8) == UPDATE) {
+			store.restore(UserRecord.read(entry, 9));
+		}
+		else {
+			byte[] key = new byte[entry.getShort(9)];
+			entry.get(11, key);
+			store.restore(new String(key, StandardCharsets.UTF_8), null);
+		}
+	}
+}
\ No newline at end of file
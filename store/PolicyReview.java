@@ -0,0 +1,228 @@
+package org.andy.store;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.andy.security.Password;
+import org.andy.security.PolicySnapshot;
+import org.andy.security.SecurityPolicy;
+import org.andy.user.User;
+
+/*
+ * PolicyReview works out what a change to the SecurityPolicy will do to the passwords in a
+ * UserStore before it is made. The change is described with the setters, which start out as
+ * the current policy, and the review reports how many users would be expired by the new time
+ * to live or modification date and how many would have their history resized by the new
+ * history count:
+ *
+ * 		PolicyReview review = new PolicyReview(store, 2);
+ * 		review.setTimeToLive(30);
+ * 		System.out.println(review.dryRun()); // nothing is changed
+ * 		review.apply();                      // the policy is changed and passwords updated
+ *
+ * Every user is reviewed, including the users of a CredentialFile which have not been decoded.
+ * Their records are read in place, only the creation date and history length are looked at,
+ * so a review of the whole file does not load it into the store and runs in fixed memory.
+ * apply() updates the passwords already loaded, the rest are checked by SecurityPolicy when
+ * they are decoded and have their history resized on their next change as they always have.
+ *
+ * The review runs on its own ForkJoinPool of the specified parallelism. The file is split into
+ * ranges of records and the loaded users are walked with ConcurrentHashMap.forEachValue, so
+ * there is no copy of the users either. No lock is held, logins carry on while it runs. A user
+ * added, decoded or removed during the review may be counted twice or not at all.
+ */
+public final class PolicyReview {
+	private static final int RECORD_THRESHOLD = 4096; // records scanned by one task
+	private static final long USER_THRESHOLD = 4096; // see ConcurrentHashMap.forEachValue
+
+	private final UserStore store;
+	private final int parallelism;
+	private int timeToLive;
+	private int historyCount;
+	private boolean modified;
+
+	public PolicyReview(UserStore store, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be at least 1");
+
+		this.store = store;
+		this.parallelism = parallelism;
+		this.timeToLive = Password.getSecurityPolicy().getTimeToLive();
+		this.historyCount = Password.getSecurityPolicy().getHistoryCount();
+	}
+
+	/* The proposed change, see the SecurityPolicy setters of the same name. */
+	public void setTimeToLive(int timeToLive) { this.timeToLive = timeToLive; }
+	public void setHistoryCount(int historyCount) { this.historyCount = historyCount; }
+	public void setModified() { this.modified = true; }
+
+	/* Reviews the proposed change without making it. */
+	public Report dryRun() {
+		SecurityPolicy policy = Password.getSecurityPolicy();
+		long now = System.currentTimeMillis();
+		Rules current = new Rules(policy.getSnapshot(), now);
+		Rules proposed = new Rules(this.timeToLive, this.historyCount,
+			this.modified ? now : current.modified, now);
+		return this.run(current, proposed, false);
+	}
+
+	/*
+	 * Makes the proposed change to the SecurityPolicy as a single snapshot, then expires and
+	 * resizes the history of every loaded password it affects. The report is the same as 
+	 * dryRun() would give.
+	 */
+	public Report apply() {
+		SecurityPolicy policy = Password.getSecurityPolicy();
+		long now = System.currentTimeMillis();
+		Rules current = new Rules(policy.getSnapshot(), now);
+
+		PolicySnapshot proposed = policy.setExpiryRules(this.timeToLive, this.historyCount, this.modified);
+		return this.run(current, new Rules(proposed, now), true);
+	}
+
+	private Report run(final Rules current, final Rules proposed, final boolean apply) {
+		final Report report = new Report();
+		long start = System.nanoTime();
+
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+		try {
+			CredentialFile file = this.store.getFile();
+			if (file != null)
+				pool.invoke(new RecordTask(file, 0, file.size(), current, proposed, report));
+
+			// forEachValue forks its tasks into the pool of the worker it is called from
+			pool.submit(new Runnable() {
+				public void run() {
+					PolicyReview.this.store.forEachLoaded(USER_THRESHOLD, new Consumer<User>() {
+						public void accept(User user) { review(user, current, proposed, apply, report); }
+					});
+				}
+			}).join();
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		report.elapsed = System.nanoTime() - start;
+		return report;
+	}
+
+	private static void review(User user, Rules current, Rules proposed, boolean apply, Report report) {
+		Password password = user.getPassword();
+		if (password == null)
+			return;
+
+		report.count(password.getCreationDate().getTime(), UserRecord.historySlots(user), current, proposed);
+		if (apply) {
+			SecurityPolicy policy = Password.getSecurityPolicy();
+			policy.expirationCheck(password);
+			policy.historyCheck(password);
+		}
+	}
+
+	/* Reviews a range of the records of a file, splitting it until it is small enough. */
+	private final class RecordTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final CredentialFile file;
+		private final int from;
+		private final int to;
+		private final Rules current;
+		private final Rules proposed;
+		private final Report report;
+
+		RecordTask(CredentialFile file, int from, int to, Rules current, Rules proposed, Report report) {
+			this.file = file;
+			this.from = from;
+			this.to = to;
+			this.current = current;
+			this.proposed = proposed;
+			this.report = report;
+		}
+
+		protected void compute() {
+			if (this.to - this.from > RECORD_THRESHOLD) {
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new RecordTask(this.file, this.from, middle, this.current, this.proposed, this.report),
+					new RecordTask(this.file, middle, this.to, this.current, this.proposed, this.report));
+				return;
+			}
+
+			for (int i = this.from; i < this.to; i++) {
+				// a loaded user is reviewed from memory and a removed user not at all
+				String username = this.file.username(i);
+				if (PolicyReview.this.store.isLoaded(username) || PolicyReview.this.store.isRemoved(username))
+					continue;
+				this.report.count(this.file.creationTime(i), this.file.historyLength(i), this.current, this.proposed);
+			}
+		}
+	}
+
+	/* The expiration and history rules of a policy, with the expiry date worked out once. */
+	private static final class Rules {
+		private final int timeToLive;
+		private final int historyLength;
+		private final long cutoff;
+		private final long modified;
+
+		Rules(PolicySnapshot policy, long now) {
+			this(policy.getTimeToLive(), policy.getHistoryCount(), policy.getModificationTime(), now);
+		}
+		Rules(int timeToLive, int historyCount, long modified, long now) {
+			this.timeToLive = timeToLive;
+			this.historyLength = Math.max(historyCount - 1, 0);
+			this.modified = modified;
+			this.cutoff = now - TimeUnit.DAYS.toMillis(timeToLive);
+		}
+
+		/* The same test as PolicySnapshot.getExpiryCutoff(). */
+		boolean isExpired(long creationTime) {
+			return this.timeToLive != 0 && (creationTime < this.cutoff || creationTime < this.modified);
+		}
+	}
+
+	/* The outcome of a review. The counts are added to from every thread of the review. */
+	public static final class Report {
+		private final LongAdder users = new LongAdder();
+		private final LongAdder expired = new LongAdder();
+		private final LongAdder newlyExpired = new LongAdder();
+		private final LongAdder historyResized = new LongAdder();
+		private final LongAdder historyTruncated = new LongAdder();
+		private long elapsed;
+
+		private Report() {}
+
+		private void count(long creationTime, int historyLength, Rules current, Rules proposed) {
+			this.users.increment();
+			if (proposed.isExpired(creationTime)) {
+				this.expired.increment();
+				if (!current.isExpired(creationTime))
+					this.newlyExpired.increment();
+			}
+			if (historyLength != proposed.historyLength) {
+				this.historyResized.increment();
+				if (historyLength > proposed.historyLength)
+					this.historyTruncated.increment();
+			}
+		}
+
+		/* The number of users reviewed. */
+		public long getUsers() { return this.users.sum(); }
+		/* The number of users whose password is expired under the new policy. */
+		public long getExpired() { return this.expired.sum(); }
+		/* The number of those which were not expired under the old policy. */
+		public long getNewlyExpired() { return this.newlyExpired.sum(); }
+		/* The number of users whose history is resized, and those which lose secrets. */
+		public long getHistoryResized() { return this.historyResized.sum(); }
+		public long getHistoryTruncated() { return this.historyTruncated.sum(); }
+		/* The time the review took in milliseconds. */
+		public long getElapsed() { return this.elapsed / 1000000; }
+
+		public String toString() {
+			return String.format("%d users: %d expired (%d newly), %d history resized (%d truncated), %d ms",
+				this.getUsers(), this.getExpired(), this.getNewlyExpired(), this.getHistoryResized(),
+				this.getHistoryTruncated(), this.getElapsed());
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+package org.andy.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.andy.security.PasswordRecord;
+import org.andy.user.Role;
+import org.andy.user.User;
+
+/*
+ * UserRecord writes and reads a User as a fixed width binary record. It is shared by
+ * CredentialFile and MutationLog so users are encoded the same way wherever they are stored.
+ * The layout of a record is:
+ *
+ * 		username(2 + USERNAME_WIDTH) name(2 + NAME_WIDTH) privileges(8) password(PasswordRecord)
+ *
+ * The username and name are a length followed by a fixed width UTF-8 slot. The low 32 bits of
+ * privileges are the mask of the Privileges granted directly and the high 32 bits are the
+ * mask of the Role ids granted, see User.getPrivilegeMask() and User.getRoleMask().
+ */
+final class UserRecord {
+	static final int USERNAME_WIDTH = 64;
+	static final int NAME_WIDTH = 64;
+	private static final int USER_WIDTH = 2 + USERNAME_WIDTH + 2 + NAME_WIDTH + 8;
+
+	private UserRecord() {}
+
+	/* Returns the width in bytes of a record holding the specified number of history slots. */
+	static int width(int historySlots) {
+		return USER_WIDTH + PasswordRecord.width(historySlots);
+	}
+
+	/* Returns the number of history slots needed to store the user. */
+	static int historySlots(User user) {
+		return PasswordRecord.historySlots(user.getPassword());
+	}
+
+	/* Writes the user at the offset of the buffer and returns the UTF-8 username. */
+	static byte[] write(User user, ByteBuffer buffer, int offset, int historySlots) {
+		byte[] key = writeString(buffer, offset, user.getUsername(), USERNAME_WIDTH);
+		writeString(buffer, offset + 2 + USERNAME_WIDTH, user.getName(), NAME_WIDTH);
+
+		long privileges = user.getPrivilegeMask() | (user.getRoleMask() << 32);
+		buffer.putLong(offset + 4 + USERNAME_WIDTH + NAME_WIDTH, privileges);
+
+		PasswordRecord.write(user.getPassword(), buffer, offset + USER_WIDTH, historySlots);
+		return key;
+	}
+
+	/* Decodes the user at the offset of the buffer. */
+	static User read(ByteBuffer buffer, int offset) {
+		String username = readString(buffer, offset);
+		String name = readString(buffer, offset + 2 + USERNAME_WIDTH);
+		long privileges = buffer.getLong(offset + 4 + USERNAME_WIDTH + NAME_WIDTH);
+
+		User user = new User(name, username, PasswordRecord.read(buffer, offset + USER_WIDTH));
+		for (User.Privilege privilege : User.Privilege.values()) {
+			if ((privileges & privilege.mask()) != 0)
+				user.addPrivilege(privilege);
+		}
+		for (long roles = privileges >>> 32; roles != 0; roles &= roles - 1) {
+			Role role = Role.get(Long.numberOfTrailingZeros(roles));
+			if (role == null)
+				throw new IllegalStateException("Role " + Long.numberOfTrailingZeros(roles) + " is not defined");
+			user.addRole(role);
+		}
+		return user;
+	}
+
+	/* Decodes only the username of the record at the offset of the buffer. */
+	static String readUsername(ByteBuffer buffer, int offset) {
+		return readString(buffer, offset);
+	}
+
+	/* Reads only the password creation date of the record, see PasswordRecord. */
+	static long readCreationTime(ByteBuffer buffer, int offset) {
+		return PasswordRecord.readCreationTime(buffer, offset + USER_WIDTH);
+	}
+
+	/* Reads only the password history length of the record, see PasswordRecord. */
+	static int readHistoryLength(ByteBuffer buffer, int offset) {
+		return PasswordRecord.readHistoryLength(buffer, offset + USER_WIDTH);
+	}
+
+	/* Compares the username of a record with the UTF-8 key without decoding the record. */
+	static boolean matches(ByteBuffer buffer, int offset, byte[] key) {
+		if (buffer.getShort(offset) != key.length)
+			return false;
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.get(offset + 2 + i) != key[i])
+				return false;
+		}
+		return true;
+	}
+
+	static String readString(ByteBuffer buffer, int offset) {
+		byte[] bytes = new byte[buffer.getShort(offset)];
+		buffer.get(offset + 2, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static byte[] writeString(ByteBuffer buffer, int offset, String value, int width) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > width)
+			throw new IllegalArgumentException("'" + value + "' exceeds " + width + " bytes");
+
+		buffer.putShort(offset, (short)bytes.length);
+		buffer.put(offset + 2, bytes);
+		return bytes;
+	}
+}
\ No newline at end of file
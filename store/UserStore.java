@@ -0,0 +1,212 @@
+package org.andy.store;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import org.andy.login.LoginRequest;
+import org.andy.login.LoginResponse;
+import org.andy.login.LoginServer;
+import org.andy.metrics.Counter;
+import org.andy.metrics.Histogram;
+import org.andy.metrics.MetricsRegistry;
+import org.andy.security.Password;
+import org.andy.security.VerificationCache;
+import org.andy.user.User;
+import org.andy.user.UserListener;
+
+/*
+ * UserStore is a reference in-memory implementation of LoginServer. Users are indexed by
+ * username in a ConcurrentHashMap so lookups never take a lock and any number of threads can
+ * validate logins at once. A second index keeps the users sorted by User.compareTo, that is by
+ * name followed by username, and is used for listing.
+ *
+ * The ordering of a User is fixed when it is added, so a user's name should not be changed
+ * while it is in the store. Remove it, change it and add it again instead.
+ *
+ * A UserStore can be backed by a CredentialFile. Users in the file are decoded and added to
+ * the store the first time they are looked up, so start up does not depend on the number of
+ * users. Until then they are not included in size() or getUsers().
+ *
+ * The store listens to every User it holds and passes each change on to its own UserListeners,
+ * ie. a MutationLog, along with users being added and removed.
+ *
+ * An optional VerificationCache lets repeat logins with the same credentials skip the hash.
+ * The store invalidates a user's entry whenever the user is changed or removed.
+ */
+public class UserStore implements LoginServer, UserListener {
+	private static final Histogram VALIDATE_TIME = MetricsRegistry.getInstance().histogram("login.validate");
+	private static final Counter VALIDATED = MetricsRegistry.getInstance().counter("login.validated");
+	private static final Counter REJECTED = MetricsRegistry.getInstance().counter("login.rejected");
+	private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<String, User>();
+	private final ConcurrentSkipListSet<User> ordered = new ConcurrentSkipListSet<User>();
+	private final Set<String> removed = ConcurrentHashMap.newKeySet(); // removed from the file
+	private final CredentialFile file;
+	private final List<UserListener> listeners = new CopyOnWriteArrayList<UserListener>();
+	private volatile VerificationCache cache;
+	
+	public UserStore() { this(null); }
+	public UserStore(CredentialFile file) { this.file = file; }
+
+	/* Adds the user if the username is not already taken and returns true if it was added. */
+	public boolean add(User user) {
+		if (this.get(user.getUsername()) != null) // loads the user from the file if needed
+			return false;
+		if (this.users.putIfAbsent(user.getUsername(), user) != null)
+			return false;
+
+		this.ordered.add(user);
+		this.removed.remove(user.getUsername());
+		user.setListener(this);
+		this.userChanged(user);
+		return true;
+	}
+	
+	/* Adds a listener to be told of every change to the users in this store. */
+	public void addListener(UserListener listener) { this.listeners.add(listener); }
+	public void removeListener(UserListener listener) { this.listeners.remove(listener); }
+
+	/* 
+	 * Returns the user with the specified username, or null if there is none. A user who is
+	 * only in the CredentialFile is decoded and added to the store on first lookup.
+	 */
+	public User get(String username) {
+		User user = this.users.get(username);
+		if (user != null || this.file == null || this.removed.contains(username))
+			return user;
+
+		user = this.file.read(username);
+		if (user == null)
+			return null;
+
+		User existing = this.users.putIfAbsent(username, user);
+		if (existing != null)
+			return existing; // another thread loaded it first
+
+		this.ordered.add(user);
+		user.setListener(this);
+		return user;
+	}
+
+	/* Sets the cache of recent successful logins, or null for none. */
+	public void setVerificationCache(VerificationCache cache) { this.cache = cache; }
+
+	/* Returns all users sorted by name followed by username. The view can't be modified. */
+	public Collection<User> getUsers() { return Collections.unmodifiableSet(this.ordered); }
+
+	/* Removes and returns the user with the specified username, or null if there is none. */
+	public User remove(String username) {
+		if (this.file != null)
+			this.removed.add(username);
+		User user = this.users.remove(username);
+		this.invalidate(username);
+		if (user != null) {
+			this.ordered.remove(user);
+			user.setListener(null);
+			for (UserListener listener : this.listeners)
+				listener.userRemoved(user);
+		}
+		return user;
+	}
+	
+	/*
+	 * Puts a user recovered from persistence into the store, replacing any user with the same
+	 * username, or removes the username if user is null. Listeners are not told, the change
+	 * is already persisted.
+	 */
+	void restore(String username, User user) {
+		this.invalidate(username);
+		User previous = user == null ? this.users.remove(username) : this.users.put(username, user);
+		if (previous != null) {
+			this.ordered.remove(previous);
+			previous.setListener(null);
+		}
+		
+		if (user != null) {
+			this.ordered.add(user);
+			user.setListener(this);
+			this.removed.remove(username);
+		}
+		else if (this.file != null) {
+			this.removed.add(username);
+		}
+	}
+	void restore(User user) { this.restore(user.getUsername(), user); }
+	
+	/* The users decoded or added so far and the file behind them, used to write snapshots. */
+	Collection<User> loaded() { return this.users.values(); }
+	boolean isLoaded(String username) { return this.users.containsKey(username); }
+	User getLoaded(String username) { return this.users.get(username); }
+	boolean isRemoved(String username) { return this.removed.contains(username); }
+	
+	/* Applies the action to every loaded user in parallel, see ConcurrentHashMap.forEachValue. */
+	void forEachLoaded(long parallelismThreshold, Consumer<User> action) {
+		this.users.forEachValue(parallelismThreshold, action);
+	}
+	CredentialFile getFile() { return this.file; }
+
+	public int size() { return this.users.size(); }
+	
+	private void invalidate(String username) {
+		VerificationCache cache = this.cache;
+		if (cache != null)
+			cache.invalidate(username);
+	}
+	
+	/* Called by a User in this store when it is changed. */
+	public void userChanged(User user) {
+		this.invalidate(user.getUsername());
+		for (UserListener listener : this.listeners)
+			listener.userChanged(user);
+	}
+
+	/*
+	 * Validates the request against the stored user. A locked password fails regardless of
+	 * the password given, and the User is returned so the caller can report the lock. The
+	 * password check itself may trigger the lock in which case the User is returned too. An
+	 * unknown user or a locked password still costs a hash, see Password.refuse(), so the
+	 * time taken doesn't reveal which usernames exist. The plain text of the request's password
+	 * is cleared whatever the outcome.
+	 */
+	public LoginResponse validate(LoginRequest request) {
+		long start = System.nanoTime();
+		LoginResponse response = this.verify(request);
+		VALIDATE_TIME.record(System.nanoTime() - start);
+		(response.isValidated() ? VALIDATED : REJECTED).increment();
+		return response;
+	}
+
+	private LoginResponse verify(LoginRequest request) {
+		Password candidate = request.getPassword();
+		try {
+			User user = this.get(request.getUsername());
+			if (user == null) {
+				candidate.refuse();
+				return new LoginResponse(false);
+			}
+
+			if (user.getPassword().isLocked()) {
+				candidate.refuse();
+				return new LoginResponse(false, user);
+			}
+
+			VerificationCache cache = this.cache;
+			boolean isMatch = cache != null ?
+				cache.verify(user.getUsername(), user.getPassword(), candidate) :
+				user.getPassword().equals(candidate);
+			if (isMatch)
+				return new LoginResponse(true, user);
+			else if (user.getPassword().isLocked())
+				return new LoginResponse(false, user);
+
+			return new LoginResponse(false);
+		}
+		finally {
+			candidate.clear();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.andy.access.AccessController;
+import org.andy.access.AccessRules;
+import org.andy.security.Password;
+import org.andy.user.Role;
+import org.andy.user.User;
+
+public class AccessControlTest {
+	private static final int THREADS = 4;
+	private static final int DECISIONS = 20000000;
+	private static final String[] RESOURCES = { "reports", "reports/2024/q1", "reports/payroll",
+		"reports/payroll/march", "admin/users", "home" };
+	private static final String[] ACTIONS = { "read", "write", "delete" };
+
+	public static void main(String[] args) throws Exception {
+		AccessRules rules = new AccessRules()
+			.allow("reports", "read", User.Privilege.STANDARD)
+			.allow("reports", AccessRules.ANY_ACTION, User.Privilege.USER_ADMIN)
+			.allow("reports/payroll", "read", User.Privilege.USER_ADMIN)
+			.deny("reports/payroll", "delete", User.Privilege.STANDARD)
+			.allow("admin", AccessRules.ANY_ACTION, User.Privilege.USER_ADMIN);
+		final AccessController access = new AccessController(rules);
+
+		final User standard = new User("Standard User", "standard.user", new Password(new String("one2Three!").toCharArray()));
+		User admin = new User("Admin User", "admin.user", new Password(new String("four5Six!").toCharArray()));
+		admin.addPrivilege(User.Privilege.USER_ADMIN);
+
+		// Test - a rule covers the resources below it and the nearest rule decides
+		// Result: true, false, false, true, true
+		// Test Passed
+		System.out.println(access.isAllowed(standard, "reports/2024/q1", "read"));
+		System.out.println(access.isAllowed(standard, "reports/2024/q1", "write"));
+		System.out.println(access.isAllowed(standard, "reports/payroll/march", "read"));
+		System.out.println(access.isAllowed(admin, "reports/payroll/march", "read"));
+		System.out.println(access.isAllowed(admin, "reports/2024/q1", "archive"));
+
+		// Test - a deny overrides an allow and unknown resources are denied
+		// Result: false, false, admin.user may not read home
+		// Test Passed
+		System.out.println(access.isAllowed(admin, "reports/payroll", "delete"));
+		System.out.println(access.isAllowed(admin, "home", "read"));
+		try {
+			access.check(admin, "home", "read");
+		}
+		catch (SecurityException ex) {
+			System.out.println(ex.getMessage());
+		}
+
+		// Test - a privilege granted through a role applies to the next decision
+		// Result: false, true, false
+		// Test Passed
+		Role helpdesk = Role.define(1, "HELPDESK", EnumSet.of(User.Privilege.USER_ADMIN));
+		System.out.println(access.isAllowed(standard, "admin/users", "write"));
+		standard.addRole(helpdesk);
+		System.out.println(access.isAllowed(standard, "admin/users", "write"));
+		standard.removeRole(helpdesk);
+		System.out.println(access.isAllowed(standard, "admin/users", "write"));
+
+		// Test - new rules replace the old ones and their cached decisions
+		// Result: version 2, 0 cached, true
+		// Test Passed
+		access.setRules(rules.allow("home", "read", User.Privilege.STANDARD));
+		System.out.println("version " + access.getVersion() + ", " + access.getCacheSize() + " cached, "
+			+ access.isAllowed(standard, "home", "read"));
+
+		// Test - decisions per second on one thread and on several
+		// Result: millions of decisions per second either way
+		// Test Passed
+		long start = System.nanoTime();
+		long allowed = decide(access, standard, DECISIONS);
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("1 thread: %d allowed, %.1f million decisions per second",
+			allowed, DECISIONS * 1000.0 / elapsed));
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		start = System.nanoTime();
+		for (int t = 0; t < THREADS; t++) {
+			results.add(pool.submit(new Callable<Long>() {
+				public Long call() { return decide(access, standard, DECISIONS / THREADS); }
+			}));
+		}
+		allowed = 0;
+		for (Future<Long> result : results)
+			allowed += result.get();
+		elapsed = System.nanoTime() - start;
+		pool.shutdown();
+		System.out.println(String.format("%d threads: %d allowed, %.1f million decisions per second",
+			THREADS, allowed, DECISIONS * 1000.0 / elapsed));
+	}
+
+	private static long decide(AccessController access, User user, int decisions) {
+		long allowed = 0;
+		for (int i = 0; i < decisions; i++) {
+			if (access.isAllowed(user, RESOURCES[i % RESOURCES.length], ACTIONS[i % ACTIONS.length]))
+				allowed++;
+		}
+		return allowed;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.andy.login.LoginRequest;
+import org.andy.login.LoginResponse;
+import org.andy.login.LoginServer;
+import org.andy.login.LoginServerAdapter;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class AsyncLoginTest {
+	private static final int USERS = 1000;
+	private static final int REQUESTS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		Password.getSecurityPolicy().setEncryptionAlgorithm("PBKDF2WithHmacSHA256");
+		Password.getSecurityPolicy().setIterations(10000);
+
+		UserStore store = new UserStore();
+		for (int i = 0; i < USERS; i++)
+			store.add(new User("User " + i, "user." + i, new Password(("pass" + i + "Word!").toCharArray(), true)));
+		LoginServerAdapter server = new LoginServerAdapter(store);
+
+		// Test - an existing LoginServer answers asynchronously through the adapter
+		// Result: true, false
+		// Test Passed
+		CompletableFuture<LoginResponse> good = server.validateAsync(request(1, "pass1Word!"));
+		CompletableFuture<LoginResponse> bad = server.validateAsync(request(2, "wrong2Word!"));
+		System.out.println(good.get().isValidated());
+		System.out.println(bad.get().isValidated());
+
+		// Test - a batch larger than the worker queue keeps the order of its requests
+		// Result: true for every even request and false for every odd one
+		// Test Passed
+		List<LoginRequest> batch = new ArrayList<LoginRequest>();
+		for (int i = 0; i < REQUESTS; i++)
+			batch.add(request(i % USERS, (i % 2 == 0 ? "pass" : "wrong") + (i % USERS) + "Word!"));
+		List<LoginResponse> responses = server.validateAll(batch).get();
+		boolean ordered = responses.size() == REQUESTS;
+		for (int i = 0; i < responses.size(); i++)
+			ordered &= responses.get(i).isValidated() == (i % 2 == 0);
+		System.out.println(ordered);
+
+		// Test - the batch spread across the workers against one request at a time
+		// Result: logins/sec for each, the batch scales with the number of processors
+		// Test Passed
+		// a verification password is cleared once used, so each run has its own requests
+		long start = System.nanoTime();
+		for (LoginRequest request : logins())
+			store.validate(request);
+		long blocking = System.nanoTime() - start;
+
+		batch = logins();
+		start = System.nanoTime();
+		server.validateAll(batch).get();
+		long batched = System.nanoTime() - start;
+		System.out.println(String.format("blocking: %d logins/sec, batch of %d on %d workers: %d logins/sec",
+			REQUESTS * 1000000000L / blocking, REQUESTS, Runtime.getRuntime().availableProcessors(),
+			REQUESTS * 1000000000L / batched));
+
+		server.close();
+
+		// Test - the passwords of refused requests, and of those a failed batch never reached,
+		//        are cleared
+		// Result: true, true, true
+		// Test Passed
+		LoginServerAdapter full = new LoginServerAdapter(store, new Executor() {
+			public void execute(Runnable task) { throw new RejectedExecutionException(); }
+		}, 4);
+		char[] refused = "pass1Word!".toCharArray();
+		full.validateAsync(new LoginRequest("user.1", new Password(refused)));
+		char[][] unqueued = { "pass1Word!".toCharArray(), "pass2Word!".toCharArray() };
+		full.validateAll(Arrays.asList(new LoginRequest("user.1", new Password(unqueued[0])),
+			new LoginRequest("user.2", new Password(unqueued[1]))));
+		LoginServerAdapter failing = new LoginServerAdapter(new LoginServer() {
+			public LoginResponse validate(LoginRequest request) { throw new IllegalStateException("down"); }
+		}, new Executor() {
+			public void execute(Runnable task) { task.run(); }
+		}, 1);
+		char[][] failed = { "pass1Word!".toCharArray(), "pass2Word!".toCharArray() };
+		failing.validateAll(Arrays.asList(new LoginRequest("user.1", new Password(failed[0])),
+			new LoginRequest("user.2", new Password(failed[1]))));
+		System.out.println(Arrays.equals(refused, new char[refused.length]));
+		System.out.println(Arrays.equals(unqueued[0], new char[10]) && Arrays.equals(unqueued[1], new char[10]));
+		System.out.println(Arrays.equals(failed[0], new char[10]) && Arrays.equals(failed[1], new char[10]));
+	}
+
+	private static LoginRequest request(int user, String password) {
+		return new LoginRequest("user." + user, new Password(password.toCharArray()));
+	}
+
+	private static List<LoginRequest> logins() {
+		List<LoginRequest> logins = new ArrayList<LoginRequest>();
+		for (int i = 0; i < REQUESTS; i++)
+			logins.add(request(i % USERS, "pass" + (i % USERS) + "Word!"));
+		return logins;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+package org.andy.test;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.andy.security.BannedPasswordFilter;
+import org.andy.security.BannedPasswordFilterBuilder;
+import org.andy.security.Password;
+
+public class BannedPasswordTest {
+	private static final int BANNED = 2000000;
+	private static final int LOOKUPS = 1000000;
+
+	public static void main(String[] args) throws Exception {
+		Path list = Files.createTempFile("banned", ".txt");
+		Path path = Files.createTempFile("banned", ".bloom");
+		try (BufferedWriter writer = Files.newBufferedWriter(list, StandardCharsets.UTF_8)) {
+			writer.write("Password1!\r\n");
+			writer.write("P\u00e4ssw\u00f6rd1!\n");
+			for (int i = 0; i < BANNED; i++) {
+				writer.write("leaked" + i + "Pass!");
+				writer.newLine();
+			}
+		}
+
+		// Test - build a filter at a 0.1% false positive rate by streaming the list
+		// Result: 2000002 passwords, under 2 bytes of file per password
+		// Test Passed
+		long start = System.nanoTime();
+		long entries = BannedPasswordFilterBuilder.build(list, path, 0.001);
+		System.out.println(String.format("build: %d passwords, %d bytes, %d ms", entries, Files.size(path),
+			(System.nanoTime() - start) / 1000000));
+
+		BannedPasswordFilter filter = BannedPasswordFilter.open(path);
+		Password.getSecurityPolicy().setBannedPasswords(filter);
+
+		// Test - banned passwords which meet every rule are rejected, others are not
+		// Result: 2 warnings that the password is too common, then true
+		// Test Passed
+		for (String banned : new String[] { "Password1!", "P\u00e4ssw\u00f6rd1!" }) {
+			try {
+				new Password(banned.toCharArray(), true);
+			}
+			catch (SecurityException ex) {
+				System.out.println(ex.getMessage());
+			}
+		}
+		System.out.println(new Password(new String("unusual7Horse!").toCharArray(), true).equals(
+			new Password(new String("unusual7Horse!").toCharArray())));
+
+		// Test - no banned password is missed and the false positive rate is as built
+		// Result: 0 missed, about 0.1% false positives, lookups well under a microsecond
+		// Test Passed
+		int missed = 0;
+		for (int i = 0; i < BANNED; i++) {
+			if (!filter.mightContain(("leaked" + i + "Pass!").toCharArray()))
+				missed++;
+		}
+		System.out.println(missed + " missed");
+
+		char[][] candidates = new char[LOOKUPS][];
+		for (int i = 0; i < LOOKUPS; i++)
+			candidates[i] = ("fresh" + i + "Pass!").toCharArray();
+		int falsePositives = 0;
+		start = System.nanoTime();
+		for (char[] candidate : candidates) {
+			if (filter.mightContain(candidate))
+				falsePositives++;
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("false positives: %.3f%%, %d ns per lookup",
+			falsePositives * 100.0 / LOOKUPS, elapsed / LOOKUPS));
+
+		Password.getSecurityPolicy().setBannedPasswords(null);
+		filter.close();
+		Files.delete(path);
+		Files.delete(list);
+	}
+}
\ No newline at end of file
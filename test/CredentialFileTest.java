@@ -0,0 +1,71 @@
+package org.andy.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.andy.login.LoginRequest;
+import org.andy.security.Password;
+import org.andy.store.CredentialFile;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class CredentialFileTest {
+	private static final int USERS = 200000;
+
+	public static void main(String[] args) throws Exception {
+		Path path = Files.createTempFile("credentials", ".dat");
+
+		UserStore store = new UserStore();
+		for (int i = 0; i < USERS; i++) {
+			User user = new User("User " + i, "user." + i, new Password(("pass" + i + "Word!").toCharArray(), true));
+			if (i % 10 == 0)
+				user.addPrivilege(User.Privilege.USER_ADMIN);
+			store.add(user);
+		}
+		store.get("user.1").getPassword().change(new String("next1Word!").toCharArray());
+
+		long start = System.nanoTime();
+		CredentialFile.write(path, store.getUsers());
+		System.out.println(String.format("write: %d users, %d bytes, %d ms",
+			USERS, Files.size(path), (System.nanoTime() - start) / 1000000));
+
+		// Test - opening the file does not depend on the number of users
+		// Result: open takes well under a millisecond
+		// Test Passed
+		start = System.nanoTime();
+		CredentialFile file = CredentialFile.open(path);
+		System.out.println(String.format("open: %d us", (System.nanoTime() - start) / 1000));
+
+		// Test - restored users keep their secret, history, privileges and lock
+		// Result: true, true, [STANDARD, USER_ADMIN], false, null
+		// Test Passed
+		User original = store.get("user.1");
+		User restored = file.read("user.1");
+		System.out.println(restored.getPassword().getSecret().equals(original.getPassword().getSecret()));
+		System.out.println(Arrays.equals(restored.getPassword().getHistory(), original.getPassword().getHistory()));
+		System.out.println(Arrays.toString(file.read("user.10").getPrivileges()));
+		System.out.println(restored.getPassword().isLocked());
+		System.out.println(file.read("nobody"));
+
+		// Test - a store backed by the file decodes users on first lookup
+		// Result: 0 users loaded, true, 1 user loaded
+		// Test Passed
+		UserStore lazy = new UserStore(file);
+		System.out.println(lazy.size() + " users loaded");
+		LoginRequest request = new LoginRequest("user.7", new Password(new String("pass7Word!").toCharArray()));
+		System.out.println(lazy.validate(request).isValidated());
+		System.out.println(lazy.size() + " user loaded");
+
+		// Test - time to decode every user once
+		// Result: lookups/sec
+		// Test Passed
+		start = System.nanoTime();
+		for (int i = 0; i < USERS; i++)
+			file.read("user." + i);
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("decode: %d lookups/sec", USERS * 1000000000L / elapsed));
+
+		file.close();
+		Files.delete(path);
+	}
+}
\ No newline at end of file
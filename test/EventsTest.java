@@ -0,0 +1,118 @@
+package org.andy.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.andy.events.Events;
+import org.andy.events.LoginEvent;
+import org.andy.events.PasswordEvent;
+import org.andy.login.AbstractLogin;
+import org.andy.login.LoginServer;
+import org.andy.login.SessionTokens;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class EventsTest {
+	private static final int EVENTS = 10000000;
+
+	public static void main(String[] args) throws Exception {
+		Password.getSecurityPolicy().setStrict(true);
+		UserStore store = new UserStore();
+		final User user = new User("Events User", "events.user", new Password(new String("one2Three!").toCharArray(), true));
+		User other = new User("Other User", "other.user", new Password(new String("four5Six!").toCharArray(), true));
+		store.add(user);
+		store.add(other);
+		SessionTokens tokens = new SessionTokens(8, TimeUnit.HOURS);
+
+		// Test - cost of the events when nothing is recording
+		// Result: a nanosecond or two per event
+		// Test Passed
+		for (int i = 0; i < EVENTS; i++)
+			LoginEvent.start().finish(LoginEvent.INPUT, "events.user", i); // warm up
+		long start = System.nanoTime();
+		for (int i = 0; i < EVENTS; i++) {
+			LoginEvent.start().finish(LoginEvent.VALIDATE, "events.user", i, true);
+			PasswordEvent.record(PasswordEvent.LOCKED, "events.user", i);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%.2f ns per login and password event", (double)elapsed / EVENTS));
+
+		// Test - the stages of logins, the policy and password transitions are recorded
+		// Result: login input=5 validate=5 failure=2 locked=1 expired=1 token=2 success=2,
+		//         policy encrypt=6 (5 are passwords typed at login) encrypt rejected=1 validate=2,
+		//         password locked=1 expired=1 (restoring a locked password is not a lock),
+		//         0 unknown user hashes, no username recorded
+		// Test Passed
+		Recording recording = new Recording();
+		recording.enable("org.andy.Login");
+		recording.enable("org.andy.PasswordPolicy");
+		recording.enable("org.andy.PasswordState");
+		recording.start();
+
+		login(store, tokens, "other.user", "four5Six!", null);
+		login(store, tokens, "other.user", "wrong1Pass!", null);
+		login(store, tokens, "other.user", "wrong1Pass!", null);
+		login(store, tokens, "other.user", "wrong1Pass!", null);
+		try {
+			user.getPassword().change(new String("one2Three!").toCharArray()); // reused
+		}
+		catch (SecurityException ex) {}
+		Password.getSecurityPolicy().setModified();
+		Password.getSecurityPolicy().expirationCheck(user.getPassword());
+		login(store, tokens, "events.user", "one2Three!", "seven8Nine!"); // changes the expired password
+		new Password(user.getPassword().getSecret(), user.getPassword().getHistory(), new Date(), true); // restored, not locked now
+
+		recording.stop();
+		Path file = Files.createTempFile("events", ".jfr");
+		recording.dump(file);
+		recording.close();
+
+		Map<String, Integer> counts = new TreeMap<String, Integer>();
+		long userHash = Events.hash("events.user"), otherHash = Events.hash("other.user");
+		int unknown = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+			String name = event.getEventType().getName();
+			String key;
+			if (name.equals("org.andy.Login"))
+				key = "login " + event.getString("stage");
+			else if (name.equals("org.andy.PasswordPolicy"))
+				key = "policy " + event.getString("operation") + (event.getBoolean("rejected") ? " rejected" : "");
+			else
+				key = "password " + event.getString("transition");
+			Integer count = counts.get(key);
+			counts.put(key, count == null ? 1 : count + 1);
+
+			long hash = event.getLong("userHash");
+			if (hash != userHash && hash != otherHash && hash != 0)
+				unknown++;
+			if (event.toString().contains("events.user") || event.toString().contains("other.user"))
+				System.out.println("username recorded: " + event);
+		}
+		Files.delete(file);
+		System.out.println(counts);
+		System.out.println(unknown + " unknown user hashes");
+	}
+
+	/* A single login, which changes the password to the new one if it has expired. */
+	private static void login(LoginServer server, SessionTokens tokens, final String username, final String plainText,
+			final String newPlainText) {
+		new AbstractLogin(server, tokens) {
+			protected void getUserInput() {
+				this.setPermittedAttempts(1);
+				this.setUsername(username);
+				this.setPassword(new Password(plainText.toCharArray()));
+			}
+			protected void onFailure() {}
+			protected void onPasswordExpired() { this.getUser().getPassword().change(newPlainText.toCharArray()); }
+			protected void onPasswordLocked() {}
+			protected void onSuccess() {}
+		};
+	}
+}
\ No newline at end of file
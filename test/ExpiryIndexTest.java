@@ -0,0 +1,139 @@
+package org.andy.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.andy.security.Password;
+import org.andy.store.CredentialFile;
+import org.andy.store.ExpiryIndex;
+import org.andy.store.ExpiryListener;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class ExpiryIndexTest {
+	private static final int USERS = 240000;
+	private static final int DAYS = 120;
+	private static final int SOON = 100;
+
+	public static void main(String[] args) throws Exception {
+		Path path = Files.createTempFile("credentials", ".dat");
+
+		// 2000 passwords a day for the last 120 days
+		final String secret = new Password(new String("pass1Word!").toCharArray(), true).getSecret();
+		final long now = System.currentTimeMillis();
+		List<User> users = new ArrayList<User>();
+		for (int i = 0; i < USERS; i++) {
+			Date created = new Date(now - TimeUnit.DAYS.toMillis(DAYS) * (i + 1) / USERS);
+			users.add(new User("User " + i, "user." + i, new Password(secret, new String[0], created, false)));
+		}
+		CredentialFile.write(path, users);
+		users = null;
+
+		CredentialFile file = CredentialFile.open(path);
+		UserStore store = new UserStore(file);
+		for (int i = 0; i < USERS; i += 10)
+			store.get("user." + i);
+
+		// Test - index a store of which a tenth is loaded, without decoding the rest
+		// Result: 240000 users indexed, 24000 loaded
+		// Test Passed
+		long start = System.nanoTime();
+		ExpiryIndex index = new ExpiryIndex(store);
+		System.out.println(String.format("%d users indexed, %d loaded, %d ms",
+			index.size(), store.size(), (System.nanoTime() - start) / 1000000));
+
+		// Test - who has expired and who expires in the next 7 days
+		// Result: about 60000 expired (30/120), 14000 expiring (7/120), each query well under a scan
+		// Test Passed
+		start = System.nanoTime();
+		int expired = index.expired().size();
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%d expired, %d us", expired, elapsed / 1000));
+		start = System.nanoTime();
+		List<String> expiring = index.expiringWithin(7, TimeUnit.DAYS);
+		elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%d expiring in 7 days, %d us", expiring.size(), elapsed / 1000));
+
+		// Test - passwords which reach their expiry while scheduled are reported on time
+		// Result: 100 reported, the last within a few ms of its expiry, loaded passwords expired
+		// Test Passed
+		for (int i = 0; i < SOON; i++) {
+			Date created = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(90) + 500 + i * 10);
+			store.add(new User("Soon " + i, "soon." + i, new Password(secret, new String[0], created, false)));
+		}
+		final CountDownLatch soon = new CountDownLatch(SOON);
+		final AtomicInteger reported = new AtomicInteger();
+		final long[] last = new long[1];
+		index.schedule(new ExpiryListener() {
+			public void passwordExpired(String username, Date creationDate) {
+				reported.incrementAndGet();
+				if (username.startsWith("soon.")) {
+					last[0] = System.currentTimeMillis() - (creationDate.getTime() + TimeUnit.DAYS.toMillis(90));
+					soon.countDown();
+				}
+			}
+		});
+		System.out.println(soon.await(10, TimeUnit.SECONDS) + ", " + reported.get() + " reported, last " + last[0] + " ms late");
+		System.out.println(store.get("soon.0").getPassword().isExpired());
+
+		// Test - a listener which throws is still told of every password, close() throws what it threw
+		// Result: true, listener failed on late.0
+		// Test Passed
+		ExpiryIndex failing = new ExpiryIndex(store);
+		for (int i = 0; i < 2; i++) {
+			Date created = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(90) + 500 + i * 10);
+			store.add(new User("Late " + i, "late." + i, new Password(secret, new String[0], created, false)));
+		}
+		final CountDownLatch late = new CountDownLatch(2);
+		failing.schedule(new ExpiryListener() {
+			public void passwordExpired(String username, Date creationDate) {
+				late.countDown();
+				throw new IllegalStateException("listener failed on " + username);
+			}
+		});
+		System.out.print(late.await(10, TimeUnit.SECONDS) + ", ");
+		try {
+			failing.close();
+		}
+		catch (IllegalStateException ex) {
+			System.out.println(ex.getMessage());
+		}
+
+		// Test - a longer time to live leaves the passwords it un-expires to be reported again
+		// Result: 0 reported, 1/120 fewer expired after time to live 91
+		// Test Passed
+		reported.set(0);
+		Password.getSecurityPolicy().setTimeToLive(91);
+		Thread.sleep(500);
+		System.out.println(reported.get() + " reported, " + index.expired().size() + " expired after time to live 91");
+
+		// Test - a shorter time to live and a policy modification are reported at once
+		// Result: 61/120 more reported, those un-expired above too, then every remaining password
+		// Test Passed
+		reported.set(0);
+		Password.getSecurityPolicy().setTimeToLive(30);
+		Thread.sleep(500);
+		System.out.println(reported.get() + " reported after time to live 30");
+		reported.set(0);
+		Password.getSecurityPolicy().setModified();
+		Thread.sleep(500);
+		System.out.println(reported.get() + " reported after modification, " + index.expired().size() + " expired");
+
+		// Test - a changed password leaves its place in the index
+		// Result: 1 left, 0 expiring in 30 days
+		// Test Passed
+		Password.getSecurityPolicy().setStrict(true);
+		store.get("user.1").getPassword().change(new String("next1Word!").toCharArray());
+		System.out.println((index.size() - index.expired().size()) + " left, "
+			+ index.expiringWithin(30, TimeUnit.DAYS).size() + " expiring in 30 days");
+
+		index.close();
+		file.close();
+		Files.delete(path);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.andy.security.Password;
+
+public class HashCostTest {
+	private static final int CALLERS = 16;
+	private static final int VERIFICATIONS = 8;
+
+	public static void main(String[] args) throws Exception {
+		Password.getSecurityPolicy().setEncryptionAlgorithm("PBKDF2WithHmacSHA256");
+
+		// Test - secrets carry their own parameters and still verify after a cost change
+		// Result: PBKDF2WithHmacSHA256$1000$<salt>$<key>, true, true, false
+		// Test Passed
+		Password.getSecurityPolicy().setIterations(1000);
+		Password password = new Password(new String("one2Three!").toCharArray(), true);
+		System.out.println(password.getSecret());
+		Password.getSecurityPolicy().setIterations(2000);
+		System.out.println(new Password(new String("one2Three!").toCharArray()).equals(password));
+		System.out.println(password.equals(new Password(new String("one2Three!").toCharArray())));
+		System.out.println(password.equals(new Password(new String("two3Four!").toCharArray())));
+
+		// Test - salted history still rejects a recently used password
+		// Result: Warning that it is a recient password
+		// Test Passed
+		try {
+			password.change(new String("two3Four!").toCharArray());
+			password.change(new String("one2Three!").toCharArray());
+		}
+		catch (SecurityException ex) {
+			System.out.println(ex.getMessage());
+		}
+
+		// Test - throughput of each cost setting with callers outnumbering hash threads
+		// Result: verifications/sec falls roughly in proportion to the iteration count and
+		//         never more than hashThreads derivations run at once
+		// Test Passed
+		int[] costs = { 1000, 10000, 100000, 310000 };
+		for (int cost : costs) {
+			Password.getSecurityPolicy().setIterations(cost);
+			final Password stored = new Password(new String("one2Three!").toCharArray(), true);
+
+			ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			long start = System.nanoTime();
+			for (int t = 0; t < CALLERS; t++) {
+				results.add(callers.submit(new Callable<Integer>() {
+					public Integer call() {
+						int failures = 0;
+						for (int i = 0; i < VERIFICATIONS; i++) {
+							Password attempt = new Password(new String("one2Three!").toCharArray());
+							if (!attempt.equals(stored))
+								failures++;
+						}
+						return failures;
+					}
+				}));
+			}
+
+			int failures = 0;
+			for (Future<Integer> result : results)
+				failures += result.get();
+			long elapsed = System.nanoTime() - start;
+			callers.shutdown();
+
+			long verifications = (long)CALLERS * VERIFICATIONS;
+			System.out.println(String.format("iterations=%-7d hashThreads=%d failures=%d verifications/sec=%.1f",
+				cost, Password.getSecurityPolicy().getHashThreads(), failures,
+				verifications * 1000000000.0 / elapsed));
+		}
+
+		// Test - resize the hashing pool while callers are verifying
+		// Result: failures=0, no verification is refused by the pool being replaced
+		// Test Passed
+		Password.getSecurityPolicy().setIterations(1000);
+		final Password stored = new Password(new String("one2Three!").toCharArray(), true);
+		ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < CALLERS; t++) {
+			results.add(callers.submit(new Callable<Integer>() {
+				public Integer call() {
+					int failures = 0;
+					for (int i = 0; i < 200; i++) {
+						try {
+							if (!new Password(new String("one2Three!").toCharArray()).equals(stored))
+								failures++;
+						}
+						catch (SecurityException ex) {
+							failures++;
+						}
+					}
+					return failures;
+				}
+			}));
+		}
+		for (int i = 0; i < 50; i++) {
+			Password.getSecurityPolicy().setHashThreads(1 + i % 4);
+			Thread.sleep(5);
+		}
+		int failures = 0;
+		for (Future<Integer> result : results)
+			failures += result.get();
+		callers.shutdown();
+		System.out.println("failures=" + failures);
+	}
+}
\ No newline at end of file
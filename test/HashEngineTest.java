@@ -0,0 +1,62 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.andy.security.Password;
+
+public class HashEngineTest {
+	private static final int PASSWORDS = 1000;
+	private static final int ROUNDS = 200;
+
+	public static void main(String[] args) throws Exception {
+		// Work out the expected secret for every password on a single thread first.
+		String[] plainText = new String[PASSWORDS];
+		String[] expected = new String[PASSWORDS];
+		for (int i = 0; i < PASSWORDS; i++) {
+			plainText[i] = "pass" + i + "Word!";
+			expected[i] = new Password(plainText[i].toCharArray()).getSecret();
+		}
+
+		// Test - hash the same passwords from many threads at once
+		// Result: mismatches=0 for every thread count, hashes/sec rises with threads
+		// Test Passed
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores * 2; threads *= 2) {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				final int offset = t;
+				results.add(pool.submit(new Callable<Integer>() {
+					public Integer call() {
+						int mismatches = 0;
+						for (int r = 0; r < ROUNDS; r++) {
+							for (int i = 0; i < PASSWORDS; i++) {
+								int n = (i + offset) % PASSWORDS;
+								String secret = new Password(plainText[n].toCharArray()).getSecret();
+								if (!secret.equals(expected[n]))
+									mismatches++;
+							}
+						}
+						return mismatches;
+					}
+				}));
+			}
+
+			int mismatches = 0;
+			for (Future<Integer> result : results)
+				mismatches += result.get();
+			long elapsed = System.nanoTime() - start;
+			pool.shutdown();
+
+			long hashes = (long)threads * ROUNDS * PASSWORDS;
+			System.out.println(String.format("threads=%-3d mismatches=%d hashes/sec=%d",
+				threads, mismatches, hashes * 1000000000L / elapsed));
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+package org.andy.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.andy.login.LoginRequest;
+import org.andy.metrics.Counter;
+import org.andy.metrics.Histogram;
+import org.andy.metrics.MetricsRegistry;
+import org.andy.metrics.MetricsSnapshot;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class MetricsTest {
+	private static final int THREADS = 4;
+	private static final int RECORDS = 1000000;
+	private static final int TIMED = 50000000;
+
+	public static void main(String[] args) throws Exception {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+
+		// Test - percentiles of 1 to 1000000 are within 3% of the exact values
+		// Result: mean about 500000, p50 about 500000, p99 about 990000, max=1000000
+		// Test Passed
+		Histogram uniform = registry.histogram("test.uniform");
+		for (int i = 1; i <= RECORDS; i++)
+			uniform.record(i);
+		Histogram.Snapshot snapshot = uniform.snapshot();
+		System.out.println(String.format("mean=%.0f p50=%d p99=%d max=%d", snapshot.getMean(),
+			snapshot.getPercentile(50), snapshot.getPercentile(99), snapshot.getMax()));
+
+		// Test - nothing recorded by threads at once is lost
+		// Result: 4000000 counted, 4000000 recorded, max 999999
+		// Test Passed
+		final Counter counter = registry.counter("test.concurrent");
+		final Histogram concurrent = registry.histogram("test.concurrent");
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < THREADS; t++) {
+			futures.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					for (int i = 0; i < RECORDS; i++) {
+						counter.increment();
+						concurrent.record(i);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<?> future : futures)
+			future.get();
+		pool.shutdown();
+		System.out.println(counter.get() + " counted, " + concurrent.snapshot().getCount() + " recorded, max "
+			+ concurrent.snapshot().getMax());
+
+		// Test - cost of recording, and nothing allocated
+		// Result: about 20 ns per record and increment, 0 bytes allocated; each is an atomic add,
+		//         about 10 ns uncontended on the single CPU it was measured on
+		// Test Passed
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		Histogram timed = registry.histogram("test.timed");
+		Counter timedCounter = registry.counter("test.timed");
+		for (int i = 0; i < RECORDS; i++)
+			timed.record(i); // warm up
+		long allocated = threads.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < TIMED; i++) {
+			timed.record(i & 0xFFFFF);
+			timedCounter.increment();
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+		System.out.println(String.format("%.2f ns per record and increment, %d bytes allocated",
+			(double)elapsed / TIMED, allocated));
+
+		// Test - logins and policy checks are recorded
+		// Result: 20 login.validated, 4 login.rejected, 1 security.locked, 1 security.rejected,
+		//         timings of login.validate, security.encrypt, security.validate and the checks
+		// Test Passed
+		Password.getSecurityPolicy().setStrict(true);
+		UserStore store = new UserStore();
+		store.add(new User("Metrics User", "metrics.user", new Password(new String("one2Three!").toCharArray(), true)));
+		store.add(new User("Other User", "other.user", new Password(new String("four5Six!").toCharArray(), true)));
+		for (int i = 0; i < 20; i++) {
+			store.validate(new LoginRequest("metrics.user", new Password(new String("one2Three!").toCharArray())));
+			Password.getSecurityPolicy().expirationCheck(store.get("metrics.user").getPassword());
+		}
+		for (int i = 0; i < 4; i++)
+			store.validate(new LoginRequest("other.user", new Password(new String("wrong1Pass!").toCharArray())));
+		try {
+			store.get("metrics.user").getPassword().change(new String("one2Three!").toCharArray());
+		}
+		catch (SecurityException ex) {}
+		MetricsSnapshot metrics = registry.snapshot();
+		for (String name : new String[] { "login.validated", "login.rejected", "security.locked", "security.rejected" })
+			System.out.print(metrics.getCount(name) + " " + name + ", ");
+		System.out.println();
+		for (Histogram.Snapshot histogram : metrics.getHistograms().values()) {
+			if (!histogram.getName().startsWith("test."))
+				System.out.println(histogram);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+package org.andy.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.andy.login.LoginRequest;
+import org.andy.security.Password;
+import org.andy.store.MutationLog;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class MutationLogTest {
+	private static final int USERS = 1000;
+	private static final int THREADS = 32;
+
+	public static void main(String[] args) throws Exception {
+		Path path = Files.createTempFile("mutations", ".log");
+
+		final UserStore store = new UserStore();
+		MutationLog log = MutationLog.open(path, 2, TimeUnit.MILLISECONDS);
+		store.addListener(log);
+
+		for (int i = 0; i < USERS; i++)
+			store.add(new User("User " + i, "user." + i, new Password(("pass" + i + "Word!").toCharArray(), true)));
+
+		// Test - failed logins from many threads share flushes
+		// Result: every third failure locks a user, mutations/sec well above one fsync each
+		// Test Passed
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		long start = System.nanoTime();
+		for (int t = 0; t < THREADS; t++) {
+			final int offset = t;
+			results.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					for (int i = offset; i < USERS; i += THREADS) {
+						for (int attempt = 0; attempt < 3; attempt++)
+							store.validate(new LoginRequest("user." + i, new Password(new String("wrong1Word!").toCharArray())));
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> result : results)
+			result.get();
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+		System.out.println(String.format("locks logged: %d, %d ms, mutations/sec=%d",
+			USERS, elapsed / 1000000, USERS * 1000000000L / elapsed));
+
+		store.get("user.1").addPrivilege(User.Privilege.USER_ADMIN);
+		store.get("user.2").getPassword().change(new String("next2Word!").toCharArray());
+		store.remove("user.3");
+		log.close();
+
+		// Test - replay the log into an empty store
+		// Result: 999 users, true, [STANDARD, USER_ADMIN], true, null
+		// Test Passed
+		UserStore recovered = new UserStore();
+		long sequence = MutationLog.replay(path, recovered);
+		System.out.println(recovered.size() + " users, last sequence " + sequence);
+		System.out.println(recovered.get("user.0").getPassword().isLocked());
+		System.out.println(Arrays.toString(recovered.get("user.1").getPrivileges()));
+		System.out.println(recovered.get("user.2").getPassword().getSecret().equals(
+			store.get("user.2").getPassword().getSecret()));
+		System.out.println(recovered.get("user.3"));
+
+		// Test - a torn entry at the end of the log is ignored and truncated on open
+		// Result: same sequence as above
+		// Test Passed
+		Files.write(path, new byte[] { 0, 0, 1, 0, 7 }, java.nio.file.StandardOpenOption.APPEND);
+		MutationLog.open(path, 0, TimeUnit.MILLISECONDS).close();
+		System.out.println(MutationLog.replay(path, new UserStore()) == sequence);
+
+		// Test - entries logged while the log is closed are written or refused, never left waiting
+		// Result: true, written + refused = logged
+		// Test Passed
+		Path closing = Files.createTempFile("closing", ".log");
+		final MutationLog racing = MutationLog.open(closing, 0, TimeUnit.MILLISECONDS);
+		pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<List<CompletableFuture<Long>>>> logged = new ArrayList<Future<List<CompletableFuture<Long>>>>();
+		for (int t = 0; t < THREADS; t++) {
+			logged.add(pool.submit(new Callable<List<CompletableFuture<Long>>>() {
+				public List<CompletableFuture<Long>> call() {
+					List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+					for (int i = 0; i < 2000; i++)
+						futures.add(racing.remove("user." + i));
+					return futures;
+				}
+			}));
+		}
+		Thread.sleep(5);
+		racing.close();
+		int written = 0, refused = 0, waiting = 0;
+		for (Future<List<CompletableFuture<Long>>> future : logged) {
+			for (CompletableFuture<Long> entry : future.get()) {
+				try {
+					entry.get(10, TimeUnit.SECONDS);
+					written++;
+				}
+				catch (ExecutionException ex) {
+					refused++;
+				}
+				catch (TimeoutException ex) {
+					waiting++;
+				}
+			}
+		}
+		System.out.println((waiting == 0) + ", " + written + " written + " + refused + " refused = "
+			+ (written + refused) + " logged");
+		pool.shutdown();
+		Files.delete(closing);
+
+		Files.delete(path);
+	}
+}
\ No newline at end of file
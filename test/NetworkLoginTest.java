@@ -0,0 +1,159 @@
+package org.andy.test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.andy.login.LoginServerAdapter;
+import org.andy.net.LoginClient;
+import org.andy.net.NetworkLoginServer;
+import org.andy.net.RemoteLoginResponse;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class NetworkLoginTest {
+	private static final int USERS = 10000;
+	private static final int CONNECTIONS = 5000;
+	private static final int LOGINS = 50000;
+
+	public static void main(String[] args) throws Exception {
+		UserStore store = new UserStore();
+		for (int i = 0; i < USERS; i++)
+			store.add(new User("User " + i, "user." + i, new Password(("pass" + i + "Word!").toCharArray(), true)));
+
+		LoginServerAdapter adapter = new LoginServerAdapter(store);
+		NetworkLoginServer server = NetworkLoginServer.open(adapter,
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		// Test - a good and a bad password over loopback
+		// Result: true, false
+		// Test Passed
+		LoginClient client = LoginClient.connect(server.getAddress(), 1);
+		System.out.println(client.login("user.1", "pass1Word!".toCharArray()).get().isValidated());
+		System.out.println(client.login("user.1", "wrong1Word!".toCharArray()).get().isValidated());
+
+		// Test - three pipelined failures lock the password and the client is told
+		// Result: false, true
+		// Test Passed
+		List<CompletableFuture<RemoteLoginResponse>> failures = new ArrayList<CompletableFuture<RemoteLoginResponse>>();
+		for (int i = 0; i < 3; i++)
+			failures.add(client.login("user.2", "wrong2Word!".toCharArray()));
+		CompletableFuture.allOf(failures.toArray(new CompletableFuture<?>[0])).get();
+		RemoteLoginResponse locked = client.login("user.2", "pass2Word!".toCharArray()).get();
+		System.out.println(locked.isValidated());
+		System.out.println(locked.isLocked());
+
+		// Test - more requests pipelined on one connection than the server validates at once
+		// Result: true
+		// Test Passed
+		List<CompletableFuture<RemoteLoginResponse>> pipelined = new ArrayList<CompletableFuture<RemoteLoginResponse>>();
+		for (int i = 0; i < 1000; i++)
+			pipelined.add(client.login("user.4", "pass4Word!".toCharArray()));
+		boolean validated = true;
+		for (CompletableFuture<RemoteLoginResponse> login : pipelined)
+			validated &= login.get().isValidated();
+		System.out.println(validated);
+
+		// Test - the password is not kept in a buffer or changed once sent
+		// Result: pass3Word!
+		// Test Passed
+		char[] password = "pass3Word!".toCharArray();
+		client.login("user.3", password).get();
+		System.out.println(new String(password));
+		client.close();
+
+		// Test - clients which connect and reset at once don't stop the server
+		// Result: true, 0 connections left
+		// Test Passed
+		for (int i = 0; i < 200; i++) {
+			Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+			socket.setSoLinger(true, 0);
+			socket.close();
+		}
+		client = LoginClient.connect(server.getAddress(), 1);
+		System.out.print(client.login("user.5", "pass5Word!".toCharArray()).get().isValidated() + ", ");
+		client.close();
+		for (int i = 0; i < 500 && server.getConnections() > 0; i++)
+			Thread.sleep(10);
+		System.out.println(server.getConnections() + " connections left");
+
+		// Test - many concurrent connections each pipelining logins
+		// Result: 5000 connections, failures=0, logins/sec
+		// Test Passed
+		client = LoginClient.connect(server.getAddress(), CONNECTIONS);
+		while (server.getConnections() < CONNECTIONS) // wait until they are all accepted
+			Thread.sleep(10);
+		long start = System.nanoTime();
+		List<CompletableFuture<RemoteLoginResponse>> logins = new ArrayList<CompletableFuture<RemoteLoginResponse>>(LOGINS);
+		for (int i = 0; i < LOGINS; i++) {
+			int user = 10 + i % (USERS - 10);
+			logins.add(client.login("user." + user, ("pass" + user + "Word!").toCharArray()));
+		}
+		int failed = 0;
+		for (CompletableFuture<RemoteLoginResponse> login : logins) {
+			if (!login.get().isValidated())
+				failed++;
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%d connections, failures=%d, %d logins/sec",
+			client.getConnections(), failed, LOGINS * 1000000000L / elapsed));
+
+		// Test - closing the server closes each connection once
+		// Result: 0 connections
+		// Test Passed
+		client.close();
+		server.close();
+		adapter.close();
+		System.out.println(server.getConnections() + " connections");
+
+		// Test - a connection closed by the server fails its logins at once and is skipped
+		// Result: true, 10 validated on the other connection
+		// Test Passed
+		final ServerSocket fake = new ServerSocket(0, 2, InetAddress.getLoopbackAddress());
+		Thread answering = new Thread(new Runnable() {
+			public void run() {
+				try (Socket closed = fake.accept(); Socket open = fake.accept()) {
+					closed.setSoLinger(true, 0);
+					closed.close();
+					DataInputStream in = new DataInputStream(open.getInputStream());
+					DataOutputStream out = new DataOutputStream(open.getOutputStream());
+					while (true) {
+						byte[] request = new byte[in.readInt()];
+						in.readFully(request);
+						out.writeInt(5);
+						out.write(request, 0, 4); // the id
+						out.writeByte(1); // validated
+						out.flush();
+					}
+				}
+				catch (IOException ex) {} // the client closed
+			}
+		});
+		answering.setDaemon(true);
+		answering.start();
+		client = LoginClient.connect((InetSocketAddress)fake.getLocalSocketAddress(), 2);
+		try {
+			client.login(0, "user.1", "pass1Word!".toCharArray()).get(10, TimeUnit.SECONDS);
+		}
+		catch (ExecutionException ex) {
+			System.out.print((ex.getCause() instanceof IOException) + ", ");
+		}
+		int answered = 0;
+		for (int i = 0; i < 10; i++) {
+			if (client.login("user.1", "pass1Word!".toCharArray()).get(10, TimeUnit.SECONDS).isValidated())
+				answered++;
+		}
+		System.out.println(answered + " validated on the other connection");
+		client.close();
+		fake.close();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.andy.security.Password;
+import org.andy.security.PasswordListener;
+
+public class PasswordStressTest {
+	private static final int THREADS = 32;
+	private static final int ROUNDS = 200;
+	private static final int CHANGES = 50;
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+		// Test - every thread fails against one hot account at the same moment, many times over
+		// Result: locked in every round and the listener told exactly once each time
+		// Test Passed
+		int locked = 0, notified = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			final Password password = new Password(new String("one2Three!").toCharArray(), true);
+			final AtomicInteger locks = new AtomicInteger();
+			password.setListener(new PasswordListener() {
+				public void passwordChanged(Password password) {
+					if (password.isLocked())
+						locks.incrementAndGet();
+				}
+			});
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < THREADS; t++) {
+				results.add(pool.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						start.await();
+						return password.equals(new Password(new String("two3Four!").toCharArray()));
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Boolean> result : results)
+				result.get();
+			if (password.isLocked())
+				locked++;
+			notified += locks.get();
+		}
+		System.out.println(String.format("%d/%d locked, %d notifications", locked, ROUNDS, notified));
+
+		// Test - change() races with verification of the same password
+		// Result: no exceptions, every verification matches one of the passwords it was set to,
+		//         history holds the previous passwords with no gaps or repeats
+		// Test Passed
+		Password.getSecurityPolicy().setFailureLimit(0); // failures are expected here
+		final Password password = new Password(new String("pass0Word!").toCharArray(), true);
+		final AtomicInteger matched = new AtomicInteger();
+		Future<Void> changer = pool.submit(new Callable<Void>() {
+			public Void call() {
+				for (int i = 1; i <= CHANGES; i++)
+					password.change(("pass" + i + "Word!").toCharArray());
+				return null;
+			}
+		});
+		List<Future<Void>> verifiers = new ArrayList<Future<Void>>();
+		for (int t = 0; t < THREADS - 1; t++) {
+			verifiers.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					while (!changer.isDone()) {
+						for (int i = 0; i <= CHANGES; i += 10) {
+							if (password.equals(new Password(("pass" + i + "Word!").toCharArray())))
+								matched.incrementAndGet();
+						}
+						password.getHistory();
+					}
+					return null;
+				}
+			}));
+		}
+		changer.get();
+		for (Future<Void> verifier : verifiers)
+			verifier.get();
+
+		String[] history = password.getHistory();
+		Set<String> distinct = new HashSet<String>();
+		for (String secret : history)
+			distinct.add(secret);
+		System.out.println(String.format("%d verifications matched, history %d/%d distinct, current %s",
+			matched.get(), distinct.size(), history.length,
+			password.equals(new Password(("pass" + CHANGES + "Word!").toCharArray()))));
+
+		pool.shutdown();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+package org.andy.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.andy.login.LoginRequest;
+import org.andy.security.Password;
+import org.andy.store.CredentialFile;
+import org.andy.store.PolicyReview;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class PolicyReviewTest {
+	private static final int USERS = 500000;
+	private static final int LOADED = 20000;
+	private static final int DAYS = 120;
+
+	public static void main(String[] args) throws Exception {
+		Path path = Files.createTempFile("credentials", ".dat");
+		int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+		// one password a day for the last 120 days, half of them with a full history
+		String secret = new Password(new String("pass1Word!").toCharArray(), true).getSecret();
+		long now = System.currentTimeMillis();
+		List<User> users = new ArrayList<User>();
+		for (int i = 0; i < USERS; i++) {
+			Date created = new Date(now - TimeUnit.DAYS.toMillis(i % DAYS) - TimeUnit.HOURS.toMillis(1));
+			String[] history = i % 2 == 0 ? new String[] { secret, secret } : new String[0];
+			users.add(new User("User " + i, "user." + i, new Password(secret, history, created, false)));
+		}
+		CredentialFile.write(path, users);
+		users = null;
+
+		CredentialFile file = CredentialFile.open(path);
+		final UserStore store = new UserStore(file);
+		for (int i = 0; i < LOADED; i++)
+			store.get("user." + i);
+
+		// Test - the current strict policy changes nothing but its expired passwords
+		// Result: 500000 users, 30/120 of them expired, none newly, half of the histories resized
+		// Test Passed
+		PolicyReview review = new PolicyReview(store, parallelism);
+		System.out.println(review.dryRun());
+
+		// Test - dry runs of a shorter time to live, a longer history and a modified policy
+		// Result: 90/120 expired, 60/120 newly; every history resized, none truncated; all expired
+		// Test Passed
+		review.setTimeToLive(30);
+		System.out.println(review.dryRun());
+		review = new PolicyReview(store, parallelism);
+		review.setHistoryCount(5);
+		System.out.println(review.dryRun());
+		review = new PolicyReview(store, parallelism);
+		review.setModified();
+		System.out.println(review.dryRun());
+
+		// Test - a dry run changes nothing and logins carry on while it runs
+		// Result: 90, false, 2, logins completed during the review
+		// Test Passed
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger logins = new AtomicInteger();
+		Thread login = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 0; running.get(); i++) {
+					store.validate(new LoginRequest("user." + (i % LOADED), new Password(new String("pass1Word!").toCharArray())));
+					logins.incrementAndGet();
+				}
+			}
+		});
+		login.start();
+		PolicyReview.Report report = review.dryRun();
+		running.set(false);
+		login.join();
+		System.out.println(Password.getSecurityPolicy().getTimeToLive());
+		System.out.println(store.get("user.1").getPassword().isExpired());
+		System.out.println(store.get("user.2").getPassword().getHistory().length);
+		System.out.println(String.format("%d logins during a %d ms review", logins.get(), report.getElapsed()));
+
+		// Test - apply a shorter time to live and history count
+		// Result: 90/120 expired, 60/120 newly, every history resized, half truncated; then 1, 30, true, 1, 1
+		// Test Passed
+		review = new PolicyReview(store, parallelism);
+		review.setTimeToLive(30);
+		review.setHistoryCount(2);
+		long epoch = Password.getSecurityPolicy().getSnapshot().getEpoch();
+		System.out.println(review.apply());
+		System.out.println(Password.getSecurityPolicy().getSnapshot().getEpoch() - epoch);
+		System.out.println(Password.getSecurityPolicy().getTimeToLive());
+		System.out.println(store.get("user.40").getPassword().isExpired());
+		System.out.println(store.get("user.2").getPassword().getHistory().length);
+		System.out.println(store.get("user.3").getPassword().getHistory().length);
+
+		Password.getSecurityPolicy().setStrict(true);
+		file.close();
+		Files.delete(path);
+	}
+}
\ No newline at end of file
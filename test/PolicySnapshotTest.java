@@ -0,0 +1,94 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.andy.security.Password;
+import org.andy.security.PolicySnapshot;
+import org.andy.security.SecurityPolicy;
+
+public class PolicySnapshotTest {
+	private static final int THREADS = 8;
+	private static final int CHECKS = 10000000;
+
+	public static void main(String[] args) throws Exception {
+		final SecurityPolicy policy = Password.getSecurityPolicy();
+
+		// Test - getInstance() from many threads at once returns one policy
+		// Result: true
+		// Test Passed
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<SecurityPolicy>> instances = new ArrayList<Future<SecurityPolicy>>();
+		for (int t = 0; t < THREADS; t++) {
+			instances.add(pool.submit(new Callable<SecurityPolicy>() {
+				public SecurityPolicy call() { return SecurityPolicy.getInstance(); }
+			}));
+		}
+		boolean same = true;
+		for (Future<SecurityPolicy> instance : instances)
+			same &= instance.get() == policy;
+		System.out.println(same);
+
+		// Test - readers never see setStrict() half applied and epochs only increase
+		// Result: 0 torn snapshots, 0 epochs out of order, many changes made
+		// Test Passed
+		final AtomicBoolean running = new AtomicBoolean(true);
+		List<Future<long[]>> readers = new ArrayList<Future<long[]>>();
+		for (int t = 0; t < THREADS; t++) {
+			readers.add(pool.submit(new Callable<long[]>() {
+				public long[] call() {
+					long torn = 0, disorder = 0, epoch = 0;
+					while (running.get()) {
+						PolicySnapshot snapshot = policy.getSnapshot();
+						boolean strict = snapshot.getTimeToLive() != 0;
+						if (snapshot.mustContainDigit() != strict || (snapshot.getFailureLimit() != 0) != strict ||
+								(snapshot.getEncryptionAlgorithm() != null) != strict || (snapshot.getHistoryCount() != 0) != strict)
+							torn++;
+						if (snapshot.getEpoch() < epoch)
+							disorder++;
+						epoch = snapshot.getEpoch();
+					}
+					return new long[] { torn, disorder };
+				}
+			}));
+		}
+		long start = policy.getSnapshot().getEpoch();
+		for (int i = 0; i < 20000; i++)
+			policy.setStrict(i % 2 != 0);
+		running.set(false);
+		long torn = 0, disorder = 0;
+		for (Future<long[]> reader : readers) {
+			torn += reader.get()[0];
+			disorder += reader.get()[1];
+		}
+		pool.shutdown();
+		System.out.println(String.format("%d torn snapshots, %d epochs out of order, %d changes",
+			torn, disorder, policy.getSnapshot().getEpoch() - start));
+
+		// Test - a modification expires passwords created under an earlier epoch only
+		// Result: false, true, false
+		// Test Passed
+		Password before = new Password(new String("pass1Word!").toCharArray(), true);
+		policy.expirationCheck(before);
+		System.out.println(before.isExpired());
+		policy.setModified();
+		policy.expirationCheck(before);
+		System.out.println(before.isExpired());
+		Password after = new Password(new String("pass2Word!").toCharArray(), true);
+		policy.expirationCheck(after);
+		System.out.println(after.isExpired());
+
+		// Test - cost of the expiration check, one volatile read and no Calendar
+		// Result: well under 100 ns per check
+		// Test Passed
+		long begin = System.nanoTime();
+		for (int i = 0; i < CHECKS; i++)
+			policy.expirationCheck(after);
+		long elapsed = System.nanoTime() - begin;
+		System.out.println(String.format("expirationCheck: %d ns per check", elapsed / CHECKS));
+	}
+}
\ No newline at end of file
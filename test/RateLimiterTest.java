@@ -0,0 +1,88 @@
+package org.andy.test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.andy.login.LoginRequest;
+import org.andy.login.LoginResponse;
+import org.andy.login.LoginServer;
+import org.andy.login.RateLimitedLoginServer;
+import org.andy.login.RateLimiter;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class RateLimiterTest {
+	private static final int BURST = 200000;
+
+	public static void main(String[] args) throws Exception {
+		// a derived key is only computed once a request reaches the store, which is what the
+		// limiter saves
+		Password.getSecurityPolicy().setEncryptionAlgorithm("PBKDF2WithHmacSHA256");
+		Password.getSecurityPolicy().setIterations(10000);
+		Password.getSecurityPolicy().setFailureLimit(0); // the limiter is being tested, not the lock
+		final UserStore store = new UserStore();
+		for (int i = 0; i < 100; i++)
+			store.add(new User("User " + i, "user." + i, new Password(("pass" + i + "Word!").toCharArray(), true)));
+		final AtomicInteger validated = new AtomicInteger();
+		LoginServer counting = new LoginServer() {
+			public LoginResponse validate(LoginRequest request) {
+				validated.incrementAndGet();
+				return store.validate(request);
+			}
+		};
+		RateLimitedLoginServer server = new RateLimitedLoginServer(counting,
+			new RateLimiter(5, 500, TimeUnit.MILLISECONDS), new RateLimiter(20, 500, TimeUnit.MILLISECONDS));
+
+		// Test - a username is limited to 5 attempts in the window
+		// Result: 5 allowed, 5 refused, 5 validated
+		// Test Passed
+		int allowed = 0, refused = 0;
+		for (int i = 0; i < 10; i++) {
+			try {
+				server.validate(new LoginRequest("user.1", new Password(new String("wrong1Word!").toCharArray())));
+				allowed++;
+			}
+			catch (SecurityException ex) {
+				refused++;
+			}
+		}
+		System.out.println(String.format("%d allowed, %d refused, %d validated", allowed, refused, validated.get()));
+
+		// Test - a source is limited to 20 attempts across usernames
+		// Result: 20 allowed
+		// Test Passed
+		allowed = 0;
+		for (int i = 0; i < 100; i++) {
+			try {
+				int n = 2 + i % 98; // user.1 is already over its own limit
+				server.validate(new LoginRequest("user." + n, new Password(("pass" + n + "Word!").toCharArray()), "10.0.0.1"));
+				allowed++;
+			}
+			catch (SecurityException ex) {}
+		}
+		System.out.println(allowed + " allowed");
+
+		// Test - the window slides, after two windows the keys are idle and evicted
+		// Result: true, keys evicted
+		// Test Passed
+		Thread.sleep(1100);
+		System.out.println(server.validate(new LoginRequest("user.1", new Password(new String("pass1Word!").toCharArray()))).isValidated());
+		System.out.println(String.format("usernames: %d tracked, %d evicted; sources: %d tracked",
+			server.getUsernameLimiter().size(), server.getUsernameLimiter().getEvicted(), server.getSourceLimiter().size()));
+
+		// Test - a credential stuffing burst against one account
+		// Result: about 5 validated per window, the rest refused without hashing at a high rate
+		// Test Passed
+		int before = validated.get();
+		long start = System.nanoTime();
+		for (int i = 0; i < BURST; i++) {
+			try {
+				server.validate(new LoginRequest("user.99", new Password(new String("guess" + i).toCharArray())));
+			}
+			catch (SecurityException ex) {}
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%d validated, %d refused, %d attempts/sec",
+			validated.get() - before, server.getUsernameLimiter().getRejected(), BURST * 1000000000L / elapsed));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package org.andy.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import org.andy.security.Password;
+import org.andy.store.CredentialFile;
+import org.andy.user.Role;
+import org.andy.user.User;
+
+public class RoleTest {
+	private static final int CHECKS = 100000000;
+
+	public static void main(String[] args) throws Exception {
+		Role viewer = Role.define(1, "VIEWER", EnumSet.of(User.Privilege.STANDARD));
+		Role helpdesk = Role.define(2, "HELPDESK", EnumSet.of(User.Privilege.USER_ADMIN), viewer);
+		Role auditor = Role.define(3, "AUDITOR", Collections.<User.Privilege>emptySet(), viewer);
+
+		// Test - a role has the privileges of the roles it includes
+		// Result: [STANDARD, USER_ADMIN], true, false
+		// Test Passed
+		System.out.println(helpdesk.getPrivileges());
+		System.out.println(helpdesk.includes(viewer));
+		System.out.println(auditor.includes(helpdesk));
+
+		// Test - a role id can only be defined once
+		// Result: Role id 2 is already HELPDESK
+		// Test Passed
+		try {
+			Role.define(2, "OTHER", EnumSet.noneOf(User.Privilege.class));
+		}
+		catch (IllegalArgumentException ex) {
+			System.out.println(ex.getMessage());
+		}
+
+		// Test - privileges granted by a role are effective but not granted directly
+		// Result: true, true, [STANDARD], [HELPDESK], [STANDARD, USER_ADMIN]
+		// Test Passed
+		User user = new User("Help Desk", "help.desk", new Password(new String("one2Three!").toCharArray()));
+		user.addRole(helpdesk);
+		System.out.println(user.hasPrivilege(User.Privilege.USER_ADMIN));
+		System.out.println(user.hasRole(viewer));
+		System.out.println(Arrays.toString(user.getPrivileges()));
+		System.out.println(Arrays.toString(user.getRoles()));
+		System.out.println(user.getEffectivePrivileges());
+
+		// Test - a privilege granted both ways is kept until both are removed
+		// Result: true, true, false
+		// Test Passed
+		user.addPrivilege(User.Privilege.USER_ADMIN);
+		user.removeRole(helpdesk);
+		System.out.println(user.hasPrivilege(User.Privilege.USER_ADMIN));
+		user.addRole(helpdesk);
+		user.removePrivilege(User.Privilege.USER_ADMIN);
+		System.out.println(user.hasPrivilege(User.Privilege.USER_ADMIN));
+		user.removeRole(helpdesk);
+		System.out.println(user.hasPrivilege(User.Privilege.USER_ADMIN));
+
+		// Test - roles are persisted with the privileges
+		// Result: [HELPDESK, AUDITOR], true, [STANDARD]
+		// Test Passed
+		user.addRole(helpdesk);
+		user.addRole(auditor);
+		Path path = Files.createTempFile("credentials", ".dat");
+		CredentialFile.write(path, Collections.singletonList(user));
+		CredentialFile file = CredentialFile.open(path);
+		User restored = file.read("help.desk");
+		System.out.println(Arrays.toString(restored.getRoles()));
+		System.out.println(restored.hasPrivilege(User.Privilege.USER_ADMIN));
+		System.out.println(Arrays.toString(restored.getPrivileges()));
+		file.close();
+		Files.delete(path);
+
+		// Test - cost of a privilege check
+		// Result: a nanosecond or two per check, nothing allocated
+		// Test Passed
+		long start = System.nanoTime();
+		int allowed = 0;
+		for (int i = 0; i < CHECKS; i++) {
+			if (user.hasPrivilege((i & 1) == 0 ? User.Privilege.STANDARD : User.Privilege.USER_ADMIN))
+				allowed++;
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("hasPrivilege: %d checks, %.2f ns per check", allowed,
+			(double)elapsed / CHECKS));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,177 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.andy.login.Session;
+import org.andy.login.SessionListener;
+import org.andy.login.SessionRegistry;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class SessionRegistryTest {
+	private static final int SESSIONS = 1000000;
+	private static final int PER_USER = 4;
+
+	public static void main(String[] args) throws Exception {
+		Password.getSecurityPolicy().setStrict(true);
+		UserStore store = new UserStore();
+		User user = new User("Session User", "session.user", new Password(new String("one2Three!").toCharArray(), true));
+		store.add(user);
+
+		SessionRegistry registry = new SessionRegistry(200, 1000, TimeUnit.MILLISECONDS, 3);
+		store.addListener(registry);
+		final List<String> ended = new ArrayList<String>();
+		registry.setListener(new SessionListener() {
+			public void sessionEnded(Session session) {
+				synchronized (ended) {
+					ended.add(session.getState().toString());
+				}
+			}
+		});
+
+		// Test - a session is found by its id until it is logged out
+		// Result: true, 1, false, null, LOGGED_OUT
+		// Test Passed
+		Session session = registry.create(user);
+		System.out.println(registry.get(session.getId()) == session);
+		System.out.println(registry.size("session.user"));
+		registry.invalidate(session.getId());
+		System.out.println(session.isActive());
+		System.out.println(registry.get(session.getId()));
+		System.out.println(session.getState());
+
+		// Test - a user can't have more than the maximum number of sessions
+		// Result: session.user already has 3 sessions
+		// Test Passed
+		Session used = registry.create(user);
+		Session idle = registry.create(user);
+		registry.create(user);
+		try {
+			registry.create(user);
+		}
+		catch (SecurityException ex) {
+			System.out.println(ex.getMessage());
+		}
+
+		// Test - a session used within the idle timeout lives until the absolute timeout
+		// Result: IDLE after about 200 ms, EXPIRED after about 1000 ms, nothing left
+		// Test Passed
+		long start = System.nanoTime();
+		long idleAt = 0;
+		while (used.isActive()) {
+			registry.get(used.getId());
+			if (idleAt == 0 && !idle.isActive())
+				idleAt = System.nanoTime() - start;
+			Thread.sleep(10);
+		}
+		long expiredAt = System.nanoTime() - start;
+		System.out.println(String.format("%s after %d ms, %s after %d ms, %d left", idle.getState(), idleAt / 1000000,
+			used.getState(), expiredAt / 1000000, registry.size()));
+
+		// Test - locking a password kills every session of the user
+		// Result: 3 sessions, true, 0 sessions, KILLED
+		//         the listener told of [LOGGED_OUT, IDLE, IDLE, EXPIRED, KILLED, KILLED, KILLED]
+		// Test Passed
+		for (int i = 0; i < 3; i++)
+			session = registry.create(user);
+		System.out.print(registry.size("session.user") + " sessions, ");
+		for (int i = 0; i < Password.getSecurityPolicy().getFailureLimit(); i++)
+			user.getPassword().equals(new Password(new String("wrong1Pass!").toCharArray()));
+		System.out.println(user.getPassword().isLocked() + ", " + registry.size("session.user") + " sessions, "
+			+ session.getState());
+		registry.close();
+		System.out.println(ended);
+
+		// Test - a locked user can't open a session, even one racing the lock
+		// Result: session.user is locked; then true, 0 sessions, none active, race.user is locked
+		// Test Passed
+		try {
+			registry.create(user);
+		}
+		catch (SecurityException ex) {
+			System.out.println(ex.getMessage());
+		}
+		final SessionRegistry racing = registry;
+		final User racer = new User("Race User", "race.user", new Password(new String("one2Three!").toCharArray(), true));
+		store.add(racer);
+		final List<Session> opened = new ArrayList<Session>();
+		final String[] refused = new String[1];
+		Thread creator = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						if (racing.size("race.user") == 3)
+							for (Session s : opened)
+								racing.invalidate(s.getId());
+						opened.add(racing.create(racer));
+					}
+				}
+				catch (SecurityException ex) {
+					refused[0] = ex.getMessage();
+				}
+			}
+		});
+		creator.start();
+		for (int i = 0; i < Password.getSecurityPolicy().getFailureLimit(); i++)
+			racer.getPassword().equals(new Password(new String("wrong1Pass!").toCharArray()));
+		creator.join();
+		int active = 0;
+		for (Session s : opened)
+			if (s.isActive())
+				active++;
+		System.out.println(racer.getPassword().isLocked() + ", " + registry.size("race.user") + " sessions, "
+			+ (active == 0 ? "none" : active) + " active, " + refused[0]);
+
+		// Test - a million sessions, each operation O(1) and a steady cost per session
+		// Result: 1000000 sessions, a few microseconds per create (mostly the SecureRandom id),
+		//         under a microsecond per get and invalidate, about 200 bytes per session,
+		//         none of which is kept once the session has ended
+		// Test Passed
+		registry = new SessionRegistry(30, 8 * 60, TimeUnit.MINUTES, PER_USER);
+		User[] users = new User[SESSIONS / PER_USER];
+		Password password = new Password(new String("four5Six!").toCharArray(), true);
+		for (int i = 0; i < users.length; i++)
+			users[i] = new User("User " + i, "user." + i, password);
+		System.gc();
+		long before = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+		String[] ids = new String[SESSIONS];
+		start = System.nanoTime();
+		for (int i = 0; i < SESSIONS; i++)
+			ids[i] = registry.create(users[i % users.length]).getId();
+		long created = System.nanoTime() - start;
+		System.gc();
+		long after = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+		int found = 0;
+		start = System.nanoTime();
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < SESSIONS; i++) {
+				if (registry.get(ids[i]) != null)
+					found++;
+			}
+		}
+		long got = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int killed = 0;
+		for (int i = 0; i < users.length; i += 2)
+			killed += registry.invalidateAll(users[i].getUsername());
+		for (int i = 1; i < SESSIONS; i += 2)
+			registry.invalidate(ids[i]);
+		long invalidated = System.nanoTime() - start;
+
+		System.out.println(String.format("%d sessions, %d ns per create, %d bytes per session", SESSIONS,
+			created / SESSIONS, (after - before - (long)SESSIONS * 4) / SESSIONS)); // less the ids array
+		System.out.println(String.format("%d found, %d ns per get", found, got / (5L * SESSIONS)));
+		System.out.println(String.format("%d killed, %d left, %d ns per invalidate", killed, registry.size(),
+			invalidated / SESSIONS));
+		ids = null;
+		System.gc();
+		long retained = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+		System.out.println(String.format("%d bytes kept per ended session", Math.max(0, retained - before) / SESSIONS));
+		registry.close();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package org.andy.test;
+
+import java.util.concurrent.TimeUnit;
+import org.andy.login.AbstractLogin;
+import org.andy.login.LoginServer;
+import org.andy.login.SessionToken;
+import org.andy.login.SessionTokens;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class SessionTokenTest {
+	private static final int VERIFICATIONS = 1000000;
+
+	public static void main(String[] args) throws Exception {
+		Password.getSecurityPolicy().setStrict(true);
+		UserStore store = new UserStore();
+		User user = new User("Token User", "token.user", new Password(new String("one2Three!").toCharArray(), true));
+		store.add(user);
+		SessionTokens tokens = new SessionTokens(8, TimeUnit.HOURS);
+		store.addListener(tokens);
+
+		// Test - a successful login is issued a token which verifies to the user
+		// Result: about 80 characters: token.user, true, false
+		// Test Passed
+		String token = login(store, tokens, "one2Three!");
+		SessionToken session = tokens.verify(token);
+		System.out.println(token.length() + " characters: " + session.getUsername());
+		System.out.println(session.hasPrivilege(User.Privilege.STANDARD));
+		System.out.println(session.hasPrivilege(User.Privilege.USER_ADMIN));
+
+		// Test - a failed login has no token, a changed or foreign token doesn't verify
+		// Result: null, null, null, null
+		// Test Passed
+		System.out.println(login(store, tokens, "wrong1Pass!"));
+		char[] tampered = token.toCharArray();
+		tampered[10] = tampered[10] == 'A' ? 'B' : 'A';
+		System.out.println(tokens.verify(new String(tampered)));
+		System.out.println(tokens.verify("not a token"));
+		System.out.println(new SessionTokens(8, TimeUnit.HOURS).verify(token));
+
+		// Test - changing the password or the privileges of the user invalidates its tokens
+		// Result: null, token.user, null
+		// Test Passed
+		user.getPassword().change(new String("four5Six!").toCharArray());
+		System.out.println(tokens.verify(token));
+		token = login(store, tokens, "four5Six!");
+		System.out.println(tokens.verify(token));
+		user.addPrivilege(User.Privilege.USER_ADMIN);
+		System.out.println(tokens.verify(token));
+
+		// Test - a change to the SecurityPolicy invalidates every token
+		// Result: token.user, null
+		// Test Passed
+		token = login(store, tokens, "four5Six!");
+		System.out.println(tokens.verify(token));
+		Password.getSecurityPolicy().setMinimumLength(10);
+		System.out.println(tokens.verify(token));
+
+		// Test - locking the password invalidates its tokens
+		// Result: token.user, true, null
+		// Test Passed
+		token = login(store, tokens, "four5Six!");
+		System.out.println(tokens.verify(token));
+		for (int i = 0; i < Password.getSecurityPolicy().getFailureLimit(); i++)
+			login(store, tokens, "wrong1Pass!");
+		System.out.println(user.getPassword().isLocked());
+		System.out.println(tokens.verify(token));
+
+		// Test - cost of verifying a token
+		// Result: a microsecond or two per verification
+		// Test Passed
+		User other = new User("Other User", "other.user", new Password(new String("seven8Nine!").toCharArray(), true));
+		store.add(other);
+		token = login(store, tokens, "seven8Nine!", "other.user");
+		int valid = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < VERIFICATIONS; i++) {
+			if (tokens.verify(token) != null)
+				valid++;
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%d valid, %.2f us per verification", valid, elapsed / 1000.0 / VERIFICATIONS));
+
+		// Test - with encryption off, changing between passwords which differ only in non-ASCII
+		//        characters still invalidates the tokens
+		// Result: plain.user, null
+		// Test Passed
+		Password.getSecurityPolicy().setStrict(false);
+		User plain = new User("Plain User", "plain.user", new Password(new String("p\u00e4ssw\u00f6rd").toCharArray(), true));
+		store.add(plain);
+		token = login(store, tokens, "p\u00e4ssw\u00f6rd", "plain.user");
+		System.out.println(tokens.verify(token).getUsername());
+		plain.getPassword().change(new String("p\u00f8ssw\u00f8rd").toCharArray());
+		System.out.println(tokens.verify(token));
+	}
+
+	private static String login(LoginServer server, SessionTokens tokens, String plainText) {
+		return login(server, tokens, plainText, "token.user");
+	}
+
+	/* A single login attempt with the username and password, returns the token issued if any. */
+	private static String login(LoginServer server, SessionTokens tokens, final String plainText, final String username) {
+		return new AbstractLogin(server, tokens) {
+			protected void getUserInput() {
+				this.setPermittedAttempts(1);
+				this.setUsername(username);
+				this.setPassword(new Password(plainText.toCharArray()));
+			}
+			protected void onFailure() {}
+			protected void onPasswordExpired() {}
+			protected void onPasswordLocked() {}
+			protected void onSuccess() {}
+			String token() { return this.getToken(); }
+		}.token();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package org.andy.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.andy.login.LoginRequest;
+import org.andy.security.Password;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class UserStoreTest {
+	private static final int USERS = 100000;
+	private static final int VALIDATIONS = 200000;
+
+	public static void main(String[] args) throws Exception {
+		final UserStore store = new UserStore();
+
+		// Test - users are listed by name followed by username
+		// Result: [Ann, Bob, Bob]
+		// Test Passed
+		UserStore small = new UserStore();
+		small.add(new User("Bob", "bob.2", new Password(new String("one2Three!").toCharArray())));
+		small.add(new User("Ann", "ann.1", new Password(new String("one2Three!").toCharArray())));
+		small.add(new User("Bob", "bob.1", new Password(new String("one2Three!").toCharArray())));
+		System.out.println(small.getUsers());
+
+		// Test - a duplicate username is refused
+		// Result: false
+		// Test Passed
+		System.out.println(small.add(new User("Other", "bob.1", null)));
+
+		// Test - validate a good and a bad password
+		// Result: true, false
+		// Test Passed
+		System.out.println(small.validate(request("ann.1", "one2Three!")).isValidated());
+		System.out.println(small.validate(request("ann.1", "two3Four!")).isValidated());
+
+		for (int i = 0; i < USERS; i++)
+			store.add(new User("User " + i, "user." + i, new Password(("pass" + i + "Word!").toCharArray(), true)));
+
+		// Test - validations per second as threads are added
+		// Result: failures=0, validations/sec rises with threads
+		// Test Passed
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores * 2; threads *= 2) {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				results.add(pool.submit(new Callable<Integer>() {
+					public Integer call() {
+						int failures = 0;
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						for (int i = 0; i < VALIDATIONS; i++) {
+							int n = random.nextInt(USERS);
+							if (!store.validate(request("user." + n, "pass" + n + "Word!")).isValidated())
+								failures++;
+						}
+						return failures;
+					}
+				}));
+			}
+
+			int failures = 0;
+			for (Future<Integer> result : results)
+				failures += result.get();
+			long elapsed = System.nanoTime() - start;
+			pool.shutdown();
+
+			long validations = (long)threads * VALIDATIONS;
+			System.out.println(String.format("threads=%-3d failures=%d validations/sec=%d",
+				threads, failures, validations * 1000000000L / elapsed));
+		}
+
+		// Test - remove a user from both indexes
+		// Result: 99999, false
+		// Test Passed
+		User removed = store.remove("user.0");
+		System.out.println(store.size());
+		Iterator<User> users = store.getUsers().iterator();
+		System.out.println(users.next().equals(removed));
+
+		// Test - an unknown user and a locked password cost the same as a wrong password and the
+		//        plain text is cleared either way
+		// Result: unknown, locked and wrong each take about the same ms per login, true
+		// Test Passed
+		Password.getSecurityPolicy().setEncryptionAlgorithm("PBKDF2WithHmacSHA256");
+		Password.getSecurityPolicy().setIterations(50000);
+		UserStore timed = new UserStore();
+		timed.add(new User("Open", "open", new Password(new String("one2Three!").toCharArray(), true)));
+		timed.add(new User("Locked", "locked", new Password(new String("one2Three!").toCharArray(), true)));
+		for (int i = 0; i < Password.getSecurityPolicy().getFailureLimit(); i++)
+			timed.validate(request("locked", "two3Four!"));
+		String[][] logins = { { "unknown", "one2Three!" }, { "locked", "one2Three!" }, { "open", "two3Four!" } };
+		for (int round = 0; round < 2; round++) { // the first round warms up
+			for (String[] login : logins) {
+				long start = System.nanoTime();
+				for (int i = 0; i < 10; i++)
+					timed.validate(request(login[0], login[1]));
+				if (round == 1)
+					System.out.println(String.format("%-8s ms/login=%.1f", login[0], (System.nanoTime() - start) / 10 / 1e6));
+			}
+		}
+		char[] plainText = new String("one2Three!").toCharArray();
+		timed.validate(new LoginRequest("unknown", new Password(plainText)));
+		System.out.println(Arrays.equals(plainText, new char[plainText.length]));
+	}
+
+	private static LoginRequest request(String username, String plainText) {
+		return new LoginRequest(username, new Password(plainText.toCharArray()));
+	}
+}
\ No newline at end of file
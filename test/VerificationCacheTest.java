@@ -0,0 +1,83 @@
+package org.andy.test;
+
+import java.util.concurrent.TimeUnit;
+import org.andy.login.LoginRequest;
+import org.andy.security.Password;
+import org.andy.security.VerificationCache;
+import org.andy.store.UserStore;
+import org.andy.user.User;
+
+public class VerificationCacheTest {
+	private static final int LOGINS = 200;
+
+	public static void main(String[] args) throws Exception {
+		Password.getSecurityPolicy().setEncryptionAlgorithm("PBKDF2WithHmacSHA256");
+		Password.getSecurityPolicy().setIterations(100000);
+
+		UserStore store = new UserStore();
+		store.add(new User("Script", "script", new Password(new String("one2Three!").toCharArray(), true)));
+		VerificationCache cache = new VerificationCache(1000, 1, TimeUnit.MINUTES);
+
+		// Test - repeat logins by a scripted client without and with the cache
+		// Result: logins/sec, many times higher with the cache, LOGINS - 1 hits
+		// Test Passed
+		long start = System.nanoTime();
+		for (int i = 0; i < LOGINS; i++)
+			store.validate(login("one2Three!"));
+		long uncached = System.nanoTime() - start;
+		store.setVerificationCache(cache);
+		start = System.nanoTime();
+		for (int i = 0; i < LOGINS; i++)
+			store.validate(login("one2Three!"));
+		long cached = System.nanoTime() - start;
+		System.out.println(String.format("uncached: %d logins/sec, cached: %d logins/sec, %d hits",
+			LOGINS * 1000000000L / uncached, LOGINS * 1000000000L / cached, cache.getHits()));
+
+		// Test - a wrong password is never served from the cache
+		// Result: false
+		// Test Passed
+		System.out.println(store.validate(login("two3Four!")).isValidated());
+
+		// Test - changing the password evicts the entry, the old password fails
+		// Result: false, true
+		// Test Passed
+		store.get("script").getPassword().change(new String("two3Four!").toCharArray());
+		System.out.println(store.validate(login("one2Three!")).isValidated());
+		System.out.println(store.validate(login("two3Four!")).isValidated());
+
+		// Test - a locked password is not served from the cache
+		// Result: true, false
+		// Test Passed
+		for (int i = 0; i < 3; i++)
+			store.validate(login("wrong"));
+		System.out.println(store.get("script").getPassword().isLocked());
+		System.out.println(store.validate(login("two3Four!")).isValidated());
+
+		// Test - a policy modification evicts every entry
+		// Result: true, 1 miss more
+		// Test Passed
+		User other = new User("Other", "other", new Password(new String("one2Three!").toCharArray(), true));
+		store.add(other);
+		store.validate(new LoginRequest("other", new Password(new String("one2Three!").toCharArray())));
+		long misses = cache.getMisses();
+		Password.getSecurityPolicy().setModified();
+		System.out.println(store.validate(new LoginRequest("other", new Password(new String("one2Three!").toCharArray()))).isValidated());
+		System.out.println((cache.getMisses() - misses) + " miss more");
+
+		// Test - a full cache drops its least recently used entry
+		// Result: 1 entry, 1 hit 3 misses
+		// Test Passed
+		VerificationCache small = new VerificationCache(1, 1, TimeUnit.MINUTES);
+		store.setVerificationCache(small);
+		store.add(new User("First", "first", new Password(new String("one2Three!").toCharArray(), true)));
+		store.validate(new LoginRequest("first", new Password(new String("one2Three!").toCharArray()))); // miss
+		store.validate(new LoginRequest("first", new Password(new String("one2Three!").toCharArray()))); // hit
+		store.validate(new LoginRequest("other", new Password(new String("one2Three!").toCharArray()))); // miss, drops first
+		store.validate(new LoginRequest("first", new Password(new String("one2Three!").toCharArray()))); // miss
+		System.out.println(String.format("%d entry, %d hit %d misses", small.size(), small.getHits(), small.getMisses()));
+	}
+
+	private static LoginRequest login(String password) {
+		return new LoginRequest("script", new Password(password.toCharArray()));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.andy.user;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * A Role is a named set of privileges which can be granted to a User as a whole. A role may
+ * include other roles, in which case it has their privileges too:
+ *
+ * 		Role viewer = Role.define(1, "VIEWER", EnumSet.of(User.Privilege.STANDARD));
+ * 		Role admin = Role.define(2, "ADMIN", EnumSet.of(User.Privilege.USER_ADMIN), viewer);
+ *
+ * A role is immutable and can only include roles which are already defined, so there can be
+ * no cycles and the privileges of a role, including those of every role below it, are worked
+ * out once when it is defined. See getPrivilegeMask().
+ *
+ * Each role has an id from 0 to MAX_ROLES - 1 by which it is persisted, see UserRecord, so a
+ * role must be given the same id every time the application starts and be defined before any
+ * user holding it is loaded.
+ */
+public final class Role {
+	public static final int MAX_ROLES = 32;
+	private static final AtomicReferenceArray<Role> roles = new AtomicReferenceArray<Role>(MAX_ROLES);
+
+	private final int id;
+	private final String name;
+	private final long privileges; // includes the privileges of the roles included
+	private final long included; // the ids of this role and every role below it
+	private final Set<User.Privilege> privilegeSet;
+
+	private Role(int id, String name, long privileges, long included) {
+		this.id = id;
+		this.name = name;
+		this.privileges = privileges;
+		this.included = included;
+
+		EnumSet<User.Privilege> privilegeSet = EnumSet.noneOf(User.Privilege.class);
+		for (User.Privilege privilege : User.Privilege.values()) {
+			if ((privileges & privilege.mask()) != 0)
+				privilegeSet.add(privilege);
+		}
+		this.privilegeSet = Collections.unmodifiableSet(privilegeSet);
+	}
+
+	/*
+	 * Defines the role with the id, the privileges and the privileges of every role it
+	 * includes. An IllegalArgumentException is thrown if the id is out of range or taken.
+	 */
+	public static Role define(int id, String name, Set<User.Privilege> privileges, Role... includes) {
+		if (id < 0 || id >= MAX_ROLES)
+			throw new IllegalArgumentException("Role id must be from 0 to " + (MAX_ROLES - 1));
+
+		long mask = 0;
+		for (User.Privilege privilege : privileges)
+			mask |= privilege.mask();
+		long included = 1L << id;
+		for (Role role : includes) {
+			mask |= role.privileges;
+			included |= role.included;
+		}
+
+		Role role = new Role(id, name, mask, included);
+		if (!roles.compareAndSet(id, null, role))
+			throw new IllegalArgumentException("Role id " + id + " is already " + roles.get(id));
+		return role;
+	}
+
+	/* Returns the role with the id, or null if none is defined. */
+	public static Role get(int id) {
+		return id >= 0 && id < MAX_ROLES ? roles.get(id) : null;
+	}
+
+	public int getId() { return this.id; }
+	public String getName() { return this.name; }
+
+	/* The privileges of this role and every role it includes, as a mask of Privilege.mask(). */
+	public long getPrivilegeMask() { return this.privileges; }
+	public Set<User.Privilege> getPrivileges() { return this.privilegeSet; }
+
+	/* Returns true if this role is the role or includes it, directly or through another role. */
+	public boolean includes(Role role) { return (this.included & (1L << role.id)) != 0; }
+
+	/* The bit of this role in a mask of role ids, and the mask of this role and those it includes. */
+	long mask() { return 1L << this.id; }
+	long includedMask() { return this.included; }
+
+	public String toString() { return this.name; }
+}
\ No newline at end of file
@@ -1,27 +1,47 @@
 package org.andy.user;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 import org.andy.security.Password;
+import org.andy.security.PasswordListener;
 
 /*
  * A User object encapsulates user details. Its equality is determined by a username and
  * it is Comparable which enables sorting by name followed by username. Every user by 
  * default will have STANDARD privilege rights only.
+ *
+ * A UserListener can be set to be told of any change to the user. The User listens to its
+ * own Password so password changes and locks are passed on to the listener too.
+ *
+ * Privileges are held as a bit mask, see Privilege.mask(). A user is granted privileges
+ * directly and through Roles, and the privileges of both are combined into an effective mask
+ * whenever either changes, so hasPrivilege() is a single AND however many roles the user has.
+ * Grants are made one at a time under the lock of the User and checks take no lock.
  */
-public class User implements Comparable<User> {
-	// This enum defines the privilege rights a user can have.
-	public static enum Privilege { STANDARD, USER_ADMIN };
+public class User implements Comparable<User>, PasswordListener {
+	// This enum defines the privilege rights a user can have, at most 32 (see UserRecord).
+	public static enum Privilege { 
+		STANDARD, USER_ADMIN;
+		
+		/* The bit of this privilege in a privilege mask. */
+		public long mask() { return 1L << this.ordinal(); }
+	};
 	
-	private ArrayList<Privilege> privileges;
+	private volatile long privileges; // granted directly
+	private volatile long roles; // granted directly, see Role.mask()
+	private volatile long effective; // granted directly and by roles, what hasPrivilege() checks
+	private volatile long effectiveRoles; // granted directly and included by them, see hasRole()
+	private volatile Set<User.Privilege> effectiveSet = Collections.emptySet();
 	private String name;
 	private String username;
 	private Password password;
+	private volatile UserListener listener;
 	
 	public User(String username, Password password) {
 		this("", username, password);
 	}
 	public User(String name, String username, Password password) {
-		this.privileges = new ArrayList<User.Privilege>();
 		this.setName(name);
 		this.setUsername(username);
 		this.setPassword(password);
@@ -30,11 +50,44 @@ public class User implements Comparable<User> {
 	
 	/* This method adds a privilete if it doesn't already exist. */
 	public void addPrivilege(User.Privilege privilege) {
-		for (User.Privilege p : privileges) {
-			if (privilege.equals(p))
+		synchronized (this) {
+			if ((this.privileges & privilege.mask()) != 0)
+				return;
+			this.privileges |= privilege.mask();
+			this.computeEffective();
+		}
+		this.fireChanged();
+	}
+	
+	/* This method adds a role if the user doesn't already have it. */
+	public void addRole(Role role) {
+		synchronized (this) {
+			if ((this.roles & role.mask()) != 0)
 				return;
+			this.roles |= role.mask();
+			this.computeEffective();
+		}
+		this.fireChanged();
+	}
+	
+	/* Combines the privileges granted directly with those of the roles, the caller holds the lock. */
+	private void computeEffective() {
+		long effective = this.privileges;
+		long effectiveRoles = 0;
+		for (long roles = this.roles; roles != 0; roles &= roles - 1) {
+			Role role = Role.get(Long.numberOfTrailingZeros(roles));
+			effective |= role.getPrivilegeMask();
+			effectiveRoles |= role.includedMask();
+		}
+		
+		EnumSet<User.Privilege> effectiveSet = EnumSet.noneOf(User.Privilege.class);
+		for (User.Privilege privilege : User.Privilege.values()) {
+			if ((effective & privilege.mask()) != 0)
+				effectiveSet.add(privilege);
 		}
-		privileges.add(privilege);
+		this.effectiveSet = Collections.unmodifiableSet(effectiveSet);
+		this.effectiveRoles = effectiveRoles;
+		this.effective = effective;
 	}
 	
 	/* A User is compared on the user's name followed by username. */
@@ -46,48 +99,124 @@ public class User implements Comparable<User> {
 		else return this.getUsername().compareTo(other.getUsername());
 	}
 	
-	/* This method returns an array of this users privileges. */
+	/* This method returns an array of the privileges granted directly to this user. */
 	public User.Privilege[] getPrivileges() {
-		return privileges.toArray(new User.Privilege[privileges.size()]);
+		long privileges = this.privileges;
+		User.Privilege[] granted = new User.Privilege[Long.bitCount(privileges)];
+		int i = 0;
+		for (User.Privilege privilege : User.Privilege.values()) {
+			if ((privileges & privilege.mask()) != 0)
+				granted[i++] = privilege;
+		}
+		return granted;
 	}
 	
+	/* 
+	 * This method returns every privilege of this user, granted directly or by a role. The
+	 * set is worked out when the privileges change and can't be modified.
+	 */
+	public Set<User.Privilege> getEffectivePrivileges() { return this.effectiveSet; }
+	
+	/* The privileges granted directly and the effective privileges as masks of Privilege.mask(). */
+	public long getPrivilegeMask() { return this.privileges; }
+	public long getEffectiveMask() { return this.effective; }
+	
+	/* This method returns an array of the roles granted directly to this user. */
+	public Role[] getRoles() {
+		long roles = this.roles;
+		Role[] granted = new Role[Long.bitCount(roles)];
+		for (int i = 0; roles != 0; roles &= roles - 1)
+			granted[i++] = Role.get(Long.numberOfTrailingZeros(roles));
+		return granted;
+	}
+	
+	/* The roles granted directly as a mask of Role ids. */
+	public long getRoleMask() { return this.roles; }
+	
 	/* User uniqueness and equality is based on the username. */
 	public boolean equals(User other) {
 		return this.getUsername().equals(other.getUsername());	
 	}
+	public boolean equals(Object other) {
+		return other instanceof User && this.equals((User)other);
+	}
+	
+	/* 
+	 * The hash code is based on the username, like equality. A User held in a hash based
+	 * collection should not have its username changed.
+	 */
+	public int hashCode() { return this.getUsername().hashCode(); }
 	
 	public String getName() { return name; }
 	public Password getPassword() { return password; }
 	public String getUsername() { return username; }
 	
-	/* This method returns true if this user has a specified privilege. */
+	/* This method returns true if this user has a specified privilege, directly or by a role. */
 	public boolean hasPrivilege(User.Privilege privilege) { 
-		for (User.Privilege p : privileges) {
-			if (privilege.equals(p))
-				return true;
-		}
-		return false;	
+		return (this.effective & privilege.mask()) != 0;
+	}
+	
+	/* This method returns true if this user has the role, directly or through another role. */
+	public boolean hasRole(Role role) {
+		return (this.effectiveRoles & role.mask()) != 0;
 	}
 	
 	/* This method will remove the specified privilege if it exists. It will
 	 * however not remove the STANDARD privilege which is a default for every
-	 * user.
+	 * user. A privilege also granted by a role is kept through the role.
 	 */
 	public void removePrivilege(User.Privilege privilege) {
 		if (privilege.equals(User.Privilege.STANDARD))
 			return;
 		
-		for (User.Privilege p : privileges) {
-			if (privilege.equals(p)) {
-				privileges.remove(p);
-				break;
-			}
+		synchronized (this) {
+			if ((this.privileges & privilege.mask()) == 0)
+				return;
+			this.privileges &= ~privilege.mask();
+			this.computeEffective();
 		}
+		this.fireChanged();
 	}
 	
-	public void setName(String name) { this.name = name; }
-	public void setPassword(Password password) { this.password = password; }
-	public void setUsername(String username) { this.username = username; }
+	/* This method will remove the role if the user has it. */
+	public void removeRole(Role role) {
+		synchronized (this) {
+			if ((this.roles & role.mask()) == 0)
+				return;
+			this.roles &= ~role.mask();
+			this.computeEffective();
+		}
+		this.fireChanged();
+	}
+	
+	/* Called by this user's Password when it is changed, locked or unlocked. */
+	public void passwordChanged(Password password) { this.fireChanged(); }
+	
+	/* Sets the listener to be told of changes, or null to remove it. */
+	public void setListener(UserListener listener) { this.listener = listener; }
+	
+	private void fireChanged() {
+		UserListener listener = this.listener;
+		if (listener != null)
+			listener.userChanged(this);
+	}
+	
+	public void setName(String name) { this.name = name; this.fireChanged(); }
+	public void setPassword(Password password) {
+		if (this.password != null)
+			this.password.setListener(null);
+		if (password != null) {
+			password.setListener(this);
+			password.setOwner(this.username);
+		}
+		this.password = password;
+		this.fireChanged();
+	}
+	public void setUsername(String username) {
+		this.username = username;
+		if (this.password != null)
+			this.password.setOwner(username);
+	}
 	
 	public void print() { System.out.println(String.format("%-20s%s", getName(), getUsername())); }
 	
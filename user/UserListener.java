@@ -0,0 +1,12 @@
+package org.andy.user;
+
+/*
+ * A UserListener is notified whenever a User is modified; its name, privileges or password,
+ * including a password being changed, locked or unlocked. It is called on the thread that
+ * made the change, after the change has been made. The listener of a User is normally the 
+ * store that holds it, see org.andy.store.UserStore. userRemoved() is only called by stores.
+ */
+public interface UserListener {
+	void userChanged(User user);
+	default void userRemoved(User user) {}
+}
\ No newline at end of file